@@ -0,0 +1,67 @@
+package ru.tehkode.permissions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.tehkode.permissions.benchmark.BenchmarkEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Invalidation of cached user data when a group changes. Placed in this package as {@link PermissionGroup#clearCache()} is protected.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GroupCacheBenchmark {
+	@Param({"3", "5"})
+	public int depth;
+
+	@Param({"4"})
+	public int fanOut;
+
+	@Param({"100", "1000"})
+	public int userCount;
+
+	private BenchmarkEnvironment environment;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		environment = new BenchmarkEnvironment(depth, fanOut, 20, userCount);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		environment.close();
+	}
+
+	@Setup(Level.Invocation)
+	public void resolveViews() {
+		for (PermissionUser user : environment.getUsers()) {
+			user.getView(BenchmarkEnvironment.WORLD);
+		}
+	}
+
+	/**
+	 * Change of the root group, affecting every user
+	 */
+	@Benchmark
+	public void clearRootCache() {
+		environment.getRoot().clearCache();
+	}
+
+	/**
+	 * Change of a leaf group, affecting only its members
+	 */
+	@Benchmark
+	public void clearLeafCache() {
+		environment.getLeaves().get(0).clearCache();
+	}
+}
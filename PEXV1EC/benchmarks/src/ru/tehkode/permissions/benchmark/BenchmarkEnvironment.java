@@ -0,0 +1,324 @@
+package ru.tehkode.permissions.benchmark;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.PermissionAttachment;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+import ru.tehkode.permissions.NativeInterface;
+import ru.tehkode.permissions.PermissionGroup;
+import ru.tehkode.permissions.PermissionManager;
+import ru.tehkode.permissions.PermissionUser;
+import ru.tehkode.permissions.backends.PermissionBackend;
+import ru.tehkode.permissions.backends.memory.MemoryBackend;
+import ru.tehkode.permissions.bukkit.PermissionsEx;
+import ru.tehkode.permissions.bukkit.PermissionsExConfig;
+import ru.tehkode.permissions.bukkit.regexperms.PermissionList;
+import ru.tehkode.permissions.bukkit.regexperms.RegexPermissions;
+import ru.tehkode.permissions.exceptions.PermissionBackendException;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Permissions environment for benchmarks, running without a server.
+ *
+ * Bukkit is stubbed with proxies, data is kept by {@link MemoryBackend}. Groups form a tree of the given depth where
+ * every group has fanOut children, every group has nodeCount own permissions, and users are members of leaf groups.
+ * The root group holds the prefix, so prefix lookups traverse the whole depth.
+ */
+public class BenchmarkEnvironment {
+	public static final String WORLD = "world";
+	private static final Logger LOGGER = Logger.getLogger("PermissionsEx-Benchmark");
+	private static World world;
+	private static Server server;
+
+	private final PermissionsExConfig config;
+	private final PermissionManager manager;
+	private final List<PermissionGroup> groups = new ArrayList<>();
+	private final List<PermissionGroup> leaves = new ArrayList<>();
+	private final List<PermissionUser> users = new ArrayList<>();
+	private final int nodeCount;
+	private PermissionsEx plugin;
+
+	/**
+	 * @param depth Number of group levels
+	 * @param fanOut Number of children of each non-leaf group
+	 * @param nodeCount Number of own permissions of each group
+	 * @param userCount Number of users, spread over leaf groups
+	 */
+	public BenchmarkEnvironment(int depth, int fanOut, int nodeCount, int userCount) throws PermissionBackendException {
+		this.nodeCount = nodeCount;
+		initServer();
+		PermissionBackend.registerBackendAlias("memory", MemoryBackend.class);
+
+		MemoryConfiguration config = new MemoryConfiguration();
+		config.set("permissions.backend", "memory");
+		config.set("permissions.basedir", new File(System.getProperty("java.io.tmpdir"), "pex-benchmark").getPath());
+		config.set("multiserver.use-netevents", false);
+		this.config = new PermissionsExConfig(config, null);
+		this.manager = new PermissionManager(this.config, LOGGER, stub(NativeInterface.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getServerUUID")) {
+					return new UUID(0, 0);
+				}
+				return defaultValue(proxy, method, args);
+			}
+		}));
+
+		List<PermissionGroup> level = Collections.singletonList(createGroup(null, nodeCount));
+		level.get(0).setPrefix("[root]", null);
+		for (int i = 1; i < depth; i++) {
+			List<PermissionGroup> nextLevel = new ArrayList<>();
+			for (PermissionGroup parent : level) {
+				for (int j = 0; j < fanOut; j++) {
+					nextLevel.add(createGroup(parent, nodeCount));
+				}
+			}
+			level = nextLevel;
+		}
+		leaves.addAll(level);
+
+		for (int i = 0; i < userCount; i++) {
+			PermissionUser user = manager.getUser("user" + i);
+			user.setParents(Collections.singletonList(leaves.get(i % leaves.size())));
+			user.addPermission("bench.user" + i + ".own");
+			users.add(user);
+		}
+	}
+
+	private PermissionGroup createGroup(PermissionGroup parent, int nodeCount) {
+		int id = groups.size();
+		PermissionGroup group = manager.getGroup("group" + id);
+		List<String> permissions = new ArrayList<>(nodeCount + 2);
+		permissions.add("-" + getNode(id, 0) + ".denied");
+		for (int i = 0; i < nodeCount; i++) {
+			permissions.add(getNode(id, i));
+		}
+		permissions.add("bench.group" + id + ".wildcard.*");
+		group.setPermissions(permissions);
+		group.setOption("option" + id, String.valueOf(id));
+		if (parent != null) {
+			group.setParents(Collections.singletonList(parent));
+		}
+		groups.add(group);
+		return group;
+	}
+
+	public static String getNode(int group, int node) {
+		return "bench.group" + group + ".node" + node;
+	}
+
+	public PermissionManager getManager() {
+		return manager;
+	}
+
+	/**
+	 * @return All groups, root first, ordered by level
+	 */
+	public List<PermissionGroup> getGroups() {
+		return groups;
+	}
+
+	public PermissionGroup getRoot() {
+		return groups.get(0);
+	}
+
+	public List<PermissionGroup> getLeaves() {
+		return leaves;
+	}
+
+	public List<PermissionUser> getUsers() {
+		return users;
+	}
+
+	/**
+	 * @param count Number of nodes
+	 * @return Nodes granted to users by the root group, the deepest lookups possible
+	 */
+	public String[] getHitNodes(int count) {
+		String[] ret = new String[count];
+		for (int i = 0; i < count; i++) {
+			ret[i] = i % 2 == 0 && nodeCount > 0 ? getNode(0, i % nodeCount) : "bench.group0.wildcard.sub" + i;
+		}
+		return ret;
+	}
+
+	/**
+	 * @param count Number of nodes
+	 * @return Nodes no user has
+	 */
+	public String[] getMissNodes(int count) {
+		String[] ret = new String[count];
+		for (int i = 0; i < count; i++) {
+			ret[i] = "bench.missing" + i + ".node";
+		}
+		return ret;
+	}
+
+	/**
+	 * Create permissible of a stubbed player, with user's permissions attached like the superperms bridge does
+	 *
+	 * @param user User to create permissible for
+	 * @return Permissible
+	 */
+	public BenchmarkPermissible createPermissible(final PermissionUser user) throws ReflectiveOperationException {
+		final UUID uid = UUID.nameUUIDFromBytes(user.getIdentifier().getBytes());
+		Player player = stub(Player.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+					case "getName":
+						return user.getIdentifier();
+					case "getUniqueId":
+						return uid;
+					case "getServer":
+						return server;
+					case "getWorld":
+						return world;
+					default:
+						return defaultValue(proxy, method, args);
+				}
+			}
+		});
+
+		BenchmarkPermissible permissible = new BenchmarkPermissible(player, getPlugin());
+		PermissionAttachment attachment = permissible.addAttachment(getPlugin());
+		for (String permission : user.getPermissions(WORLD)) {
+			if (permission.startsWith("-")) {
+				attachment.setPermission(permission.substring(1), false);
+			} else {
+				attachment.setPermission(permission, true);
+			}
+		}
+		return permissible;
+	}
+
+	/**
+	 * Plugin instance holding only what permissibles need. JavaPlugin can not be constructed outside of a plugin class loader.
+	 */
+	private PermissionsEx getPlugin() throws ReflectiveOperationException {
+		if (plugin == null) {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+			unsafeField.setAccessible(true);
+			Object unsafe = unsafeField.get(null);
+			Method allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+
+			PermissionsEx plugin = (PermissionsEx) allocateInstance.invoke(unsafe, PermissionsEx.class);
+			RegexPermissions regexPerms = (RegexPermissions) allocateInstance.invoke(unsafe, RegexPermissions.class);
+			setField(RegexPermissions.class, regexPerms, "permsList", new PermissionList());
+			setField(PermissionsEx.class, plugin, "permissionsManager", manager);
+			setField(PermissionsEx.class, plugin, "config", config);
+			setField(PermissionsEx.class, plugin, "regexPerms", regexPerms);
+			setField(JavaPlugin.class, plugin, "isEnabled", true);
+			this.plugin = plugin;
+		}
+		return plugin;
+	}
+
+	private static void setField(Class<?> clazz, Object instance, String name, Object value) throws ReflectiveOperationException {
+		Field field = clazz.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(instance, value);
+	}
+
+	public void close() {
+		manager.end();
+	}
+
+	private static synchronized void initServer() {
+		if (server != null) {
+			return;
+		}
+
+		world = stub(World.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return method.getName().equals("getName") ? WORLD : defaultValue(proxy, method, args);
+			}
+		});
+		final PluginManager pluginManager = stub(PluginManager.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return defaultValue(proxy, method, args);
+			}
+		});
+		server = stub(Server.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+					case "getPluginManager":
+						return pluginManager;
+					case "getWorlds":
+						return Collections.singletonList(world);
+					case "getWorld":
+						return world;
+					case "getLogger":
+						return LOGGER;
+					case "getName":
+					case "getVersion":
+					case "getBukkitVersion":
+						return "benchmark";
+					default:
+						return defaultValue(proxy, method, args);
+				}
+			}
+		});
+		Bukkit.setServer(server);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(Class<T> clazz, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(BenchmarkEnvironment.class.getClassLoader(), new Class<?>[]{clazz}, handler);
+	}
+
+	/**
+	 * Empty or zero value for stubbed methods
+	 */
+	private static Object defaultValue(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Stub" + proxy.getClass().getInterfaces()[0].getSimpleName();
+		}
+
+		Class<?> type = method.getReturnType();
+		if (type == boolean.class) {
+			return false;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		} else if (type == double.class) {
+			return 0D;
+		} else if (type == float.class) {
+			return 0F;
+		} else if (type == Set.class) {
+			return Collections.emptySet();
+		} else if (type == List.class || type == Collection.class) {
+			return Collections.emptyList();
+		} else if (type == Map.class) {
+			return Collections.emptyMap();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,23 @@
+package ru.tehkode.permissions.benchmark;
+
+import org.bukkit.entity.Player;
+import ru.tehkode.permissions.PermissionCheckResult;
+import ru.tehkode.permissions.bukkit.PermissionsEx;
+import ru.tehkode.permissions.bukkit.regexperms.PermissiblePEX;
+
+/**
+ * Permissible exposing the permission check without superperms fallback
+ */
+public class BenchmarkPermissible extends PermissiblePEX {
+	public BenchmarkPermissible(Player player, PermissionsEx plugin) {
+		super(player, plugin);
+	}
+
+	public PermissionCheckResult check(String permission) {
+		return permissionValue(permission);
+	}
+
+	public void clearCheckCache() {
+		cache.invalidateAll();
+	}
+}
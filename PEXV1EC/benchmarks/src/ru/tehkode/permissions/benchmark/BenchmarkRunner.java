@@ -0,0 +1,27 @@
+package ru.tehkode.permissions.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks and writes results as JSON, for comparison between builds.
+ *
+ * Usage: BenchmarkRunner [result file] [benchmark regexp]
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws RunnerException {
+		String resultFile = args.length > 0 ? args[0] : "jmh-result.json";
+		String include = args.length > 1 ? args[1] : "ru\\.tehkode\\.permissions\\..*Benchmark";
+
+		new Runner(new OptionsBuilder()
+				.include(include)
+				.forks(1)
+				.warmupIterations(3)
+				.measurementIterations(5)
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultFile)
+				.build()).run();
+	}
+}
@@ -0,0 +1,88 @@
+package ru.tehkode.permissions.benchmark;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.impl.ConcurrentObjectPool;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Borrowing and returning pooled objects from many threads at once, as the SQL backend does with connections.
+ * Compares the pool used by default in DBCP with the lock-free one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(16)
+public class ConnectionPoolBenchmark {
+	@Param({"generic", "concurrent"})
+	public String pool;
+
+	@Param({"4", "17"})
+	public int maxActive;
+
+	/**
+	 * Work done while holding an object, in JMH tokens
+	 */
+	@Param({"0", "100"})
+	public int holdTokens;
+
+	private ObjectPool<Object> objectPool;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		BasePoolableObjectFactory<Object> factory = new BasePoolableObjectFactory<Object>() {
+			@Override
+			public Object makeObject() {
+				return new Object();
+			}
+		};
+
+		if (pool.equals("concurrent")) {
+			ConcurrentObjectPool<Object> concurrent = new ConcurrentObjectPool<>(factory);
+			concurrent.setMaxActive(maxActive);
+			concurrent.setMaxIdle(maxActive);
+			objectPool = concurrent;
+		} else {
+			GenericObjectPool<Object> generic = new GenericObjectPool<>(factory);
+			generic.setMaxActive(maxActive);
+			generic.setMaxIdle(maxActive);
+			objectPool = generic;
+		}
+
+		for (int i = 0; i < maxActive; i++) {
+			objectPool.addObject();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		objectPool.close();
+	}
+
+	@Benchmark
+	public void borrowReturn(Blackhole bh) throws Exception {
+		Object obj = objectPool.borrowObject();
+		try {
+			bh.consume(obj);
+			if (holdTokens > 0) {
+				Blackhole.consumeCPU(holdTokens);
+			}
+		} finally {
+			objectPool.returnObject(obj);
+		}
+	}
+}
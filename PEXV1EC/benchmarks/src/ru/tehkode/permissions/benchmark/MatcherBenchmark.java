@@ -0,0 +1,54 @@
+package ru.tehkode.permissions.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import ru.tehkode.permissions.PermissionMatcher;
+import ru.tehkode.permissions.RegExpMatcher;
+import ru.tehkode.permissions.TrieMatcher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching single expressions against permissions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MatcherBenchmark {
+	private final PermissionMatcher regexMatcher = new RegExpMatcher();
+	private final PermissionMatcher trieMatcher = new TrieMatcher();
+
+	@Benchmark
+	public boolean regexExact() {
+		return regexMatcher.isMatches("modifyworld.blocks.place", "modifyworld.blocks.place");
+	}
+
+	@Benchmark
+	public boolean regexWildcard() {
+		return regexMatcher.isMatches("modifyworld.*", "modifyworld.blocks.place.stone");
+	}
+
+	@Benchmark
+	public boolean regexAlternatives() {
+		return regexMatcher.isMatches("essentials.(kit|warp).(vip|donor)", "essentials.warp.donor");
+	}
+
+	@Benchmark
+	public boolean regexMiss() {
+		return regexMatcher.isMatches("essentials.kit.*", "worldedit.wand");
+	}
+
+	@Benchmark
+	public boolean trieWildcard() {
+		return trieMatcher.isMatches("modifyworld.*", "modifyworld.blocks.place.stone");
+	}
+
+	@Benchmark
+	public boolean trieMiss() {
+		return trieMatcher.isMatches("essentials.kit.*", "worldedit.wand");
+	}
+}
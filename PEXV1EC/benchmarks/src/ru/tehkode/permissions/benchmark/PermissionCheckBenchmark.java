@@ -0,0 +1,88 @@
+package ru.tehkode.permissions.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.tehkode.permissions.PermissionCheckResult;
+import ru.tehkode.permissions.PermissionUser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Permission checks through {@link PermissionUser#has(String, String)} and the injected permissible
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermissionCheckBenchmark {
+	private static final int CHECKED_NODES = 64;
+
+	@Param({"2", "5"})
+	public int depth;
+
+	@Param({"2", "4"})
+	public int fanOut;
+
+	@Param({"20", "200"})
+	public int nodeCount;
+
+	private BenchmarkEnvironment environment;
+	private PermissionUser user;
+	private BenchmarkPermissible permissible;
+	private String[] hits, misses;
+	private int index;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		environment = new BenchmarkEnvironment(depth, fanOut, nodeCount, 16);
+		user = environment.getUsers().get(0);
+		permissible = environment.createPermissible(user);
+		hits = environment.getHitNodes(CHECKED_NODES);
+		misses = environment.getMissNodes(CHECKED_NODES);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		environment.close();
+	}
+
+	private int next() {
+		return index = (index + 1) % CHECKED_NODES;
+	}
+
+	@Benchmark
+	public boolean userHasHit() {
+		return user.has(hits[next()], BenchmarkEnvironment.WORLD);
+	}
+
+	@Benchmark
+	public boolean userHasMiss() {
+		return user.has(misses[next()], BenchmarkEnvironment.WORLD);
+	}
+
+	@Benchmark
+	public PermissionCheckResult permissibleHit() {
+		return permissible.check(hits[next()]);
+	}
+
+	@Benchmark
+	public PermissionCheckResult permissibleMiss() {
+		return permissible.check(misses[next()]);
+	}
+
+	/**
+	 * Check without the permissible's result cache, matching against every attached permission
+	 */
+	@Benchmark
+	public PermissionCheckResult permissibleUncached() {
+		permissible.clearCheckCache();
+		return permissible.check(hits[next()]);
+	}
+}
@@ -0,0 +1,58 @@
+package ru.tehkode.permissions.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.tehkode.permissions.PermissionGroup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Option and prefix lookups of groups, resolved by traversing the inheritance hierarchy on each call
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraverseBenchmark {
+	@Param({"2", "5", "8"})
+	public int depth;
+
+	@Param({"2"})
+	public int fanOut;
+
+	private BenchmarkEnvironment environment;
+	private PermissionGroup leaf;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		environment = new BenchmarkEnvironment(depth, fanOut, 10, 1);
+		leaf = environment.getLeaves().get(0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		environment.close();
+	}
+
+	@Benchmark
+	public String inheritedOption() {
+		return leaf.getOption("option0", BenchmarkEnvironment.WORLD, null);
+	}
+
+	@Benchmark
+	public String missingOption() {
+		return leaf.getOption("missing", BenchmarkEnvironment.WORLD, null);
+	}
+
+	@Benchmark
+	public String inheritedPrefix() {
+		return leaf.getPrefix(BenchmarkEnvironment.WORLD);
+	}
+}
@@ -0,0 +1,9 @@
+CREATE TABLE IF NOT EXISTS `{permissions_changes}` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `name` varchar(50) NOT NULL,
+  `type` tinyint(1) NOT NULL,
+  `server` varchar(36) NOT NULL,
+  `time` bigint(20) NOT NULL,
+  PRIMARY KEY (`id`),
+  KEY `time` (`time`)
+) DEFAULT CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci;
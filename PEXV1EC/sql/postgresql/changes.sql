@@ -0,0 +1,9 @@
+CREATE TABLE IF NOT EXISTS "{permissions_changes}" (
+  "id"      BIGSERIAL PRIMARY KEY,
+  "name"    varchar(50) NOT NULL,
+  "type"    smallint NOT NULL,
+  "server"  varchar(36) NOT NULL,
+  "time"    bigint NOT NULL
+);
+
+CREATE INDEX "{permissions_changes}_time" ON "{permissions_changes}" ("time");
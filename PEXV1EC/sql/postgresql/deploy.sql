@@ -0,0 +1,34 @@
+CREATE TABLE IF NOT EXISTS "{permissions}" (
+  "id"          SERIAL PRIMARY KEY,
+  "name"        varchar(50) NOT NULL,
+  "type"        smallint NOT NULL,
+  "permission"  TEXT NOT NULL,
+  "world"       varchar(50) NOT NULL,
+  "value"       TEXT NOT NULL
+);
+
+CREATE INDEX "{permissions}_user" ON "{permissions}" ("name", "type");
+CREATE INDEX "{permissions}_world" ON "{permissions}" ("world", "name", "type");
+CREATE UNIQUE INDEX "{permissions}_options" ON "{permissions}" ("name", "type", "world", "permission") WHERE LENGTH("value") > 0;
+
+CREATE TABLE IF NOT EXISTS "{permissions_entity}" (
+  "id"         SERIAL PRIMARY KEY,
+  "name"       varchar(50) NOT NULL,
+  "type"       smallint NOT NULL,
+  "default"    smallint NOT NULL DEFAULT 0,
+  UNIQUE ("name", "type")
+);
+
+CREATE INDEX "{permissions_entity}_default" ON "{permissions_entity}" ("default");
+
+CREATE TABLE IF NOT EXISTS "{permissions_inheritance}" (
+  "id"      SERIAL PRIMARY KEY,
+  "child"   varchar(50) NOT NULL,
+  "parent"  varchar(50) NOT NULL,
+  "type"    smallint NOT NULL,
+  "world"   varchar(50) NULL,
+  UNIQUE ("child", "parent", "type", "world")
+);
+
+CREATE INDEX "{permissions_inheritance}_child" ON "{permissions_inheritance}" ("child", "type");
+CREATE INDEX "{permissions_inheritance}_parent" ON "{permissions_inheritance}" ("parent", "type");
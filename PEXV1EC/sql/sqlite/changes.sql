@@ -0,0 +1,9 @@
+CREATE TABLE `{permissions_changes}` (
+  `id`      integer PRIMARY KEY AUTOINCREMENT NOT NULL,
+  `name`    varchar(50) NOT NULL,
+  `type`    int NOT NULL,
+  `server`  varchar(36) NOT NULL,
+  `time`    integer NOT NULL
+);
+
+CREATE INDEX `permissions_changes_Index01` ON `{permissions_changes}` (`time`);
@@ -14,12 +14,14 @@ import java.util.List;
  */
 public class BasicHttpClient implements HttpClient {
 
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    private static final int READ_TIMEOUT = 30 * 1000;
     private static BasicHttpClient instance;
 
     private BasicHttpClient() {
     }
 
-    public static BasicHttpClient getInstance() {
+    public static synchronized BasicHttpClient getInstance() {
         if (instance == null) {
             instance = new BasicHttpClient();
         }
@@ -36,6 +38,8 @@ public class BasicHttpClient implements HttpClient {
         if (proxy == null) proxy = Proxy.NO_PROXY;
         HttpURLConnection connection = (HttpURLConnection) url.openConnection(proxy);
         connection.setRequestMethod("POST");
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
 
         for (HttpHeader header : headers) {
             connection.setRequestProperty(header.getName(), header.getValue());
@@ -7,6 +7,7 @@ import com.mojang.api.http.HttpClient;
 import com.mojang.api.http.HttpHeader;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -17,10 +18,12 @@ import java.util.List;
 public class HttpProfileRepository implements ProfileRepository {
 
     // You're not allowed to request more than 100 profiles per go.
-    private static final int PROFILES_PER_REQUEST = 100;
+    public static final int PROFILES_PER_REQUEST = 100;
+    public static final String DEFAULT_PROFILES_URL = "https://api.mojang.com/profiles/";
 
     private static Gson gson = new Gson();
     private final String agent;
+    private final String profilesUrl;
     private HttpClient client;
 
     public HttpProfileRepository(String agent) {
@@ -28,10 +31,21 @@ public class HttpProfileRepository implements ProfileRepository {
     }
 
     public HttpProfileRepository(String agent, HttpClient client) {
+        this(agent, client, DEFAULT_PROFILES_URL);
+    }
+
+    /**
+     * @param profilesUrl Base url of the profile lookup endpoint, the agent is appended to it
+     */
+    public HttpProfileRepository(String agent, HttpClient client, String profilesUrl) {
         this.agent = agent;
         this.client = client;
+        this.profilesUrl = profilesUrl;
     }
 
+    /**
+     * @throws UncheckedIOException if a request fails, profiles found by earlier requests are lost
+     */
     @Override
     public Profile[] findProfilesByNames(String... names) {
         List<Profile> profiles = new ArrayList<Profile>();
@@ -51,13 +65,15 @@ public class HttpProfileRepository implements ProfileRepository {
                 String[] namesBatch = Arrays.copyOfRange(names, start, end);
                 HttpBody body = getHttpBody(namesBatch);
                 Profile[] result = post(getProfilesUrl(), body, headers);
-                profiles.addAll(Arrays.asList(result));
+                if (result != null) {
+                    profiles.addAll(Arrays.asList(result));
+                }
 
                 start = end;
                 i++;
             } while (start < namesCount);
-        } catch (Exception e) {
-            // TODO: logging and allowing consumer to react?
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
 
         return profiles.toArray(new Profile[profiles.size()]);
@@ -65,7 +81,7 @@ public class HttpProfileRepository implements ProfileRepository {
 
     private URL getProfilesUrl() throws MalformedURLException {
         // To lookup Minecraft profiles, agent should be "minecraft"
-        return new URL("https://api.mojang.com/profiles/" + agent);
+        return new URL(profilesUrl + agent);
     }
 
     private Profile[] post(URL url, HttpBody body, List<HttpHeader> headers) throws IOException {
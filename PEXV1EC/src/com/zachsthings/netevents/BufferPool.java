@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2014 zml (netevents@zachsthings.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zachsthings.netevents;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of direct buffers shared by all connections, so framing packets does not allocate.
+ *
+ * Buffers are pooled in power of two size classes from {@link #MIN_POOLED} to {@link #MAX_POOLED} bytes.
+ * Larger buffers are allocated on demand and left to the garbage collector when released.
+ */
+public class BufferPool {
+    public static final int MIN_POOLED = 256, MAX_POOLED = 1 << 20;
+    /**
+     * Maximum number of free buffers kept per size class
+     */
+    private static final int MAX_FREE = 16;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED);
+
+    @SuppressWarnings("unchecked")
+    private final Deque<ByteBuffer>[] free = new Deque[Integer.numberOfTrailingZeros(MAX_POOLED) - MIN_SHIFT + 1];
+
+    public BufferPool() {
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Take a cleared buffer from the pool. Its capacity may be larger than requested.
+     *
+     * @param minCapacity required capacity
+     * @return buffer that must be given back with {@link #release(ByteBuffer)} once no longer used
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        if (minCapacity > MAX_POOLED) {
+            return ByteBuffer.allocateDirect(minCapacity);
+        }
+        int sizeClass = sizeClass(minCapacity);
+        ByteBuffer ret;
+        synchronized (free[sizeClass]) {
+            ret = free[sizeClass].pollFirst();
+        }
+        if (ret == null) {
+            ret = ByteBuffer.allocateDirect(MIN_POOLED << sizeClass);
+        }
+        return ret;
+    }
+
+    /**
+     * Return a buffer taken from this pool
+     *
+     * @param buf buffer to return, must not be used afterwards
+     */
+    public void release(ByteBuffer buf) {
+        int capacity = buf.capacity();
+        if (capacity > MAX_POOLED || Integer.bitCount(capacity) != 1 || capacity < MIN_POOLED) {
+            return;
+        }
+        buf.clear();
+        int sizeClass = sizeClass(capacity);
+        synchronized (free[sizeClass]) {
+            if (free[sizeClass].size() < MAX_FREE) {
+                free[sizeClass].addFirst(buf);
+            }
+        }
+    }
+
+    private static int sizeClass(int capacity) {
+        if (capacity <= MIN_POOLED) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2014 zml (netevents@zachsthings.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zachsthings.netevents;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Output stream writing into a buffer taken from a {@link BufferPool}, replaced by a larger one when full.
+ * Packets encode their payload into one of these, which is then written to the channel without further copies.
+ */
+public class ByteBufferOutputStream extends OutputStream {
+    private final BufferPool pool;
+    private final int initialCapacity;
+    private ByteBuffer buf;
+
+    public ByteBufferOutputStream(BufferPool pool, int initialCapacity) {
+        this.pool = pool;
+        this.initialCapacity = initialCapacity;
+        this.buf = pool.acquire(initialCapacity);
+    }
+
+    /**
+     * Make sure the buffer has space for at least {@code bytes} more bytes
+     *
+     * @param bytes number of bytes about to be written
+     * @return buffer to write the bytes to directly
+     */
+    public ByteBuffer ensureRemaining(int bytes) {
+        if (buf.remaining() < bytes) {
+            int required = buf.position() + bytes;
+            if (required < 0) {
+                throw new IllegalStateException("Payload too large");
+            }
+            ByteBuffer larger = pool.acquire(Math.max(required, buf.capacity() * 2));
+            buf.flip();
+            larger.put(buf);
+            pool.release(buf);
+            buf = larger;
+        }
+        return buf;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureRemaining(1).put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureRemaining(len).put(b, off, len);
+    }
+
+    /**
+     * @return number of bytes written since the last reset
+     */
+    public int size() {
+        return buf.position();
+    }
+
+    /**
+     * Flip the buffer for reading. The returned buffer is only valid until the next reset.
+     *
+     * @return buffer holding the bytes written
+     */
+    public ByteBuffer flip() {
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Discard the bytes written, giving back buffers grown for a large payload
+     */
+    public void reset() {
+        if (buf.capacity() > initialCapacity) {
+            pool.release(buf);
+            buf = pool.acquire(initialCapacity);
+        } else {
+            buf.clear();
+        }
+    }
+
+    /**
+     * Give the buffer back to the pool. This stream must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (buf != null) {
+            pool.release(buf);
+            buf = null;
+        }
+    }
+}
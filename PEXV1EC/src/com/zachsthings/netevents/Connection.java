@@ -22,7 +22,6 @@ import java.io.IOException;
 import java.net.SocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SocketChannel;
 import java.util.List;
 import java.util.concurrent.BlockingDeque;
@@ -142,11 +141,22 @@ class Connection implements Closeable {
     }
     public class OutputThread extends IOThread {
         private final BlockingDeque<PacketEntry> sendQueue = new LinkedBlockingDeque<>();
+        private final ByteBufferOutputStream payload = new ByteBufferOutputStream(getPlugin().getBufferPool(), BufferPool.MIN_POOLED);
+        private final ByteBuffer[] frame = new ByteBuffer[2];
 
         public OutputThread() throws IOException {
             super("output", Connection.this);
         }
 
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                payload.close();
+            }
+        }
+
         @Override
         public void act() throws IOException {
             PacketEntry packet;
@@ -162,19 +172,24 @@ class Connection implements Closeable {
             }
         }
 
+        /**
+         * Encode the packet into the reused payload buffer and write it with its header in one gathering write
+         */
         private void write(Packet packet) throws IOException {
-            ByteBuffer payload = packet.write();
+            payload.reset();
+            packet.write(payload);
+            ByteBuffer body = payload.flip();
             headerBuf.clear();
             headerBuf.put(packet.getOpcode());
-            headerBuf.putInt(payload.limit());
-
+            headerBuf.putInt(body.remaining());
             headerBuf.flip();
-            payload.flip();
-            chan.write(headerBuf);
-            int written = 0;
-            while (written < payload.limit()) {
-                written += chan.write(payload);
+
+            frame[0] = headerBuf;
+            frame[1] = body;
+            while (headerBuf.hasRemaining() || body.hasRemaining()) {
+                chan.write(frame);
             }
+            frame[1] = null;
         }
     }
 
@@ -187,26 +202,31 @@ class Connection implements Closeable {
         @Override
         public void act() throws IOException {
             headerBuf.clear();
-            int read = chan.read(headerBuf);
-            if (read == -1) {
-                throw new ClosedChannelException();
-            }
+            readFully(headerBuf);
             headerBuf.flip();
 
             final int opcode = headerBuf.get();
             final int len = headerBuf.getInt();
+            if (len < 0) {
+                throw new IOException("Invalid payload length " + len + " received");
+            }
 
-            ByteBuffer payload = ByteBuffer.allocate(len);
-            read = 0;
-            while (read < len) {
-                int tempRead = chan.read(payload);
-                if (tempRead == -1) {
-                    throw new ClosedChannelException();
-                }
-                read += tempRead;
+            final BufferPool pool = getPlugin().getBufferPool();
+            ByteBuffer payload = pool.acquire(len);
+            try {
+                payload.limit(len);
+                readFully(payload);
+                payload.flip();
+                handle(opcode, payload);
+            } finally {
+                pool.release(payload);
             }
-            payload.flip();
+        }
 
+        /**
+         * Decode a packet and queue it for handling. Packets must not keep a reference to the payload buffer.
+         */
+        private void handle(int opcode, ByteBuffer payload) {
             try {
                 Packet packet;
                 switch (opcode) {
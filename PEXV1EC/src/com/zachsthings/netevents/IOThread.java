@@ -55,5 +55,19 @@ abstract class IOThread extends Thread {
         }
     }
 
+    /**
+     * Read from the channel until the buffer is full
+     *
+     * @param buf buffer to fill
+     * @throws ClosedChannelException if the channel reaches end of stream first
+     */
+    protected void readFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (chan.read(buf) == -1) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+
     protected abstract void act() throws IOException;
 }
@@ -41,6 +41,7 @@ public class NetEventsPlugin extends JavaPlugin {
 
     private final LinkedList<UUID> processedEvents = new LinkedList<>();
     private final Map<SocketAddress, Forwarder> forwarders = new HashMap<>();
+    private final BufferPool bufferPool = new BufferPool();
     private Receiver receiver;
     private PacketHandlerQueue handlerQueue;
     private ReconnectTask reconnectTask;
@@ -170,6 +171,13 @@ public class NetEventsPlugin extends JavaPlugin {
         return handlerQueue;
     }
 
+    /**
+     * @return pool of buffers used to frame packets on all connections
+     */
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     ReconnectTask getReconnectTask() {
         return reconnectTask;
     }
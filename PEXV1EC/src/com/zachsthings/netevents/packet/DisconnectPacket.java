@@ -15,6 +15,7 @@
  */
 package com.zachsthings.netevents.packet;
 
+import com.zachsthings.netevents.ByteBufferOutputStream;
 import com.zachsthings.netevents.Forwarder;
 
 import java.io.IOException;
@@ -59,14 +60,12 @@ public class DisconnectPacket implements Packet {
     }
 
     @Override
-    public ByteBuffer write() throws IOException {
+    public void write(ByteBufferOutputStream out) throws IOException {
         byte[] stringBytes = disconnectMessage.getBytes("utf-8");
-        ByteBuffer buf = ByteBuffer.allocate(2 + stringBytes.length + 1);
+        ByteBuffer buf = out.ensureRemaining(2 + stringBytes.length + 1);
 
         buf.putShort((short) stringBytes.length);
         buf.put(stringBytes);
         buf.put(tryReconnect ? (byte) 1 : 0);
-
-        return buf;
     }
 }
@@ -15,6 +15,8 @@
  */
 package com.zachsthings.netevents.packet;
 
+import com.zachsthings.netevents.ByteBufferInputStream;
+import com.zachsthings.netevents.ByteBufferOutputStream;
 import com.zachsthings.netevents.Forwarder;
 import org.bukkit.event.Event;
 
@@ -54,7 +56,7 @@ public class EventPacket implements Packet {
     }
 
     public static EventPacket read(ByteBuffer buf) throws IOException {
-        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining()));
+        ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(buf));
         final long msb = ois.readLong(), lsb = ois.readLong();
         final UUID uid = new UUID(msb, lsb);
 
@@ -81,19 +83,13 @@ public class EventPacket implements Packet {
         forwarder.getPlugin().callEvent(this, forwarder);
     }
 
-    public ByteBuffer write() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
+    public void write(ByteBufferOutputStream out) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(out);
         oos.writeLong(uid.getMostSignificantBits());
         oos.writeLong(uid.getLeastSignificantBits());
 
         oos.writeObject(sendEvent);
         oos.flush();
-        oos.close();
-
-        ByteBuffer buf = ByteBuffer.wrap(baos.toByteArray());
-        buf.position(buf.limit());
-        return buf;
     }
 
     @Override
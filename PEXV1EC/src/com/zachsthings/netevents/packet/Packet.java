@@ -15,10 +15,10 @@
  */
 package com.zachsthings.netevents.packet;
 
+import com.zachsthings.netevents.ByteBufferOutputStream;
 import com.zachsthings.netevents.Forwarder;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 /**
  * Represents a packet object. Provides methods to encode and handle. Decoding is handled separately because deserialization is annoying
@@ -26,5 +26,12 @@ import java.nio.ByteBuffer;
 public interface Packet {
     public byte getOpcode();
     public void handle(Forwarder session) throws IOException;
-    public ByteBuffer write() throws IOException;
+
+    /**
+     * Encode this packet's payload
+     *
+     * @param out stream to write the payload to, its buffer may be filled directly
+     * @throws IOException if the packet cannot be encoded
+     */
+    public void write(ByteBufferOutputStream out) throws IOException;
 }
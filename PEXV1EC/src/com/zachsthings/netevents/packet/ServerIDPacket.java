@@ -15,6 +15,7 @@
  */
 package com.zachsthings.netevents.packet;
 
+import com.zachsthings.netevents.ByteBufferOutputStream;
 import com.zachsthings.netevents.Forwarder;
 
 import java.io.IOException;
@@ -54,10 +55,9 @@ public class ServerIDPacket implements Packet {
     }
 
     @Override
-    public ByteBuffer write() throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate(2 * 8);
+    public void write(ByteBufferOutputStream out) throws IOException {
+        ByteBuffer buffer = out.ensureRemaining(2 * 8);
         buffer.putLong(serverUid.getMostSignificantBits());
         buffer.putLong(serverUid.getLeastSignificantBits());
-        return buffer;
     }
 }
@@ -25,6 +25,7 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
@@ -70,10 +71,23 @@ public class AESSocketWrapper implements SocketWrapper {
         }
     }
 
+    /**
+     * Channel encrypting each buffer written as a separate record, padded to the cipher's block size.
+     * Records are not delimited, so each one must be read into a buffer with exactly as much space remaining as the
+     * data written. Buffers are kept between calls: the cipher works on heap arrays, as the providers process direct
+     * buffers through temporary arrays anyway, and direct buffers are only used for socket I/O.
+     */
     private static class CryptSocketChannel extends WrappedSocketChannel {
+        private static final int BLOCK_SIZE = 16;
         private final Object readLock = new Object(),
                 writeLock = new Object();
-        private ByteBuffer readTmp;
+        // Guarded by readLock
+        private ByteBuffer readNet;
+        private byte[] readCipher = new byte[0], readPlain = new byte[0];
+        // Guarded by writeLock
+        private ByteBuffer writeNet;
+        private byte[] writePlain = new byte[0], writeCipher = new byte[0];
+        private final ByteBuffer[] writeSingle = new ByteBuffer[1];
         private final Cipher enc, dec;
 
         public CryptSocketChannel(SocketChannel wrappee, Key k, AlgorithmParameters params) throws InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException {
@@ -85,78 +99,145 @@ public class AESSocketWrapper implements SocketWrapper {
         }
 
         /**
-         * Only call under readLock
-         *
+         * @param buf buffer to reuse, may be null
          * @param capacity required capacity
-         * @return adjusted readTmp buffer
+         * @return cleared buffer with at least the required capacity
          */
-        private ByteBuffer adjustReadTmp(int capacity) {
-            if (readTmp == null || readTmp.capacity() < capacity
-                            || (capacity > 16 && readTmp.capacity() > (4 * capacity))) { // If it's not a small buffer and readTmp is pretty large, lets shrink it
-                        readTmp = ByteBuffer.allocate(capacity);
-                    }
-            return readTmp;
+        private static ByteBuffer adjust(ByteBuffer buf, int capacity) {
+            if (buf == null || buf.capacity() < capacity
+                    || (capacity > BLOCK_SIZE && buf.capacity() > (4 * capacity))) { // If it's not a small buffer and buf is pretty large, lets shrink it
+                return ByteBuffer.allocateDirect(capacity);
+            }
+            buf.clear();
+            return buf;
+        }
+
+        /**
+         * @param arr array to reuse
+         * @param capacity required capacity
+         * @return array of at least the required length
+         */
+        private static byte[] adjust(byte[] arr, int capacity) {
+            return arr.length < capacity ? new byte[capacity] : arr;
         }
 
         @Override
         public int read(ByteBuffer dst) throws IOException {
-            int startIdx = dst.position();
-            ByteBuffer src = ByteBuffer.allocate(paddedLen(dst));
-            int read = super.read(src);
-            if (read <= 0) { // Nothing or closed channel
-                return read;
+            if (!dst.hasRemaining()) {
+                return 0;
             }
 
-            src.flip();
             synchronized (readLock) {
-                try {
-                    adjustReadTmp(src.capacity());
-
-                    try {
-                        dec.doFinal(src, readTmp);
-                    } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
-                        // If one of these happens, it's probably an incorrect passphrase
-                        throw new IOException("Invalid data received from remote! Do passphrases match?", e);
-                    }
-                    readTmp.flip();
-                    dst.put(readTmp);
-                } finally {
-                    if (readTmp != null) {
-                        readTmp.clear();
+                final int len = paddedLen(dst.remaining());
+                readNet = adjust(readNet, len);
+                readNet.limit(len);
+                while (readNet.hasRemaining()) {
+                    if (super.read(readNet) == -1) {
+                        if (readNet.position() == 0) {
+                            return -1;
+                        }
+                        throw new EOFException("Channel closed in the middle of a record");
                     }
                 }
+                readNet.flip();
+                readCipher = adjust(readCipher, len);
+                readNet.get(readCipher, 0, len);
+
+                readPlain = adjust(readPlain, dec.getOutputSize(len));
+                final int read;
+                try {
+                    read = dec.doFinal(readCipher, 0, len, readPlain, 0);
+                } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+                    // If one of these happens, it's probably an incorrect passphrase
+                    throw new IOException("Invalid data received from remote! Do passphrases match?", e);
+                }
+                if (read > dst.remaining()) {
+                    throw new IOException("Record of " + read + " bytes received, expected " + dst.remaining());
+                }
+                dst.put(readPlain, 0, read);
+                return read;
             }
-            return dst.position() - startIdx;
         }
 
+        /**
+         * Read one record into each buffer with space remaining
+         */
         @Override
         public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
-            throw new UnsupportedOperationException("Not supported yet.");
-            //return super.read(dsts, offset, length);
+            long read = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int tempRead = read(dsts[i]);
+                if (tempRead == -1) {
+                    return read == 0 ? -1 : read;
+                }
+                read += tempRead;
+            }
+            return read;
         }
 
         @Override
         public int write(ByteBuffer src) throws IOException {
-            ByteBuffer dst = ByteBuffer.allocate(enc.getOutputSize(src.limit()));
-            try {
-                synchronized (writeLock) {
-                    enc.doFinal(src, dst);
+            synchronized (writeLock) {
+                writeSingle[0] = src;
+                try {
+                    return (int) write(writeSingle, 0, 1);
+                } finally {
+                    writeSingle[0] = null;
                 }
-            } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
-                throw new IOException(e);
             }
-            dst.flip();
-            return super.write(dst);
         }
 
+        /**
+         * Encrypt each buffer with data remaining as a record, and write all of them at once
+         */
         @Override
         public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
-            throw new UnsupportedOperationException("Not supported yet.");
-            //return super.write(srcs, offset, length);
+            synchronized (writeLock) {
+                int outLen = 0;
+                for (int i = offset; i < offset + length; i++) {
+                    if (srcs[i].hasRemaining()) {
+                        outLen += enc.getOutputSize(srcs[i].remaining());
+                    }
+                }
+                if (outLen == 0) {
+                    return 0;
+                }
+
+                writeNet = adjust(writeNet, outLen);
+                long written = 0;
+                for (int i = offset; i < offset + length; i++) {
+                    final ByteBuffer src = srcs[i];
+                    final int len = src.remaining();
+                    if (len == 0) {
+                        continue;
+                    }
+                    writeCipher = adjust(writeCipher, enc.getOutputSize(len));
+                    final int cipherLen;
+                    try {
+                        if (src.hasArray()) {
+                            cipherLen = enc.doFinal(src.array(), src.arrayOffset() + src.position(), len, writeCipher, 0);
+                            src.position(src.position() + len);
+                        } else {
+                            writePlain = adjust(writePlain, len);
+                            src.get(writePlain, 0, len);
+                            cipherLen = enc.doFinal(writePlain, 0, len, writeCipher, 0);
+                        }
+                    } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+                        throw new IOException(e);
+                    }
+                    writeNet.put(writeCipher, 0, cipherLen);
+                    written += len;
+                }
+                writeNet.flip();
+                while (writeNet.hasRemaining()) {
+                    super.write(writeNet);
+                }
+                return written;
+            }
         }
 
-        private static int paddedLen(ByteBuffer test) {
-            return test.capacity() + (16 - test.capacity() % 16);
+        private static int paddedLen(int len) {
+            return len + (BLOCK_SIZE - len % BLOCK_SIZE);
         }
     }
 
@@ -34,6 +34,8 @@ import java.sql.SQLFeatureNotSupportedException;
 import javax.sql.DataSource;
 
 import org.apache.commons.pool.KeyedObjectPoolFactory;
+import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.impl.ConcurrentObjectPool;
 import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool.impl.GenericKeyedObjectPoolFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
@@ -290,9 +292,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setMaxActive(int maxActive) {
         this.maxActive = maxActive;
-        if (connectionPool != null) {
-            connectionPool.setMaxActive(maxActive);
-        }
+        configureConnectionPool();
     }
 
     /**
@@ -328,9 +328,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setMaxIdle(int maxIdle) {
         this.maxIdle = maxIdle;
-        if (connectionPool != null) {
-            connectionPool.setMaxIdle(maxIdle);
-        }
+        configureConnectionPool();
     }
 
     /**
@@ -357,9 +355,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setMinIdle(int minIdle) {
        this.minIdle = minIdle;
-       if (connectionPool != null) {
-           connectionPool.setMinIdle(minIdle);
-       }
+       configureConnectionPool();
     }
 
     /**
@@ -426,9 +422,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setMaxWait(long maxWait) {
         this.maxWait = maxWait;
-        if (connectionPool != null) {
-            connectionPool.setMaxWait(maxWait);
-        }
+        configureConnectionPool();
     }
 
     /**
@@ -462,15 +456,14 @@ public class BasicDataSource implements DataSource {
     }
 
     /**
-     * <p>The maximum number of open statements that can be allocated from
-     * the statement pool at the same time, or non-positive for no limit.  Since 
-     * a connection usually only uses one or two statements at a time, this is
-     * mostly used to help detect resource leaks.</p>
+     * <p>The number of open statements the statement pool of a connection aims to
+     * stay under, or non-positive for no limit.  Once reached, idle statements are
+     * closed to make room; statements requested while all are in use are still
+     * created rather than failing.</p>
      * 
      * <p>Note: As of version 1.3, CallableStatements (those produced by {@link Connection#prepareCall})
      * are pooled along with PreparedStatements (produced by {@link Connection#prepareStatement})
-     * and <code>maxOpenPreparedStatements</code> limits the total number of prepared or callable statements
-     * that may be in use at a given time.</p>
+     * and <code>maxOpenPreparedStatements</code> counts prepared and callable statements together.</p>
      */
     protected int maxOpenPreparedStatements = GenericKeyedObjectPool.DEFAULT_MAX_TOTAL;
 
@@ -530,9 +523,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setTestOnBorrow(boolean testOnBorrow) {
         this.testOnBorrow = testOnBorrow;
-        if (connectionPool != null) {
-            connectionPool.setTestOnBorrow(testOnBorrow);
-        }
+        configureConnectionPool();
     }
 
     /**
@@ -562,9 +553,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setTestOnReturn(boolean testOnReturn) {
         this.testOnReturn = testOnReturn;
-        if (connectionPool != null) {
-            connectionPool.setTestOnReturn(testOnReturn);
-        }
+        configureConnectionPool();
     }
 
     /**
@@ -594,9 +583,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
         this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
-        if (connectionPool != null) {
-            connectionPool.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
-        }
+        configureConnectionPool();
     }
 
     /**
@@ -626,9 +613,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setNumTestsPerEvictionRun(int numTestsPerEvictionRun) {
         this.numTestsPerEvictionRun = numTestsPerEvictionRun;
-        if (connectionPool != null) {
-            connectionPool.setNumTestsPerEvictionRun(numTestsPerEvictionRun);
-        }
+        configureConnectionPool();
     }
 
     /**
@@ -657,9 +642,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
         this.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
-        if (connectionPool != null) {
-            connectionPool.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
-        }
+        configureConnectionPool();
     }
 
     /**
@@ -690,9 +673,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void setTestWhileIdle(boolean testWhileIdle) {
         this.testWhileIdle = testWhileIdle;
-        if (connectionPool != null) {
-            connectionPool.setTestWhileIdle(testWhileIdle);
-        }
+        configureConnectionPool();
     }
 
     /**
@@ -954,6 +935,36 @@ public class BasicDataSource implements DataSource {
     }
 
 
+    /**
+     * Use a {@link ConcurrentObjectPool} for connections instead of a {@link GenericObjectPool}.
+     */
+    private boolean lockFreePool = false;
+
+    /**
+     * Returns the value of the lockFreePool property.
+     *
+     * @return true if connections are pooled by a {@link ConcurrentObjectPool}
+     */
+    public synchronized boolean isLockFreePool() {
+        return this.lockFreePool;
+    }
+
+    /**
+     * <p>Sets the value of the lockFreePool property. When true, connections
+     * are pooled by a {@link ConcurrentObjectPool}, which borrows and returns
+     * connections without locking the whole pool. It is not used when
+     * abandoned connections are removed. (Default: false)</p>
+     * <p>
+     * Note: this method currently has no effect once the pool has been
+     * initialized.</p>
+     *
+     * @param lockFreePool true to use a {@link ConcurrentObjectPool}
+     */
+    public synchronized void setLockFreePool(boolean lockFreePool) {
+        this.lockFreePool = lockFreePool;
+        this.restartNeeded = true;
+    }
+
     /** 
      * Controls access to the underlying connection.
      */
@@ -1011,7 +1022,7 @@ public class BasicDataSource implements DataSource {
     /**
      * The object pool that internally manages our connections.
      */
-    protected volatile GenericObjectPool connectionPool = null;
+    protected volatile ObjectPool connectionPool = null;
     
     /**
      * The connection properties that will be sent to our JDBC driver when
@@ -1309,7 +1320,7 @@ public class BasicDataSource implements DataSource {
      */
     public synchronized void close() throws SQLException {
         closed = true;
-        GenericObjectPool oldpool = connectionPool;
+        ObjectPool oldpool = connectionPool;
         connectionPool = null;
         dataSource = null;
         try {
@@ -1381,7 +1392,7 @@ public class BasicDataSource implements DataSource {
         if (isPoolPreparedStatements()) {
             statementPoolFactory = new GenericKeyedObjectPoolFactory(null,
                         -1, // unlimited maxActive (per key)
-                        GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL,
+                        GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW, // go past maxOpenPreparedStatements instead of failing
                         0, // maxWait
                         1, // maxIdle (per key)
                         maxOpenPreparedStatements);
@@ -1487,24 +1498,47 @@ public class BasicDataSource implements DataSource {
      */
     protected void createConnectionPool() {
         // Create an object pool to contain our active connections
-        GenericObjectPool gop;
         if ((abandonedConfig != null) && (abandonedConfig.getRemoveAbandoned())) {
-            gop = new AbandonedObjectPool(null,abandonedConfig);
+            connectionPool = new AbandonedObjectPool(null,abandonedConfig);
+        }
+        else if (lockFreePool) {
+            connectionPool = new ConcurrentObjectPool();
         }
         else {
-            gop = new GenericObjectPool();
+            connectionPool = new GenericObjectPool();
+        }
+        configureConnectionPool();
+    }
+
+    /**
+     * Applies the pool properties of this datasource to the connection pool, if it exists.
+     */
+    private void configureConnectionPool() {
+        if (connectionPool instanceof GenericObjectPool) {
+            GenericObjectPool gop = (GenericObjectPool) connectionPool;
+            gop.setMaxActive(maxActive);
+            gop.setMaxIdle(maxIdle);
+            gop.setMinIdle(minIdle);
+            gop.setMaxWait(maxWait);
+            gop.setTestOnBorrow(testOnBorrow);
+            gop.setTestOnReturn(testOnReturn);
+            gop.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
+            gop.setNumTestsPerEvictionRun(numTestsPerEvictionRun);
+            gop.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
+            gop.setTestWhileIdle(testWhileIdle);
+        } else if (connectionPool instanceof ConcurrentObjectPool) {
+            ConcurrentObjectPool cop = (ConcurrentObjectPool) connectionPool;
+            cop.setMaxActive(maxActive);
+            cop.setMaxIdle(maxIdle);
+            cop.setMinIdle(minIdle);
+            cop.setMaxWait(maxWait);
+            cop.setTestOnBorrow(testOnBorrow);
+            cop.setTestOnReturn(testOnReturn);
+            cop.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
+            cop.setNumTestsPerEvictionRun(numTestsPerEvictionRun);
+            cop.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
+            cop.setTestWhileIdle(testWhileIdle);
         }
-        gop.setMaxActive(maxActive);
-        gop.setMaxIdle(maxIdle);
-        gop.setMinIdle(minIdle);
-        gop.setMaxWait(maxWait);
-        gop.setTestOnBorrow(testOnBorrow);
-        gop.setTestOnReturn(testOnReturn);
-        gop.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
-        gop.setNumTestsPerEvictionRun(numTestsPerEvictionRun);
-        gop.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
-        gop.setTestWhileIdle(testWhileIdle);
-        connectionPool = gop;
     }
 
     /**
@@ -61,6 +61,7 @@ public class BasicDataSourceFactory implements ObjectFactory {
     private final static String PROP_NUMTESTSPEREVICTIONRUN = "numTestsPerEvictionRun";
     private final static String PROP_MINEVICTABLEIDLETIMEMILLIS = "minEvictableIdleTimeMillis";
     private final static String PROP_TESTWHILEIDLE = "testWhileIdle";
+    private final static String PROP_LOCKFREEPOOL = "lockFreePool";
     private final static String PROP_PASSWORD = "password";
     private final static String PROP_URL = "url";
     private final static String PROP_USERNAME = "username";
@@ -97,6 +98,7 @@ public class BasicDataSourceFactory implements ObjectFactory {
         PROP_NUMTESTSPEREVICTIONRUN,
         PROP_MINEVICTABLEIDLETIMEMILLIS,
         PROP_TESTWHILEIDLE,
+        PROP_LOCKFREEPOOL,
         PROP_PASSWORD,
         PROP_URL,
         PROP_USERNAME,
@@ -273,6 +275,11 @@ public class BasicDataSourceFactory implements ObjectFactory {
             dataSource.setTestWhileIdle(Boolean.valueOf(value).booleanValue());
         }
 
+        value = properties.getProperty(PROP_LOCKFREEPOOL);
+        if (value != null) {
+            dataSource.setLockFreePool(Boolean.valueOf(value).booleanValue());
+        }
+
         value = properties.getProperty(PROP_PASSWORD);
         if (value != null) {
             dataSource.setPassword(value);
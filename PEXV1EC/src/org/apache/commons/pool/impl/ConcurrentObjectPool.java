@@ -0,0 +1,889 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pool.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.pool.BaseObjectPool;
+import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.PoolUtils;
+import org.apache.commons.pool.PoolableObjectFactory;
+
+/**
+ * An {@link ObjectPool} with the configuration of {@link GenericObjectPool},
+ * whose borrow and return paths take no pool-wide lock.
+ * <p>
+ * Idle instances are kept in a concurrent deque and the number of instances
+ * managed by the pool is reserved with atomic counters. When the pool is
+ * exhausted, borrowing threads queue up and are handed returned instances,
+ * or capacity freed by destroyed instances, in arrival order.
+ * <p>
+ * Supports the <code>maxActive</code>, <code>maxIdle</code>, <code>minIdle</code>,
+ * <code>maxWait</code>, <code>whenExhaustedAction</code>, <code>lifo</code>,
+ * <code>testOnBorrow</code>, <code>testOnReturn</code>, <code>testWhileIdle</code>
+ * and idle object eviction properties, with the same meaning as in
+ * {@link GenericObjectPool}.
+ *
+ * @param <T> the type of objects held in this pool
+ * @see GenericObjectPool
+ */
+public class ConcurrentObjectPool<T> extends BaseObjectPool<T> {
+
+    /** Marker of a waiter that has not been handed anything yet */
+    private static final Object WAITING = new Object();
+
+    /** Marker of a waiter that gave up */
+    private static final Object CANCELLED = new Object();
+
+    /** Handed to a waiter allowed to create a new instance, capacity is already reserved for it */
+    private static final Object CREATE = new Object();
+
+    /** Handed to waiters when the pool is closed */
+    private static final Object CLOSED = new Object();
+
+    //--- configuration attributes -----------------------------------
+
+    private volatile int _maxActive = GenericObjectPool.DEFAULT_MAX_ACTIVE;
+    private volatile int _maxIdle = GenericObjectPool.DEFAULT_MAX_IDLE;
+    private volatile int _minIdle = GenericObjectPool.DEFAULT_MIN_IDLE;
+    private volatile long _maxWait = GenericObjectPool.DEFAULT_MAX_WAIT;
+    private volatile byte _whenExhaustedAction = GenericObjectPool.DEFAULT_WHEN_EXHAUSTED_ACTION;
+    private volatile boolean _lifo = GenericObjectPool.DEFAULT_LIFO;
+    private volatile boolean _testOnBorrow = GenericObjectPool.DEFAULT_TEST_ON_BORROW;
+    private volatile boolean _testOnReturn = GenericObjectPool.DEFAULT_TEST_ON_RETURN;
+    private volatile boolean _testWhileIdle = GenericObjectPool.DEFAULT_TEST_WHILE_IDLE;
+    private volatile long _timeBetweenEvictionRunsMillis = GenericObjectPool.DEFAULT_TIME_BETWEEN_EVICTION_RUNS_MILLIS;
+    private volatile int _numTestsPerEvictionRun = GenericObjectPool.DEFAULT_NUM_TESTS_PER_EVICTION_RUN;
+    private volatile long _minEvictableIdleTimeMillis = GenericObjectPool.DEFAULT_MIN_EVICTABLE_IDLE_TIME_MILLIS;
+
+    //--- state ------------------------------------------------------
+
+    private volatile PoolableObjectFactory<T> _factory;
+
+    /** Idle instances, most recently returned first when lifo */
+    private final ConcurrentLinkedDeque<IdleObject<T>> _idle = new ConcurrentLinkedDeque<IdleObject<T>>();
+
+    /** Borrowers waiting for an instance, in arrival order */
+    private final ConcurrentLinkedQueue<Waiter> _waiters = new ConcurrentLinkedQueue<Waiter>();
+
+    private final AtomicInteger _numIdle = new AtomicInteger();
+    private final AtomicInteger _numActive = new AtomicInteger();
+
+    /** Instances existing or being created, limited by maxActive */
+    private final AtomicInteger _numTotal = new AtomicInteger();
+
+    private Evictor _evictor = null; //@GuardedBy("this")
+
+    /**
+     * Create a new <tt>ConcurrentObjectPool</tt> with default properties.
+     */
+    public ConcurrentObjectPool() {
+        this(null);
+    }
+
+    /**
+     * Create a new <tt>ConcurrentObjectPool</tt> using the specified factory.
+     * @param factory the (possibly <tt>null</tt>)PoolableObjectFactory to use to create, validate and destroy objects
+     */
+    public ConcurrentObjectPool(PoolableObjectFactory<T> factory) {
+        _factory = factory;
+    }
+
+    //--- configuration methods --------------------------------------
+
+    /**
+     * @return the cap on the total number of object instances managed by the pool.
+     * @see GenericObjectPool#getMaxActive
+     */
+    public int getMaxActive() {
+        return _maxActive;
+    }
+
+    /**
+     * @param maxActive The cap on the total number of object instances managed by the pool.
+     * Negative values mean that there is no limit.
+     * @see GenericObjectPool#setMaxActive
+     */
+    public void setMaxActive(int maxActive) {
+        _maxActive = maxActive;
+        signalWaiters();
+    }
+
+    /**
+     * @return one of {@link GenericObjectPool#WHEN_EXHAUSTED_BLOCK}, {@link GenericObjectPool#WHEN_EXHAUSTED_FAIL}
+     * or {@link GenericObjectPool#WHEN_EXHAUSTED_GROW}
+     * @see GenericObjectPool#getWhenExhaustedAction
+     */
+    public byte getWhenExhaustedAction() {
+        return _whenExhaustedAction;
+    }
+
+    /**
+     * @param whenExhaustedAction the action code, which must be one of
+     *        {@link GenericObjectPool#WHEN_EXHAUSTED_BLOCK}, {@link GenericObjectPool#WHEN_EXHAUSTED_FAIL},
+     *        or {@link GenericObjectPool#WHEN_EXHAUSTED_GROW}
+     * @see GenericObjectPool#setWhenExhaustedAction
+     */
+    public void setWhenExhaustedAction(byte whenExhaustedAction) {
+        switch(whenExhaustedAction) {
+            case GenericObjectPool.WHEN_EXHAUSTED_BLOCK:
+            case GenericObjectPool.WHEN_EXHAUSTED_FAIL:
+            case GenericObjectPool.WHEN_EXHAUSTED_GROW:
+                _whenExhaustedAction = whenExhaustedAction;
+                break;
+            default:
+                throw new IllegalArgumentException("whenExhaustedAction " + whenExhaustedAction + " not recognized.");
+        }
+    }
+
+    /**
+     * @return maximum number of milliseconds {@link #borrowObject} will block, non-positive for no limit
+     * @see GenericObjectPool#getMaxWait
+     */
+    public long getMaxWait() {
+        return _maxWait;
+    }
+
+    /**
+     * @param maxWait maximum number of milliseconds {@link #borrowObject} will block, non-positive for no limit
+     * @see GenericObjectPool#setMaxWait
+     */
+    public void setMaxWait(long maxWait) {
+        _maxWait = maxWait;
+    }
+
+    /**
+     * @return the cap on the number of "idle" instances in the pool.
+     * @see GenericObjectPool#getMaxIdle
+     */
+    public int getMaxIdle() {
+        return _maxIdle;
+    }
+
+    /**
+     * @param maxIdle The cap on the number of "idle" instances in the pool, negative for no limit.
+     * @see GenericObjectPool#setMaxIdle
+     */
+    public void setMaxIdle(int maxIdle) {
+        _maxIdle = maxIdle;
+    }
+
+    /**
+     * @return The minimum number of objects kept idle by the evictor.
+     * @see GenericObjectPool#getMinIdle
+     */
+    public int getMinIdle() {
+        return _minIdle;
+    }
+
+    /**
+     * @param minIdle The minimum number of objects kept idle by the evictor.
+     * @see GenericObjectPool#setMinIdle
+     */
+    public void setMinIdle(int minIdle) {
+        _minIdle = minIdle;
+    }
+
+    /**
+     * @return <code>true</code> if objects are validated before being returned by {@link #borrowObject}.
+     * @see GenericObjectPool#getTestOnBorrow
+     */
+    public boolean getTestOnBorrow() {
+        return _testOnBorrow;
+    }
+
+    /**
+     * @param testOnBorrow <code>true</code> if objects should be validated before being returned by {@link #borrowObject}.
+     * @see GenericObjectPool#setTestOnBorrow
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        _testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * @return <code>true</code> when objects will be validated after returned to {@link #returnObject}.
+     * @see GenericObjectPool#getTestOnReturn
+     */
+    public boolean getTestOnReturn() {
+        return _testOnReturn;
+    }
+
+    /**
+     * @param testOnReturn <code>true</code> so objects will be validated after returned to {@link #returnObject}.
+     * @see GenericObjectPool#setTestOnReturn
+     */
+    public void setTestOnReturn(boolean testOnReturn) {
+        _testOnReturn = testOnReturn;
+    }
+
+    /**
+     * @return number of milliseconds to sleep between evictor runs.
+     * @see GenericObjectPool#getTimeBetweenEvictionRunsMillis
+     */
+    public long getTimeBetweenEvictionRunsMillis() {
+        return _timeBetweenEvictionRunsMillis;
+    }
+
+    /**
+     * @param timeBetweenEvictionRunsMillis number of milliseconds to sleep between evictor runs,
+     * non-positive for no idle object evictor thread.
+     * @see GenericObjectPool#setTimeBetweenEvictionRunsMillis
+     */
+    public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
+        _timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+        startEvictor(timeBetweenEvictionRunsMillis);
+    }
+
+    /**
+     * @return max number of objects to examine during each evictor run.
+     * @see GenericObjectPool#getNumTestsPerEvictionRun
+     */
+    public int getNumTestsPerEvictionRun() {
+        return _numTestsPerEvictionRun;
+    }
+
+    /**
+     * @param numTestsPerEvictionRun max number of objects to examine during each evictor run,
+     * negative values examine 1/abs(n) of the idle objects.
+     * @see GenericObjectPool#setNumTestsPerEvictionRun
+     */
+    public void setNumTestsPerEvictionRun(int numTestsPerEvictionRun) {
+        _numTestsPerEvictionRun = numTestsPerEvictionRun;
+    }
+
+    /**
+     * @return minimum amount of time an object may sit idle in the pool before it is eligible for eviction.
+     * @see GenericObjectPool#getMinEvictableIdleTimeMillis
+     */
+    public long getMinEvictableIdleTimeMillis() {
+        return _minEvictableIdleTimeMillis;
+    }
+
+    /**
+     * @param minEvictableIdleTimeMillis minimum amount of time an object may sit idle in the pool
+     * before it is eligible for eviction, non-positive to evict invalid objects only.
+     * @see GenericObjectPool#setMinEvictableIdleTimeMillis
+     */
+    public void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
+        _minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+    }
+
+    /**
+     * @return <code>true</code> if objects will be validated by the idle object evictor.
+     * @see GenericObjectPool#getTestWhileIdle
+     */
+    public boolean getTestWhileIdle() {
+        return _testWhileIdle;
+    }
+
+    /**
+     * @param testWhileIdle <code>true</code> so objects will be validated by the idle object evictor.
+     * @see GenericObjectPool#setTestWhileIdle
+     */
+    public void setTestWhileIdle(boolean testWhileIdle) {
+        _testWhileIdle = testWhileIdle;
+    }
+
+    /**
+     * @return <code>true</code> if the pool hands out the most recently returned idle object first.
+     * @see GenericObjectPool#getLifo
+     */
+    public boolean getLifo() {
+        return _lifo;
+    }
+
+    /**
+     * @param lifo <code>true</code> to hand out the most recently returned idle object first.
+     * @see GenericObjectPool#setLifo
+     */
+    public void setLifo(boolean lifo) {
+        _lifo = lifo;
+    }
+
+    //-- ObjectPool methods ------------------------------------------
+
+    /**
+     * <p>Borrows an object from the pool, taking an idle instance if there is one,
+     * or creating a new instance if fewer than <code>maxActive</code> instances exist.</p>
+     *
+     * <p>If the pool is exhausted, this method will either block, fail or grow depending on
+     * {@link #getWhenExhaustedAction() whenExhaustedAction}. Blocked threads are served
+     * in arrival order, for at most {@link #getMaxWait() maxWait} milliseconds.</p>
+     *
+     * @return object instance
+     * @throws NoSuchElementException if an instance cannot be returned
+     */
+    @Override
+    public T borrowObject() throws Exception {
+        long starttime = System.currentTimeMillis();
+        for(;;) {
+            assertOpen();
+            PoolableObjectFactory<T> factory = _factory;
+            if (factory == null) {
+                throw new IllegalStateException("Cannot borrow objects without a factory.");
+            }
+
+            IdleObject<T> idle = pollIdle();
+            if (idle == null && !reserveCapacity()) {
+                switch(_whenExhaustedAction) {
+                    case GenericObjectPool.WHEN_EXHAUSTED_GROW:
+                        _numTotal.incrementAndGet();
+                        break;
+                    case GenericObjectPool.WHEN_EXHAUSTED_FAIL:
+                        throw new NoSuchElementException("Pool exhausted");
+                    default:
+                        idle = await(starttime);
+                        break;
+                }
+            }
+
+            boolean newlyCreated = false;
+            T obj;
+            if (idle == null) {
+                try {
+                    obj = factory.makeObject();
+                } catch (Throwable e) {
+                    PoolUtils.checkRethrow(e);
+                    releaseCapacity();
+                    throw e instanceof Exception ? (Exception) e : new Exception(e);
+                }
+                newlyCreated = true;
+            } else {
+                obj = idle.value;
+            }
+
+            try {
+                factory.activateObject(obj);
+                if (_testOnBorrow && !factory.validateObject(obj)) {
+                    throw new Exception("ValidateObject failed");
+                }
+                _numActive.incrementAndGet();
+                return obj;
+            } catch (Throwable e) {
+                PoolUtils.checkRethrow(e);
+                destroy(obj);
+                if (newlyCreated) {
+                    throw new NoSuchElementException("Could not create a validated object, cause: " + e.getMessage());
+                }
+                // Idle object was invalid, try again
+            }
+        }
+    }
+
+    /**
+     * <p>Returns an object instance to the pool. The instance is handed to the longest waiting
+     * borrower if there is one, otherwise it is kept idle unless <code>maxIdle</code> instances
+     * are idle already.</p>
+     *
+     * @param obj instance to return to the pool
+     */
+    @Override
+    public void returnObject(T obj) throws Exception {
+        _numActive.decrementAndGet();
+        PoolableObjectFactory<T> factory = _factory;
+        boolean success = !isClosed() && factory != null;
+        if (success) {
+            try {
+                if (_testOnReturn && !factory.validateObject(obj)) {
+                    success = false;
+                } else {
+                    factory.passivateObject(obj);
+                }
+            } catch (Exception e) {
+                success = false;
+            }
+        }
+
+        int maxIdle = _maxIdle;
+        if (!success || (maxIdle >= 0 && _numIdle.get() >= maxIdle && _waiters.isEmpty())) {
+            destroy(obj);
+            return;
+        }
+        putIdle(new IdleObject<T>(obj), true);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Activation of this method decrements the active count and destroys the instance.</p>
+     */
+    @Override
+    public void invalidateObject(T obj) throws Exception {
+        _numActive.decrementAndGet();
+        destroy(obj);
+    }
+
+    /**
+     * Destroys all idle instances. Instances checked out of the pool are not affected.
+     */
+    @Override
+    public void clear() {
+        IdleObject<T> idle;
+        while ((idle = pollIdle()) != null) {
+            destroy(idle.value);
+        }
+    }
+
+    /**
+     * Create an object, and place it into the pool.
+     * addObject() is useful for "pre-loading" a pool with idle objects.
+     */
+    @Override
+    public void addObject() throws Exception {
+        assertOpen();
+        PoolableObjectFactory<T> factory = _factory;
+        if (factory == null) {
+            throw new IllegalStateException("Cannot add objects without a factory.");
+        }
+
+        _numTotal.incrementAndGet();
+        addReserved(factory);
+    }
+
+    /**
+     * @return the number of instances currently borrowed from this pool.
+     */
+    @Override
+    public int getNumActive() {
+        return _numActive.get();
+    }
+
+    /**
+     * @return the number of instances currently idle in this pool.
+     */
+    @Override
+    public int getNumIdle() {
+        return _numIdle.get();
+    }
+
+    /**
+     * Closes the pool. Idle instances are destroyed, and threads waiting in {@link #borrowObject}
+     * fail with an <code>IllegalStateException</code>.
+     */
+    @Override
+    public void close() throws Exception {
+        super.close();
+        startEvictor(-1L);
+        Waiter waiter;
+        while ((waiter = _waiters.poll()) != null) {
+            waiter.offer(CLOSED);
+        }
+        clear();
+    }
+
+    /**
+     * Sets the {@link PoolableObjectFactory factory} this pool uses
+     * to create new instances. Idle instances made by the previous factory are destroyed.
+     *
+     * @param factory the {@link PoolableObjectFactory} used to create new instances.
+     * @throws IllegalStateException when the factory cannot be set at this time
+     */
+    @Override
+    public void setFactory(PoolableObjectFactory<T> factory) throws IllegalStateException {
+        assertOpen();
+        if (getNumActive() > 0) {
+            throw new IllegalStateException("Objects are already active");
+        }
+        clear();
+        _factory = factory;
+    }
+
+    /**
+     * <p>Perform <code>numTests</code> idle object eviction tests, evicting
+     * examined objects that meet the criteria for eviction. If
+     * <code>testWhileIdle</code> is true, examined objects are validated
+     * when visited (and removed if invalid); otherwise only objects that
+     * have been idle for more than <code>minEvicableIdletimeMillis</code>
+     * are removed.</p>
+     *
+     * <p>The oldest idle objects are examined. They are not available
+     * to borrowers while being examined.</p>
+     *
+     * @throws Exception if the pool is closed or eviction fails.
+     */
+    public void evict() throws Exception {
+        assertOpen();
+        PoolableObjectFactory<T> factory = _factory;
+        boolean lifo = _lifo;
+        long minEvictableIdleTimeMillis = _minEvictableIdleTimeMillis;
+        int numTests = getNumTests();
+        List<IdleObject<T>> survivors = new ArrayList<IdleObject<T>>(numTests);
+        try {
+            for (int i = 0; i < numTests; i++) {
+                IdleObject<T> idle = lifo ? _idle.pollLast() : _idle.pollFirst();
+                if (idle == null) {
+                    break;
+                }
+                _numIdle.decrementAndGet();
+
+                if (minEvictableIdleTimeMillis > 0 && System.currentTimeMillis() - idle.tstamp > minEvictableIdleTimeMillis) {
+                    destroy(idle.value);
+                    continue;
+                }
+
+                if (_testWhileIdle && factory != null) {
+                    boolean valid;
+                    try {
+                        factory.activateObject(idle.value);
+                        valid = factory.validateObject(idle.value);
+                        if (valid) {
+                            factory.passivateObject(idle.value);
+                        }
+                    } catch (Exception e) {
+                        valid = false;
+                    }
+                    if (!valid) {
+                        destroy(idle.value);
+                        continue;
+                    }
+                }
+                survivors.add(idle);
+            }
+        } finally {
+            // Put examined objects back at the end they were taken from, keeping their age order
+            for (int i = survivors.size() - 1; i >= 0; i--) {
+                putIdle(survivors.get(i), false);
+            }
+        }
+    }
+
+    /**
+     * Create objects until <code>minIdle</code> objects are idle, or <code>maxActive</code> objects exist.
+     *
+     * @throws Exception when {@link #addObject()} fails.
+     */
+    public void ensureMinIdle() throws Exception {
+        PoolableObjectFactory<T> factory = _factory;
+        while (factory != null && !isClosed() && _numIdle.get() < _minIdle && _waiters.isEmpty() && reserveCapacity()) {
+            addReserved(factory);
+        }
+    }
+
+    //--- non-public methods ----------------------------------------
+
+    /**
+     * Start the eviction thread or service, or when
+     * <i>delay</i> is non-positive, stop it
+     * if it is already running.
+     *
+     * @param delay milliseconds between evictor runs.
+     */
+    protected synchronized void startEvictor(long delay) {
+        if (null != _evictor) {
+            EvictionTimer.cancel(_evictor);
+            _evictor = null;
+        }
+        if (delay > 0 && !isClosed()) {
+            _evictor = new Evictor();
+            EvictionTimer.schedule(_evictor, delay, delay);
+        }
+    }
+
+    /**
+     * Create an idle object, capacity for it must already be reserved.
+     */
+    private void addReserved(PoolableObjectFactory<T> factory) throws Exception {
+        T obj;
+        try {
+            obj = factory.makeObject();
+        } catch (Exception e) {
+            releaseCapacity();
+            throw e;
+        }
+        try {
+            factory.passivateObject(obj);
+        } catch (Exception e) {
+            destroy(obj);
+            throw e;
+        }
+        if (isClosed()) {
+            destroy(obj);
+            throw new IllegalStateException("Pool not open");
+        }
+        putIdle(new IdleObject<T>(obj), true);
+    }
+
+    private int getNumTests() {
+        int idle = _numIdle.get();
+        int numTests = _numTestsPerEvictionRun;
+        if (numTests >= 0) {
+            return Math.min(numTests, idle);
+        } else {
+            return (int) (Math.ceil(idle / Math.abs((double) numTests)));
+        }
+    }
+
+    private IdleObject<T> pollIdle() {
+        IdleObject<T> idle = _idle.pollFirst();
+        if (idle != null) {
+            _numIdle.decrementAndGet();
+        }
+        return idle;
+    }
+
+    /**
+     * Hand an idle object to the longest waiting borrower, or keep it idle if there is none.
+     *
+     * @param idle object to keep
+     * @param returned <code>true</code> if the object was just returned, <code>false</code> if it was
+     * taken out of the idle objects for examination and is put back at the same end
+     */
+    private void putIdle(IdleObject<T> idle, boolean returned) {
+        if (handOff(idle)) {
+            return;
+        }
+        if (returned == _lifo) {
+            _idle.offerFirst(idle);
+        } else {
+            _idle.offerLast(idle);
+        }
+        _numIdle.incrementAndGet();
+        // A borrower may have started waiting after the hand off found nobody
+        signalWaiters();
+    }
+
+    /**
+     * Reserve capacity for a new instance.
+     *
+     * @return <code>true</code> if fewer than <code>maxActive</code> instances existed
+     */
+    private boolean reserveCapacity() {
+        for(;;) {
+            int total = _numTotal.get();
+            int maxActive = _maxActive;
+            if (maxActive >= 0 && total >= maxActive) {
+                return false;
+            }
+            if (_numTotal.compareAndSet(total, total + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release capacity of a destroyed or never created instance,
+     * letting the longest waiting borrower create one instead.
+     */
+    private void releaseCapacity() {
+        _numTotal.decrementAndGet();
+        signalWaiters();
+    }
+
+    private void destroy(T obj) {
+        try {
+            PoolableObjectFactory<T> factory = _factory;
+            if (factory != null) {
+                factory.destroyObject(obj);
+            }
+        } catch (Exception e) {
+            // ignored
+        } finally {
+            releaseCapacity();
+        }
+    }
+
+    /**
+     * Serve waiting borrowers from idle objects and free capacity, as long as there is any.
+     */
+    private void signalWaiters() {
+        while (!_waiters.isEmpty()) {
+            Object value = pollIdle();
+            if (value == null) {
+                if (!reserveCapacity()) {
+                    return;
+                }
+                value = CREATE;
+            }
+            if (!handOff(value)) {
+                // All waiters gave up in the meantime, publish again and recheck
+                release(value);
+            }
+        }
+    }
+
+    /**
+     * Hand a value to the longest waiting borrower.
+     *
+     * @return <code>false</code> if nobody was waiting
+     */
+    private boolean handOff(Object value) {
+        Waiter waiter;
+        while ((waiter = _waiters.poll()) != null) {
+            if (waiter.offer(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Give back an idle object or reserved capacity that was not used, without serving waiters.
+     */
+    @SuppressWarnings("unchecked")
+    private void release(Object value) {
+        if (value == CREATE) {
+            _numTotal.decrementAndGet();
+        } else {
+            if (_lifo) {
+                _idle.offerFirst((IdleObject<T>) value);
+            } else {
+                _idle.offerLast((IdleObject<T>) value);
+            }
+            _numIdle.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wait until an idle object or capacity is handed to this thread.
+     *
+     * @return idle object, or <code>null</code> when capacity for a new instance was reserved
+     */
+    @SuppressWarnings("unchecked")
+    private IdleObject<T> await(long starttime) throws Exception {
+        Waiter waiter = new Waiter();
+        _waiters.offer(waiter);
+
+        // An object may have been returned before this waiter was visible
+        Object value = pollIdle();
+        if (value == null && reserveCapacity()) {
+            value = CREATE;
+        }
+        if (value != null) {
+            if (waiter.cancel()) {
+                _waiters.remove(waiter);
+            } else {
+                // Something was handed to us in the meantime, keep the first one
+                Object handed = waiter.get();
+                release(value);
+                signalWaiters();
+                value = handed;
+            }
+        } else {
+            long maxWait = _maxWait;
+            for(;;) {
+                value = waiter.get();
+                if (value != WAITING) {
+                    break;
+                }
+
+                if (maxWait > 0) {
+                    long remaining = maxWait - (System.currentTimeMillis() - starttime);
+                    if (remaining <= 0) {
+                        if (waiter.cancel()) {
+                            _waiters.remove(waiter);
+                            throw new NoSuchElementException("Timeout waiting for idle object");
+                        }
+                        continue;
+                    }
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remaining));
+                } else {
+                    LockSupport.park(this);
+                }
+
+                if (Thread.interrupted()) {
+                    if (waiter.cancel()) {
+                        _waiters.remove(waiter);
+                        throw new InterruptedException();
+                    }
+                    // Already handed something, take it and keep the interrupt status
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        if (value == CLOSED) {
+            throw new IllegalStateException("Pool not open");
+        }
+        return value == CREATE ? null : (IdleObject<T>) value;
+    }
+
+    //--- inner classes ----------------------------------------------
+
+    /**
+     * Idle instance with the time it was returned.
+     */
+    private static final class IdleObject<T> {
+        final T value;
+        final long tstamp;
+
+        IdleObject(T value) {
+            this.value = value;
+            this.tstamp = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Borrower waiting for an idle instance or capacity, handed over by the thread releasing it.
+     */
+    private static final class Waiter extends AtomicReference<Object> {
+        private static final long serialVersionUID = 1L;
+        private final Thread thread = Thread.currentThread();
+
+        Waiter() {
+            super(WAITING);
+        }
+
+        boolean offer(Object value) {
+            if (compareAndSet(WAITING, value)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        boolean cancel() {
+            return compareAndSet(WAITING, CANCELLED);
+        }
+    }
+
+    /**
+     * The idle object evictor {@link TimerTask}.
+     * @see ConcurrentObjectPool#setTimeBetweenEvictionRunsMillis
+     */
+    private class Evictor extends TimerTask {
+        /**
+         * Run pool maintenance.  Evict objects qualifying for eviction and then
+         * invoke {@link ConcurrentObjectPool#ensureMinIdle()}.
+         */
+        @Override
+        public void run() {
+            try {
+                evict();
+            } catch(Exception e) {
+                // ignored
+            } catch(OutOfMemoryError oome) {
+                // Log problem but give evictor thread a chance to continue in
+                // case error is recoverable
+                oome.printStackTrace(System.err);
+            }
+            try {
+                ensureMinIdle();
+            } catch(Exception e) {
+                // ignored
+            }
+        }
+    }
+}
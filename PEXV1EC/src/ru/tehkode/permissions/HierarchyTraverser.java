@@ -74,7 +74,7 @@ public abstract class HierarchyTraverser<Return> {
 
 			// Add parents
 			if (traverseInheritance) {
-				List<PermissionGroup> parents = current.getParents(world);
+				List<PermissionGroup> parents = getParents(current);
 				for (int i = parents.size() - 1; i >= 0; --i) { // Add parents to be traversed in order provided by getParents
 					entities.addFirst(parents.get(i));
 				}
@@ -120,6 +120,17 @@ public abstract class HierarchyTraverser<Return> {
 		return null;
 	}
 
+	/**
+	 * Returns parents of entity which should be traversed next.
+	 * Can be overridden to supply parents which are already known to the caller.
+	 *
+	 * @param entity Entity being traversed
+	 * @return Parents of entity in traversed world
+	 */
+	protected List<PermissionGroup> getParents(PermissionEntity entity) {
+		return entity.getParents(world);
+	}
+
 	/**
 	 * Collects the potential return value from a single entity
 	 * @param entity Entity being checked in
@@ -0,0 +1,148 @@
+package ru.tehkode.permissions;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reverse inheritance index: which resolved (user, world) views depend on which groups.
+ *
+ * Dependencies are recorded from the groups actually visited while resolving a view, so
+ * descendant groups, world inheritance and default groups are all accounted for.
+ * When a group changes only the views depending on it have to be rebuilt.
+ */
+class InheritanceIndex {
+	private final ConcurrentMap<String, Set<Dependent>> groupDependents = new ConcurrentHashMap<>();
+	private final Set<Dependent> defaultDependents = Collections.newSetFromMap(new ConcurrentHashMap<Dependent, Boolean>());
+	private final ConcurrentMap<String, Set<String>> userGroups = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Set<Dependent>> userViews = new ConcurrentHashMap<>();
+
+	/**
+	 * Records groups a resolved view depends on
+	 *
+	 * @param user User identifier
+	 * @param world World of view, null for common space
+	 * @param groups Groups visited while resolving
+	 * @param usesDefaultGroups Whether default groups were used because user had no parents
+	 */
+	public void register(String user, String world, Collection<PermissionGroup> groups, boolean usesDefaultGroups) {
+		Dependent dependent = new Dependent(user, world);
+		getOrCreate(userViews, user).add(dependent);
+		Set<String> registered = getOrCreate(userGroups, user);
+		for (PermissionGroup group : groups) {
+			String key = group.getIdentifier().toLowerCase();
+			getOrCreate(groupDependents, key).add(dependent);
+			registered.add(key);
+		}
+
+		if (usesDefaultGroups) {
+			defaultDependents.add(dependent);
+		}
+	}
+
+	/**
+	 * Removes and returns views depending on group
+	 *
+	 * @param group Changed group
+	 * @param includeDefaultDependents Whether views built with default groups should be returned too
+	 * @return Affected views
+	 */
+	public Set<Dependent> invalidate(PermissionGroup group, boolean includeDefaultDependents) {
+		Set<Dependent> ret = new HashSet<>();
+		Set<Dependent> dependents = groupDependents.remove(group.getIdentifier().toLowerCase());
+		if (dependents != null) {
+			ret.addAll(dependents);
+		}
+
+		if (includeDefaultDependents) {
+			for (Iterator<Dependent> it = defaultDependents.iterator(); it.hasNext(); ) {
+				ret.add(it.next());
+				it.remove();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Forgets all dependencies of user, called when user is unloaded
+	 *
+	 * @param user User identifier
+	 */
+	public void remove(String user) {
+		Set<Dependent> views = userViews.remove(user);
+		Set<String> groups = userGroups.remove(user);
+		if (views == null) {
+			return;
+		}
+
+		if (groups != null) {
+			for (String group : groups) {
+				Set<Dependent> dependents = groupDependents.get(group);
+				if (dependents != null) {
+					dependents.removeAll(views);
+				}
+			}
+		}
+
+		defaultDependents.removeAll(views);
+	}
+
+	public void clear() {
+		groupDependents.clear();
+		defaultDependents.clear();
+		userGroups.clear();
+		userViews.clear();
+	}
+
+	private static <V> Set<V> getOrCreate(ConcurrentMap<String, Set<V>> map, String key) {
+		Set<V> ret = map.get(key);
+		if (ret == null) {
+			ret = Collections.newSetFromMap(new ConcurrentHashMap<V, Boolean>());
+			Set<V> oldRet = map.putIfAbsent(key, ret);
+			if (oldRet != null) {
+				ret = oldRet;
+			}
+		}
+		return ret;
+	}
+
+	public static final class Dependent {
+		private final String user;
+		private final String world;
+
+		Dependent(String user, String world) {
+			this.user = user;
+			this.world = world;
+		}
+
+		public String getUser() {
+			return user;
+		}
+
+		public String getWorld() {
+			return world;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Dependent)) {
+				return false;
+			}
+
+			Dependent other = (Dependent) o;
+			return user.equals(other.user) && (world == null ? other.world == null : world.equals(other.world));
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * user.hashCode() + (world == null ? 0 : world.hashCode());
+		}
+	}
+}
@@ -46,4 +46,11 @@ public interface NativeInterface {
 	 * @param event The event to call
 	 */
 	public void callEvent(PermissionEvent event);
+
+	/**
+	 * Calls an event on this server only, without sending it to other servers
+	 *
+	 * @param event The event to call
+	 */
+	public void callLocalEvent(PermissionEvent event);
 }
@@ -0,0 +1,189 @@
+package ru.tehkode.permissions;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global dictionary of permission nodes.
+ *
+ * The same nodes appear in the data of many users and groups and in every view resolved from them.
+ * Each distinct node is stored once and referenced by an int id, so cached permission lists
+ * only need an int array instead of their own copies of the strings.
+ * Nodes are never removed, the dictionary only grows with the number of distinct nodes.
+ */
+public final class NodeDictionary {
+	private static final int NULL_ID = -1;
+	private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+	private static final Object lock = new Object();
+	private static volatile String[] nodes = new String[1024];
+	private static volatile int size = 0;
+
+	// Statistics, lists are counted until they are garbage collected
+	private static final AtomicLong uniqueChars = new AtomicLong(), lists = new AtomicLong(), references = new AtomicLong(), referencedChars = new AtomicLong();
+	private static final ReferenceQueue<NodeList> releasedLists = new ReferenceQueue<>();
+	private static final Set<ListReference> liveLists = Collections.newSetFromMap(new ConcurrentHashMap<ListReference, Boolean>());
+
+	private NodeDictionary() {
+	}
+
+	/**
+	 * @param node Permission node
+	 * @return Id of node, assigned if node is not known yet
+	 */
+	public static int getId(String node) {
+		Integer id = ids.get(node);
+		if (id != null) {
+			return id;
+		}
+
+		synchronized (lock) {
+			id = ids.get(node);
+			if (id == null) {
+				String[] nodes = NodeDictionary.nodes;
+				if (size == nodes.length) {
+					String[] newNodes = new String[nodes.length * 2];
+					System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+					nodes = newNodes;
+				}
+				id = size;
+				nodes[id] = node;
+				NodeDictionary.nodes = nodes;
+				size = id + 1; // Publishes node to readers
+				ids.put(node, id);
+				uniqueChars.addAndGet(node.length());
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * @param id Id returned by {@link #getId(String)}
+	 * @return Node with id
+	 */
+	public static String getNode(int id) {
+		if (id >= size) {
+			throw new IndexOutOfBoundsException("Unknown node id " + id);
+		}
+		return nodes[id];
+	}
+
+	/**
+	 * Create a compact immutable list of nodes
+	 *
+	 * @param nodes Nodes to store
+	 * @return List backed by node ids
+	 */
+	public static List<String> toList(Collection<String> nodes) {
+		if (nodes instanceof NodeList) {
+			return (NodeList) nodes;
+		} else if (nodes.isEmpty()) {
+			return NodeList.EMPTY;
+		}
+
+		int[] ret = new int[nodes.size()];
+		int i = 0;
+		long chars = 0;
+		for (String node : nodes) {
+			if (node == null) {
+				ret[i++] = NULL_ID;
+			} else {
+				ret[i++] = getId(node);
+				chars += node.length();
+			}
+		}
+
+		NodeList list = new NodeList(ret);
+		liveLists.add(new ListReference(list, chars));
+		lists.incrementAndGet();
+		references.addAndGet(ret.length);
+		referencedChars.addAndGet(chars);
+		expungeReleasedLists();
+		return list;
+	}
+
+	private static void expungeReleasedLists() {
+		Reference<? extends NodeList> ref;
+		while ((ref = releasedLists.poll()) != null) {
+			ListReference list = (ListReference) ref;
+			if (liveLists.remove(list)) {
+				lists.decrementAndGet();
+				references.addAndGet(-list.references);
+				referencedChars.addAndGet(-list.chars);
+			}
+		}
+	}
+
+	public static int size() {
+		return size;
+	}
+
+	/**
+	 * @return Human-readable estimate of memory saved by storing node ids instead of strings, for lists still in use
+	 */
+	public static String getMemoryReport() {
+		expungeReleasedLists();
+		// 40 bytes for String and char array headers, 2 bytes per char, 4 bytes per reference
+		long refs = references.get(), unique = size;
+		long asStrings = refs * 40 + referencedChars.get() * 2;
+		long asIds = unique * 40 + uniqueChars.get() * 2 + refs * 4;
+		return "Permission nodes: " + unique + " unique, " + refs + " references in " + lists.get() + " lists. "
+				+ "Estimated size as strings " + formatBytes(asStrings) + ", as ids " + formatBytes(asIds)
+				+ " (saved " + formatBytes(asStrings - asIds) + ")";
+	}
+
+	private static String formatBytes(long bytes) {
+		if (Math.abs(bytes) < 1024) {
+			return bytes + " B";
+		} else if (Math.abs(bytes) < 1024 * 1024) {
+			return String.format("%.1f KiB", bytes / 1024.0);
+		}
+		return String.format("%.1f MiB", bytes / (1024.0 * 1024.0));
+	}
+
+	/**
+	 * Tracks a list for statistics, enqueued once the list is garbage collected
+	 */
+	private static final class ListReference extends PhantomReference<NodeList> {
+		private final int references;
+		private final long chars;
+
+		private ListReference(NodeList list, long chars) {
+			super(list, releasedLists);
+			this.references = list.ids.length;
+			this.chars = chars;
+		}
+	}
+
+	/**
+	 * Immutable list of nodes stored as ids
+	 */
+	private static final class NodeList extends AbstractList<String> implements RandomAccess {
+		private static final NodeList EMPTY = new NodeList(new int[0]);
+		private final int[] ids;
+
+		private NodeList(int[] ids) {
+			this.ids = ids;
+		}
+
+		@Override
+		public String get(int index) {
+			int id = ids[index];
+			return id == NULL_ID ? null : getNode(id);
+		}
+
+		@Override
+		public int size() {
+			return ids.length;
+		}
+	}
+}
@@ -777,6 +777,20 @@ public abstract class PermissionEntity {
 		return null;
 	}
 
+	/**
+	 * Compiles permission expressions into a trie for fast lookup, if current permission matcher supports this
+	 *
+	 * @param permissions Ordered permission expressions
+	 * @return compiled expressions or null if permission matcher is unable to compile expressions
+	 */
+	protected TrieMatcher.CompiledExpressions compileExpressions(List<String> permissions) {
+		PermissionMatcher matcher = this.manager.getPermissionMatcher();
+		if (matcher instanceof TrieMatcher) {
+			return ((TrieMatcher) matcher).compile(permissions);
+		}
+		return null;
+	}
+
 	/**
 	 * Checks if specified permission matches specified permission expression
 	 *
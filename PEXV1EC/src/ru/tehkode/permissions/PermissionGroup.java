@@ -268,9 +268,7 @@ public class PermissionGroup extends PermissionEntity implements Comparable<Perm
 
 	protected void clearCache() {
 		this.dirtyWeight = true;
-		for (PermissionUser user : this.getActiveUsers()) {
-			user.clearCache();
-		}
+		this.manager.clearDependentsCache(this);
 	}
 
 	@Override
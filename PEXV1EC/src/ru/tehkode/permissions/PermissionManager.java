@@ -18,12 +18,16 @@
  */
 package ru.tehkode.permissions;
 
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 import ru.tehkode.permissions.backends.PermissionBackend;
 import ru.tehkode.permissions.bukkit.PermissionsExConfig;
+import ru.tehkode.permissions.events.PermissionEntityEvent;
 import ru.tehkode.permissions.events.PermissionEvent;
 import ru.tehkode.permissions.events.PermissionSystemEvent;
 import ru.tehkode.permissions.exceptions.PermissionBackendException;
@@ -35,6 +39,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
@@ -55,7 +60,9 @@ public class PermissionManager {
 	protected boolean allowOps = false;
 	protected boolean userAddGroupsLast = false;
 
-	protected PermissionMatcher matcher = new RegExpMatcher();
+	protected PermissionMatcher matcher = new TrieMatcher();
+	private final InheritanceIndex inheritanceIndex = new InheritanceIndex();
+	private final AtomicLong dependentsVersion = new AtomicLong();
 
 	public PermissionManager(PermissionsExConfig config, Logger logger, NativeInterface nativeI) throws PermissionBackendException {
 		this.config = config;
@@ -242,6 +249,7 @@ public class PermissionManager {
 				if (newUser != null) {
 					user = newUser;
 				}
+				user.clearCache(); // Views resolved during initialization were not tracked in inheritance index
 			}
 		} else {
 			throw new IllegalStateException("User " + identifier + " is null");
@@ -257,13 +265,31 @@ public class PermissionManager {
 	 */
 	public Set<PermissionUser> getUsers() {
 		Set<PermissionUser> users = new HashSet<>();
+		Iterables.addAll(users, iterateUsers());
+		return Collections.unmodifiableSet(users);
+	}
+
+	/**
+	 * Iterate over all registered users and online players without stored data.
+	 * Users are fetched from the backend page by page while iterating, instead of loading all of them up front.
+	 *
+	 * @return Lazily evaluated users
+	 */
+	public Iterable<PermissionUser> iterateUsers() {
+		List<PermissionUser> virtualUsers = new ArrayList<>();
 		for (Player p : Bukkit.getServer().getOnlinePlayers()) {
-			users.add(getUser(p));
-		}
-		for (String name : backend.getUserIdentifiers()) {
-			users.add(getUser(name, null, false));
+			PermissionUser user = getUser(p);
+			if (user.isVirtual()) {
+				virtualUsers.add(user);
+			}
 		}
-		return Collections.unmodifiableSet(users);
+
+		return Iterables.concat(virtualUsers, Iterables.transform(backend.iterateUserIdentifiers(PermissionBackend.DEFAULT_PAGE_SIZE), new Function<String, PermissionUser>() {
+			@Override
+			public PermissionUser apply(String identifier) {
+				return getUser(identifier, null, false);
+			}
+		}));
 	}
 
 	/**
@@ -283,6 +309,13 @@ public class PermissionManager {
 		return backend.getUserNames();
 	}
 
+	/**
+	 * @return Friendly names of known users, fetched page by page while iterating
+	 */
+	public Iterable<String> iterateUserNames() {
+		return backend.iterateUserNames(PermissionBackend.DEFAULT_PAGE_SIZE);
+	}
+
 	Set<PermissionUser> getActiveUsers(String groupName, boolean inheritance) {
 		Set<PermissionUser> users = new HashSet<>();
 
@@ -321,26 +354,84 @@ public class PermissionManager {
 	 */
 	public Set<PermissionUser> getUsers(String groupName, String worldName, boolean inheritance) {
 		Set<PermissionUser> users = new HashSet<>();
+		Iterables.addAll(users, iterateUsers(groupName, worldName, inheritance));
+		return Collections.unmodifiableSet(users);
+	}
 
-		for (PermissionUser user : this.getUsers()) {
-			if (user.inGroup(groupName, worldName, inheritance)) {
-				users.add(user);
+	public Set<PermissionUser> getUsers(String groupName, boolean inheritance) {
+		return getUsers(groupName, null, inheritance);
+	}
+
+	/**
+	 * Iterate over users in group and optionally its descendant groups.
+	 * Users are loaded one by one while iterating, only candidates from the backend's membership index are checked.
+	 *
+	 * @param groupName   group's name
+	 * @param worldName   world to check membership in, null to check all worlds
+	 * @param inheritance true to include members of descendant groups
+	 * @return Lazily evaluated users
+	 */
+	public Iterable<PermissionUser> iterateUsers(final String groupName, final String worldName, final boolean inheritance) {
+		return Iterables.filter(getMemberCandidates(groupName, inheritance), new Predicate<PermissionUser>() {
+			@Override
+			public boolean apply(PermissionUser user) {
+				return worldName == null ? user.inGroup(groupName, inheritance) : user.inGroup(groupName, worldName, inheritance);
 			}
+		});
+	}
+
+	/**
+	 * Users who may be members of group.
+	 * Every user has to be checked if the backend has no membership index, or if any of the groups is a default group,
+	 * since users without parents are members of default groups without being stored as such.
+	 */
+	private Iterable<PermissionUser> getMemberCandidates(String groupName, boolean inheritance) {
+		PermissionGroup group = getGroup(groupName);
+		if (group == null) {
+			return Collections.emptySet();
 		}
 
-		return Collections.unmodifiableSet(users);
-	}
+		List<PermissionGroup> groups = new ArrayList<>();
+		groups.add(group);
+		if (inheritance) {
+			for (PermissionGroup child : getGroupList()) {
+				if (child.isChildOf(group, true)) {
+					groups.add(child);
+				}
+			}
+		}
 
-	public Set<PermissionUser> getUsers(String groupName, boolean inheritance) {
-		Set<PermissionUser> users = new HashSet<>();
+		List<Collection<String>> members = new ArrayList<>();
+		for (PermissionGroup candidateGroup : groups) {
+			if (candidateGroup.isDefault(null)) {
+				return iterateUsers();
+			}
+			for (String world : candidateGroup.getWorlds()) {
+				if (candidateGroup.isDefault(world)) {
+					return iterateUsers();
+				}
+			}
 
-		for (PermissionUser user : this.getUsers()) {
-			if (user.inGroup(groupName, inheritance)) {
-				users.add(user);
+			Collection<String> groupMembers = backend.getGroupMemberIdentifiers(candidateGroup.getIdentifier());
+			if (groupMembers == null) {
+				return iterateUsers();
 			}
+			members.add(groupMembers);
 		}
 
-		return Collections.unmodifiableSet(users);
+		// Changes of loaded users may not be written to the backend yet. Added first, so their identifiers are kept
+		Set<String> identifiers = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		identifiers.addAll(this.users.keySet());
+		for (Collection<String> groupMembers : members) {
+			identifiers.addAll(groupMembers);
+		}
+
+		return Iterables.transform(identifiers, new Function<String, PermissionUser>() {
+			@Override
+			public PermissionUser apply(String identifier) {
+				return getUser(identifier, null, false);
+			}
+		});
 	}
 
 	/**
@@ -350,13 +441,98 @@ public class PermissionManager {
 	 */
 	public void resetUser(String userName) {
 		this.users.remove(userName.toLowerCase());
+		this.inheritanceIndex.remove(userName.toLowerCase());
 	}
 
 	public void resetUser(Player ply) {
-		this.users.remove(ply.getUniqueId().toString());
+		resetUser(ply.getUniqueId().toString());
 		resetUser(ply.getName());
 	}
 
+	/**
+	 * Records groups a resolved user view depends on
+	 *
+	 * @param user User the view was resolved for
+	 * @param worldName World of view
+	 * @param groups Groups visited while resolving the view
+	 * @param usesDefaultGroups Whether view was resolved using default groups
+	 */
+	void registerDependencies(PermissionUser user, String worldName, Collection<PermissionGroup> groups, boolean usesDefaultGroups) {
+		if (this.users.get(user.getIdentifier()) == user) { // Only active users get invalidated
+			this.inheritanceIndex.register(user.getIdentifier(), worldName, groups, usesDefaultGroups);
+		}
+	}
+
+	/**
+	 * @return Number of times views depending on a group were cleared, see {@link #clearDependentsCache(PermissionGroup)}
+	 */
+	long getDependentsVersion() {
+		return this.dependentsVersion.get();
+	}
+
+	/**
+	 * Clear cache of user views depending on group. Only affected (user, world) views are cleared.
+	 *
+	 * @param group Changed group
+	 */
+	void clearDependentsCache(PermissionGroup group) {
+		this.dependentsVersion.incrementAndGet();
+		boolean isDefault = group.isDefault(null);
+		for (String worldName : group.getWorlds()) {
+			isDefault = isDefault || group.isDefault(worldName);
+		}
+
+		for (InheritanceIndex.Dependent dependent : this.inheritanceIndex.invalidate(group, isDefault)) {
+			PermissionUser user = this.users.get(dependent.getUser());
+			if (user != null) {
+				user.clearCache(dependent.getWorld());
+			}
+		}
+	}
+
+	/**
+	 * Drop a user changed outside of this server. Users not loaded here are left alone, they are read fresh when needed.
+	 *
+	 * @param identifier Identifier of changed user
+	 */
+	public void invalidateUser(String identifier) {
+		if (!this.users.containsKey(identifier.toLowerCase())) {
+			return;
+		}
+
+		resetUser(identifier);
+		PermissionUser user = getUser(identifier);
+		if (user != null) {
+			this.callLocalEvent(new PermissionEntityEvent(getServerUUID(), user, PermissionEntityEvent.Action.PERMISSIONS_CHANGED));
+		}
+	}
+
+	/**
+	 * Drop a group changed outside of this server, clearing cached views of users depending on it.
+	 *
+	 * @param groupName Name of changed group
+	 */
+	public void invalidateGroup(String groupName) {
+		PermissionGroup oldGroup = resetGroup(groupName);
+		if (oldGroup != null) {
+			clearDependentsCache(oldGroup);
+		}
+
+		PermissionGroup group = getGroup(groupName);
+		clearDependentsCache(group); // Group may have become a default group
+		this.callLocalEvent(new PermissionEntityEvent(getServerUUID(), group, PermissionEntityEvent.Action.INHERITANCE_CHANGED));
+	}
+
+	/**
+	 * Clear caches of all users after world inheritance was changed outside of this server
+	 */
+	public void invalidateWorldInheritance() {
+		for (PermissionUser user : getActiveUsers()) {
+			user.clearCache();
+		}
+		this.callLocalEvent(new PermissionSystemEvent(getServerUUID(), PermissionSystemEvent.Action.WORLDINHERITANCE_CHANGED));
+	}
+
 	/**
 	 * Clear cache for specified user
 	 *
@@ -515,6 +691,7 @@ public class PermissionManager {
 	}
 
 	void preloadGroups() {
+		backend.prefetchGroups(backend.getGroupNames());
 		for (PermissionGroup group : getGroupList()) {
 			group.getData().load();
 		}
@@ -654,6 +831,7 @@ public class PermissionManager {
 		this.clearCache();
 
 		if (this.backend != null) {
+			this.backend.flush();
 			this.backend.reload();
 		}
 		if (callEvent) this.callEvent(PermissionSystemEvent.Action.RELOADED);
@@ -684,6 +862,7 @@ public class PermissionManager {
 	protected void clearCache() {
 		this.users.clear();
 		this.groups.clear();
+		this.inheritanceIndex.clear();
 
 		// Close old timed Permission Timer
 		this.initTimer();
@@ -697,6 +876,15 @@ public class PermissionManager {
 		nativeI.callEvent(event);
 	}
 
+	/**
+	 * Call an event on this server only, for changes other servers already know about
+	 *
+	 * @param event The event to call
+	 */
+	protected void callLocalEvent(PermissionEvent event) {
+		nativeI.callLocalEvent(event);
+	}
+
 	protected void callEvent(PermissionSystemEvent.Action action) {
 		this.callEvent(new PermissionSystemEvent(getServerUUID(), action));
 	}
@@ -713,6 +901,13 @@ public class PermissionManager {
 		return backend.getGroupNames();
 	}
 
+	/**
+	 * @return Names of groups, fetched page by page while iterating
+	 */
+	public Iterable<String> iterateGroupNames() {
+		return backend.iterateGroupNames(PermissionBackend.DEFAULT_PAGE_SIZE);
+	}
+
 	public Logger getLogger() {
 		return logger;
 	}
@@ -27,6 +27,7 @@ import ru.tehkode.permissions.exceptions.RankingException;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 
 /**
@@ -34,15 +35,11 @@ import java.util.logging.Level;
  */
 public class PermissionUser extends PermissionEntity {
 
-	private final static String PERMISSION_NOT_FOUND = "<not found>"; // used replace null for ConcurrentHashMap
+	private final static String COMMON_WORLD = "<common>"; // used replace null for ConcurrentHashMap
 
 	private final PermissionsUserData data;
-	protected Map<String, List<PermissionGroup>> cachedGroups = new HashMap<>();
-	protected Map<String, List<String>> cachedPermissions = new HashMap<>();
-	protected Map<String, String> cachedPrefix = new HashMap<>();
-	protected Map<String, String> cachedSuffix = new HashMap<>();
-	protected Map<String, String> cachedAnwsers = new ConcurrentHashMap<>();
-	protected Map<String, String> cachedOptions = new HashMap<>();
+	private final Object viewsLock = new Object();
+	private volatile ConcurrentMap<String, ResolvedUserView> views = new ConcurrentHashMap<>();
 
 	public PermissionUser(String playerName, PermissionsUserData data, PermissionManager manager) {
 		super(playerName, manager);
@@ -88,36 +85,53 @@ public class PermissionUser extends PermissionEntity {
 		return Type.USER;
 	}
 
-	@Override
-	public String getOption(String optionName, String worldName, String defaultValue) {
-		String cacheIndex = worldName + "|" + optionName;
-
-		if (this.cachedOptions.containsKey(cacheIndex)) {
-			return this.cachedOptions.get(cacheIndex);
+	/**
+	 * Returns resolved permissions, options and inheritance of this user in specified world.
+	 * The view is resolved once and shared until user's cache is cleared.
+	 *
+	 * @param worldName World name, null for common space
+	 * @return Resolved view
+	 */
+	public ResolvedUserView getView(String worldName) {
+		ConcurrentMap<String, ResolvedUserView> views = this.views;
+		String key = worldName == null ? COMMON_WORLD : worldName;
+
+		ResolvedUserView view = views.get(key);
+		if (view == null) {
+			long version = manager.getDependentsVersion();
+			view = ResolvedUserView.resolve(this, worldName);
+			ResolvedUserView oldView = views.putIfAbsent(key, view);
+			if (oldView != null) {
+				view = oldView;
+			} else if (manager.getDependentsVersion() != version) {
+				// A group changed while resolving, possibly before this view's dependencies were registered
+				views.remove(key, view);
+			}
 		}
 
-		String value = super.getOption(optionName, worldName, null);
-		if (value != null) {
-			this.cachedOptions.put(cacheIndex, value);
-			return value;
-		}
+		return view;
+	}
 
-		// Nothing found
-		return defaultValue;
+	@Override
+	public String getOption(String optionName, String worldName, String defaultValue) {
+		String value = getView(worldName).getOption(optionName);
+		return value == null ? defaultValue : value;
 	}
 
 	@Override
 	protected List<PermissionGroup> getParentsInternal(String worldName) {
-		if (!this.cachedGroups.containsKey(worldName)) {
-			List<PermissionGroup> groups = super.getParentsInternal(worldName);
-			if (groups.isEmpty()) {
-				groups.addAll(manager.getDefaultGroups(worldName));
-				Collections.sort(groups);
-			}
-			this.cachedGroups.put(worldName, groups);
-		}
+		return getView(worldName).getParents();
+	}
 
-		return this.cachedGroups.get(worldName);
+	/**
+	 * Resolves parents of this user in world without using cache.
+	 * Default groups are not included.
+	 *
+	 * @param worldName World name
+	 * @return Modifiable list of parents
+	 */
+	protected List<PermissionGroup> resolveParents(String worldName) {
+		return super.getParentsInternal(worldName);
 	}
 
 	@Deprecated
@@ -447,26 +461,12 @@ public class PermissionUser extends PermissionEntity {
 	 * @return Map, key - name of ladder, group - corresponding group of that ladder
 	 */
 	public Map<String, PermissionGroup> getRankLadders() {
-		Map<String, PermissionGroup> ladders = new HashMap<>();
-
-		for (PermissionGroup group : this.getParents()) {
-			if (!group.isRanked()) {
-				continue;
-			}
-
-			ladders.put(group.getRankLadder(), group);
-		}
-
-		return ladders;
+		return new HashMap<>(getView(null).getRankLadders());
 	}
 
 	@Override
 	public List<String> getPermissions(String worldName) {
-		if (!this.cachedPermissions.containsKey(worldName)) {
-			this.cachedPermissions.put(worldName, super.getPermissions(worldName));
-		}
-
-		return this.cachedPermissions.get(worldName);
+		return getView(worldName).getPermissions();
 	}
 
 	protected int getPromoterRankAndCheck(PermissionUser promoter, String ladderName) throws RankingException {
@@ -504,11 +504,7 @@ public class PermissionUser extends PermissionEntity {
 
 	@Override
 	public String getPrefix(String worldName) {
-		if (!this.cachedPrefix.containsKey(worldName)) {
-			this.cachedPrefix.put(worldName, super.getPrefix(worldName));
-		}
-
-		return this.cachedPrefix.get(worldName);
+		return getView(worldName).getPrefix();
 	}
 
 	@Override
@@ -531,43 +527,32 @@ public class PermissionUser extends PermissionEntity {
 
 	@Override
 	public String getSuffix(String worldName) {
-		if (!this.cachedSuffix.containsKey(worldName)) {
-			this.cachedSuffix.put(worldName, super.getSuffix(worldName));
-		}
-
-		return this.cachedSuffix.get(worldName);
+		return getView(worldName).getSuffix();
 	}
 
 	@Override
 	public String getMatchingExpression(String permission, String world) {
-		String cacheId = world + ":" + permission;
-		if (!this.cachedAnwsers.containsKey(cacheId)) {
-			String result = super.getMatchingExpression(permission, world);
-
-			if (result == null) {    // this is actually kinda dirty clutch
-				result = PERMISSION_NOT_FOUND;  // ConcurrentHashMap deny storage of null values
-			}
-
-			this.cachedAnwsers.put(cacheId, result);
-		}
-
-		String result = this.cachedAnwsers.get(cacheId);
-
-		if (PERMISSION_NOT_FOUND.equals(result)) {
-			result = null;
-		}
-
-		return result;
+		return getView(world).getMatchingExpression(this, permission);
 	}
 
 	protected void clearCache() {
-		this.cachedPrefix.clear();
-		this.cachedSuffix.clear();
+		synchronized (viewsLock) {
+			this.views = new ConcurrentHashMap<>(); // Swap all resolved views at once
+		}
+	}
 
-		this.cachedGroups.clear();
-		this.cachedPermissions.clear();
-		this.cachedAnwsers.clear();
-		this.cachedOptions.clear();
+	/**
+	 * Clears resolved view of single world.
+	 * Views being resolved concurrently are dropped along with the old map.
+	 *
+	 * @param worldName World name, null for common space
+	 */
+	protected void clearCache(String worldName) {
+		synchronized (viewsLock) {
+			ConcurrentMap<String, ResolvedUserView> views = new ConcurrentHashMap<>(this.views);
+			views.remove(worldName == null ? COMMON_WORLD : worldName);
+			this.views = views;
+		}
 	}
 
 	@Override
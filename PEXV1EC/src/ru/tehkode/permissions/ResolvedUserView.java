@@ -0,0 +1,220 @@
+package ru.tehkode.permissions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable snapshot of everything resolved for a user in a single world.
+ * Built by one hierarchy traversal and replaced as a whole when user's data changes,
+ * so readers never observe a partially cleared cache.
+ */
+public final class ResolvedUserView {
+	private final static String PERMISSION_NOT_FOUND = "<not found>"; // used replace null for ConcurrentHashMap
+
+	private final String world;
+	private final List<PermissionGroup> parents;
+	private final List<String> permissions;
+	private final TrieMatcher.CompiledExpressions compiledPermissions;
+	private final Map<String, String> options;
+	private final String prefix;
+	private final String suffix;
+	private final Map<String, PermissionGroup> rankLadders;
+	private final ConcurrentMap<String, String> answers = new ConcurrentHashMap<>();
+
+	private ResolvedUserView(String world, List<PermissionGroup> parents, List<String> permissions, TrieMatcher.CompiledExpressions compiledPermissions,
+							 Map<String, String> options, String prefix, String suffix, Map<String, PermissionGroup> rankLadders) {
+		this.world = world;
+		this.parents = parents;
+		this.permissions = permissions;
+		this.compiledPermissions = compiledPermissions;
+		this.options = options;
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.rankLadders = rankLadders;
+	}
+
+	/**
+	 * Resolves permissions, options, prefix, suffix, parents and rank ladders of user in one traversal
+	 *
+	 * @param user User to resolve
+	 * @param world World to resolve in, null for common space
+	 * @return Resolved view
+	 */
+	static ResolvedUserView resolve(PermissionUser user, String world) {
+		return new Resolver(user, world).resolve();
+	}
+
+	private static final class Resolver extends HierarchyTraverser<Void> {
+		private final PermissionUser user;
+		private final String world;
+		private final List<PermissionGroup> parents;
+		private final Map<String, List<PermissionGroup>> scopeParents = new HashMap<>();
+		private final Set<PermissionGroup> visitedGroups = new LinkedHashSet<>();
+		private boolean usesDefaultGroups = false;
+
+		private final List<String> permissions = new ArrayList<>();
+		private final Map<String, String> options = new HashMap<>();
+		private String prefix, suffix;
+
+		private Resolver(PermissionUser user, String world) {
+			super(user, world);
+			this.user = user;
+			this.world = world;
+			this.parents = Collections.unmodifiableList(getScopeParents(world));
+		}
+
+		public ResolvedUserView resolve() {
+			traverse();
+
+			Map<String, PermissionGroup> rankLadders = new HashMap<>();
+			for (PermissionGroup group : parents) {
+				if (group.isRanked()) {
+					rankLadders.put(group.getRankLadder(), group);
+				}
+			}
+
+			List<String> safePermissions = NodeDictionary.toList(permissions);
+			ResolvedUserView view = new ResolvedUserView(world, parents, safePermissions, user.compileExpressions(safePermissions),
+					Collections.unmodifiableMap(options), prefix == null ? "" : prefix, suffix == null ? "" : suffix,
+					Collections.unmodifiableMap(rankLadders));
+			user.manager.registerDependencies(user, world, visitedGroups, usesDefaultGroups);
+			return view;
+		}
+
+		@Override
+		protected List<PermissionGroup> getParents(PermissionEntity entity) {
+			return entity == user ? parents : super.getParents(entity);
+		}
+
+		@Override
+		protected Void fetchLocal(PermissionEntity entity, String scope) {
+			if (entity instanceof PermissionGroup) {
+				visitedGroups.add((PermissionGroup) entity);
+			}
+
+			addPermissions(entity, scope, entity.getOwnPermissions(scope));
+			addPermissions(entity, scope, entity.getTimedPermissions(scope));
+
+			for (Map.Entry<String, String> option : entity.getOptions(scope).entrySet()) {
+				if (!options.containsKey(option.getKey())) {
+					options.put(option.getKey(), option.getValue());
+				}
+			}
+
+			if (prefix == null) {
+				prefix = emptyToNull(entity.getOwnPrefix(scope));
+			}
+			if (suffix == null) {
+				suffix = emptyToNull(entity.getOwnSuffix(scope));
+			}
+			return null;
+		}
+
+		private void addPermissions(PermissionEntity entity, String scope, List<String> perms) {
+			for (String perm : perms) {
+				if (perm.startsWith(PermissionEntity.NON_INHERITABLE_PREFIX) && !getScopeParents(scope).contains(entity)) {
+					continue;
+				}
+
+				permissions.add(perm);
+				entity.getInheritedChildPermissions(perm, permissions);
+			}
+		}
+
+		private List<PermissionGroup> getScopeParents(String scope) {
+			List<PermissionGroup> ret = scopeParents.get(scope);
+			if (ret == null) {
+				ret = user.resolveParents(scope);
+				if (ret.isEmpty()) {
+					ret.addAll(user.manager.getDefaultGroups(scope));
+					Collections.sort(ret);
+					usesDefaultGroups = true;
+				}
+				scopeParents.put(scope, ret);
+			}
+			return ret;
+		}
+	}
+
+	private static String emptyToNull(String str) {
+		return str == null || str.isEmpty() ? null : str;
+	}
+
+	public String getWorld() {
+		return world;
+	}
+
+	/**
+	 * @return Parents of user in this world, including default groups if user has no own parents
+	 */
+	public List<PermissionGroup> getParents() {
+		return parents;
+	}
+
+	/**
+	 * @return Flattened inherited permissions in order of priority
+	 */
+	public List<String> getPermissions() {
+		return permissions;
+	}
+
+	/**
+	 * @return Compiled permissions, or null if current permission matcher does not support compilation
+	 */
+	public TrieMatcher.CompiledExpressions getCompiledPermissions() {
+		return compiledPermissions;
+	}
+
+	/**
+	 * @return All inherited options
+	 */
+	public Map<String, String> getOptions() {
+		return options;
+	}
+
+	public String getOption(String option) {
+		return options.get(option);
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public String getSuffix() {
+		return suffix;
+	}
+
+	public Map<String, PermissionGroup> getRankLadders() {
+		return rankLadders;
+	}
+
+	/**
+	 * Returns first expression of user's permissions matching permission, remembering the answer
+	 *
+	 * @param user User this view was resolved for, used when permissions could not be compiled
+	 * @param permission Permission to check
+	 * @return Matching expression or null if none matches
+	 */
+	String getMatchingExpression(PermissionUser user, String permission) {
+		String key = permission.toLowerCase(); // Matching ignores case
+		String result = answers.get(key);
+		if (result == null) {
+			result = compiledPermissions != null ? compiledPermissions.getMatchingExpression(permission) : user.getMatchingExpression(permissions, permission);
+
+			if (result == null) {    // this is actually kinda dirty clutch
+				result = PERMISSION_NOT_FOUND;  // ConcurrentHashMap deny storage of null values
+			}
+
+			answers.put(key, result);
+		}
+
+		return PERMISSION_NOT_FOUND.equals(result) ? null : result;
+	}
+}
@@ -0,0 +1,264 @@
+package ru.tehkode.permissions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Permission matcher able to compile an ordered list of permission expressions into a
+ * dot-segment trie, so looking up the first matching expression costs O(depth of the node)
+ * instead of one regex evaluation per expression.
+ *
+ * Expressions using regex syntax beyond {@code .} and {@code *} (including raw {@code $} expressions)
+ * are still evaluated with the regular expression matcher, but only when they could win over
+ * the best match found in the trie.
+ */
+public class TrieMatcher extends RegExpMatcher {
+	private static final String REGEX_CHARS = "\\^$|?+()[]{}";
+
+	/**
+	 * Compile expressions into a lookup structure. Order of expressions is preserved:
+	 * the first expression matching a permission wins, just like a linear scan would.
+	 *
+	 * @param expressions Ordered permission expressions
+	 * @return Compiled expressions
+	 */
+	public CompiledExpressions compile(List<String> expressions) {
+		return new CompiledExpressions(this, expressions);
+	}
+
+	public static final class CompiledExpressions {
+		private final RegExpMatcher fallbackMatcher;
+		private final String[] expressions;
+		private final Node root = new Node();
+		private final int[] regexExpressions;
+
+		private CompiledExpressions(RegExpMatcher fallbackMatcher, List<String> expressions) {
+			this.fallbackMatcher = fallbackMatcher;
+			this.expressions = expressions.toArray(new String[expressions.size()]);
+
+			List<Integer> regex = new ArrayList<>();
+			for (int i = 0; i < this.expressions.length; i++) {
+				String key = stripMarkers(this.expressions[i]);
+				if (key == null) {
+					regex.add(i);
+				} else {
+					insert(lowerCase(key), i);
+				}
+			}
+
+			this.regexExpressions = new int[regex.size()];
+			for (int i = 0; i < this.regexExpressions.length; i++) {
+				this.regexExpressions[i] = regex.get(i);
+			}
+		}
+
+		/**
+		 * Returns the first expression matching the given permission
+		 *
+		 * @param permission Permission to check
+		 * @return Matching expression, or null if none matches
+		 */
+		public String getMatchingExpression(String permission) {
+			int index = findIndex(permission);
+			return index == Integer.MAX_VALUE ? null : this.expressions[index];
+		}
+
+		/**
+		 * Returns the position of the first expression matching the given permission
+		 *
+		 * @param permission Permission to check
+		 * @return Index of the matching expression in the compiled list, or -1 if none matches
+		 */
+		public int getMatchingIndex(String permission) {
+			int index = findIndex(permission);
+			return index == Integer.MAX_VALUE ? -1 : index;
+		}
+
+		public List<String> getExpressions() {
+			List<String> ret = new ArrayList<>(this.expressions.length);
+			Collections.addAll(ret, this.expressions);
+			return Collections.unmodifiableList(ret);
+		}
+
+		private void insert(String key, int index) {
+			Node node = this.root;
+			int pos = 0;
+			while (true) {
+				int dot = key.indexOf('.', pos);
+				String segment = dot == -1 ? key.substring(pos) : key.substring(pos, dot);
+				if (segment.indexOf('*') != -1) { // Wildcard can span segments, match rest of the expression as glob
+					node.addGlob(key.substring(pos), index);
+					return;
+				}
+
+				node = node.getOrCreateChild(segment);
+				if (dot == -1) {
+					if (node.terminal == -1) { // Earlier expression with same key always wins
+						node.terminal = index;
+					}
+					return;
+				}
+				pos = dot + 1;
+			}
+		}
+
+		private int findIndex(String permission) {
+			String key = lowerCase(permission);
+			int best = Integer.MAX_VALUE;
+
+			Node node = this.root;
+			int pos = 0;
+			while (node != null) {
+				if (node.globs != null) {
+					for (Glob glob : node.globs) {
+						if (glob.index >= best) {
+							break;
+						}
+						if (glob.matches(key, pos)) {
+							best = glob.index;
+							break;
+						}
+					}
+				}
+
+				int dot = key.indexOf('.', pos);
+				if (dot == -1) {
+					Node leaf = node.getChild(key.substring(pos));
+					if (leaf != null && leaf.terminal != -1 && leaf.terminal < best) {
+						best = leaf.terminal;
+					}
+					break;
+				}
+
+				node = node.getChild(key.substring(pos, dot));
+				pos = dot + 1;
+			}
+
+			for (int index : this.regexExpressions) {
+				if (index >= best) {
+					break;
+				}
+				if (this.fallbackMatcher.isMatches(this.expressions[index], permission)) {
+					best = index;
+					break;
+				}
+			}
+
+			return best;
+		}
+	}
+
+	/**
+	 * Strips negation and non-inheritable markers the same way {@link RegExpMatcher#prepareRegexp(String)} does
+	 *
+	 * @param expression Expression to strip
+	 * @return Expression key usable in trie, or null if expression requires regex evaluation
+	 */
+	static String stripMarkers(String expression) {
+		if (expression.startsWith("-")) {
+			expression = expression.substring(1);
+		}
+
+		if (expression.startsWith("#")) {
+			expression = expression.substring(1);
+		}
+
+		for (int i = 0; i < expression.length(); i++) {
+			char c = expression.charAt(i);
+			if (c > 127 || REGEX_CHARS.indexOf(c) != -1) {
+				return null;
+			}
+		}
+
+		return expression;
+	}
+
+	/**
+	 * Lower-cases ASCII characters only, mirroring {@link java.util.regex.Pattern#CASE_INSENSITIVE}
+	 */
+	static String lowerCase(String str) {
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				char[] chars = str.toCharArray();
+				for (int j = i; j < chars.length; j++) {
+					if (chars[j] >= 'A' && chars[j] <= 'Z') {
+						chars[j] += 'a' - 'A';
+					}
+				}
+				return new String(chars);
+			}
+		}
+		return str;
+	}
+
+	private static final class Node {
+		private Map<String, Node> children;
+		private List<Glob> globs;
+		private int terminal = -1;
+
+		Node getChild(String segment) {
+			return this.children == null ? null : this.children.get(segment);
+		}
+
+		Node getOrCreateChild(String segment) {
+			if (this.children == null) {
+				this.children = new HashMap<>();
+			}
+
+			Node child = this.children.get(segment);
+			if (child == null) {
+				child = new Node();
+				this.children.put(segment, child);
+			}
+			return child;
+		}
+
+		void addGlob(String pattern, int index) {
+			if (this.globs == null) {
+				this.globs = new ArrayList<>(2);
+			}
+			this.globs.add(new Glob(pattern, index));
+		}
+	}
+
+	private static final class Glob {
+		private final String pattern;
+		private final int index;
+
+		Glob(String pattern, int index) {
+			this.pattern = pattern;
+			this.index = index;
+		}
+
+		/**
+		 * Matches the remainder of text starting at offset against this glob, where * matches any sequence of characters
+		 */
+		boolean matches(String text, int offset) {
+			int p = 0, t = offset;
+			int starP = -1, starT = -1;
+			while (t < text.length()) {
+				if (p < this.pattern.length() && this.pattern.charAt(p) == '*') {
+					starP = p++;
+					starT = t;
+				} else if (p < this.pattern.length() && this.pattern.charAt(p) == text.charAt(t)) {
+					p++;
+					t++;
+				} else if (starP != -1) {
+					p = starP + 1;
+					t = ++starT;
+				} else {
+					return false;
+				}
+			}
+
+			while (p < this.pattern.length() && this.pattern.charAt(p) == '*') {
+				p++;
+			}
+			return p == this.pattern.length();
+		}
+	}
+}
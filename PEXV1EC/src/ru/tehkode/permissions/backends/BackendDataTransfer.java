@@ -4,6 +4,7 @@ import ru.tehkode.permissions.PermissionsData;
 import ru.tehkode.permissions.PermissionsGroupData;
 import ru.tehkode.permissions.PermissionsUserData;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,23 +18,48 @@ public class BackendDataTransfer {
 	}
 
 	private static void transferBase(PermissionsData from, PermissionsData to) {
-		for (Map.Entry<String, List<String>> entry : from.getPermissionsMap().entrySet()) {
+		write(read(from.getIdentifier(), from), to);
+	}
+
+	/**
+	 * Copy data of an entity into the backend-neutral transfer format
+	 *
+	 * @param name Identifier of entity
+	 * @param from Data to copy
+	 * @return Copy of data
+	 */
+	public static TransferBatch.Entity read(String name, PermissionsData from) {
+		Map<String, List<String>> parents = new HashMap<>();
+		parents.put(null, from.getParents(null));
+		for (String world : from.getWorlds()) {
+			List<String> groups = from.getParents(world);
+			if (groups == null || groups.isEmpty()) {
+				continue;
+			}
+			parents.put(world, groups);
+		}
+		return new TransferBatch.Entity(name, from.getPermissionsMap(), from.getOptionsMap(), parents);
+	}
+
+	/**
+	 * Write data of an entity, one call per world and option
+	 *
+	 * @param entity Data to write
+	 * @param to Data to write to
+	 */
+	public static void write(TransferBatch.Entity entity, PermissionsData to) {
+		for (Map.Entry<String, List<String>> entry : entity.getPermissions().entrySet()) {
 			to.setPermissions(entry.getValue(), entry.getKey());
 		}
 
-		for (Map.Entry<String, Map<String, String>> entry : from.getOptionsMap().entrySet()) {
+		for (Map.Entry<String, Map<String, String>> entry : entity.getOptions().entrySet()) {
 			for (Map.Entry<String, String> option : entry.getValue().entrySet()) {
 				to.setOption(option.getKey(), option.getValue(), entry.getKey());
 			}
 		}
 
-		to.setParents(from.getParents(null), null);
-		for (String world : from.getWorlds()) {
-			List<String> groups =  from.getParents(world);
-			if (groups == null || groups.isEmpty()) {
-				continue;
-			}
-			to.setParents(groups, world);
+		for (Map.Entry<String, List<String>> entry : entity.getParents().entrySet()) {
+			to.setParents(entry.getValue(), entry.getKey());
 		}
 	}
 
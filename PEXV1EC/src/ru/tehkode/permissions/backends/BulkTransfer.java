@@ -0,0 +1,230 @@
+package ru.tehkode.permissions.backends;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ru.tehkode.permissions.PermissionsData;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copies all groups and users of one backend into another.
+ *
+ * Keys are read from the source page by page. Each page is read into a {@link TransferBatch} and written with
+ * {@link PermissionBackend#importBatch(TransferBatch)} by a pool of workers, with only a few pages in flight at a time.
+ * Progress is logged periodically, and the last key before which all entities were written is recorded in a
+ * checkpoint file, so an interrupted transfer can be resumed.
+ */
+public class BulkTransfer {
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+	private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+	private static final String PHASE_GROUPS = "groups", PHASE_USERS = "users";
+
+	private final PermissionBackend source, target;
+	private final File checkpointFile;
+	private final int chunkSize;
+
+	// Progress of current phase
+	private String phase;
+	private final Map<Long, String> completedChunks = new TreeMap<>();
+	private long nextChunk;
+	private String checkpointKey;
+	private int transferred;
+	private long lastProgress;
+
+	/**
+	 * @param source Backend to read from
+	 * @param target Backend to write to
+	 * @param checkpointFile File to record progress in and resume from, null to always start from the beginning
+	 * @param chunkSize Number of entities read and written at once
+	 */
+	public BulkTransfer(PermissionBackend source, PermissionBackend target, File checkpointFile, int chunkSize) {
+		this.source = source;
+		this.target = target;
+		this.checkpointFile = checkpointFile;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Transfer groups and users. The checkpoint file is removed after a successful transfer.
+	 *
+	 * @throws RuntimeException if writing a chunk fails, progress up to that point is kept in the checkpoint file
+	 */
+	public void run() {
+		Properties checkpoint = readCheckpoint();
+		String resumePhase = checkpoint.getProperty("phase", PHASE_GROUPS);
+		String resumeKey = checkpoint.getProperty("after");
+		if (resumeKey != null || !resumePhase.equals(PHASE_GROUPS)) {
+			target.getLogger().info("Resuming transfer of " + resumePhase + (resumeKey != null ? " after " + resumeKey : ""));
+		}
+
+		if (resumePhase.equals(PHASE_GROUPS)) {
+			transfer(PHASE_GROUPS, resumeKey);
+			resumeKey = null;
+		}
+		transfer(PHASE_USERS, resumeKey);
+
+		if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+			target.getLogger().warning("Unable to delete transfer checkpoint " + checkpointFile);
+		}
+	}
+
+	private void transfer(final String phase, String startKey) {
+		final boolean groups = phase.equals(PHASE_GROUPS);
+		synchronized (this) {
+			this.phase = phase;
+			this.completedChunks.clear();
+			this.nextChunk = 0;
+			this.checkpointKey = startKey;
+			this.transferred = 0;
+			this.lastProgress = System.currentTimeMillis();
+		}
+
+		int threads = Math.max(1, target.getImportThreads());
+		ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("PEX-transfer-%d").setDaemon(true).build());
+		final Semaphore inFlight = new Semaphore(threads * 2);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		String afterKey = startKey;
+		try {
+			for (long chunk = 0; failure.get() == null; chunk++) {
+				final List<String> keys = groups ? source.getGroupNames(afterKey, chunkSize) : source.getUserIdentifiers(afterKey, chunkSize);
+				if (keys.isEmpty()) {
+					break;
+				}
+				afterKey = keys.get(keys.size() - 1);
+
+				inFlight.acquire();
+				final long chunkNum = chunk;
+				final String lastKey = afterKey;
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							target.importBatch(read(groups, keys));
+							completed(chunkNum, lastKey, keys.size());
+						} catch (Throwable t) {
+							failure.compareAndSet(null, t);
+						} finally {
+							inFlight.release();
+						}
+					}
+				});
+
+				if (keys.size() < chunkSize) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failure.compareAndSet(null, e);
+		} finally {
+			workers.shutdown();
+			try {
+				while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+					target.getLogger().info("Waiting for transfer workers to finish");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, e);
+			}
+		}
+
+		synchronized (this) {
+			if (failure.get() != null) {
+				saveCheckpoint(phase, checkpointKey);
+				throw new RuntimeException("Transfer of " + phase + " failed after " + transferred + " entities"
+						+ (checkpointFile != null ? ", progress saved to " + checkpointFile : ""), failure.get());
+			}
+
+			target.getLogger().info("Transferred " + transferred + " " + phase);
+			if (groups) {
+				saveCheckpoint(PHASE_USERS, null);
+			}
+		}
+	}
+
+	private TransferBatch read(boolean groups, List<String> keys) {
+		if (groups) {
+			source.prefetchGroups(keys);
+		}
+
+		List<TransferBatch.Entity> entities = new ArrayList<>(keys.size());
+		for (String key : keys) {
+			PermissionsData data = groups ? source.getGroupData(key) : source.getUserData(key);
+			entities.add(BackendDataTransfer.read(key, data));
+		}
+		return new TransferBatch(groups, entities);
+	}
+
+	/**
+	 * Record a written chunk. The checkpoint only advances once all chunks before it were written too.
+	 */
+	private synchronized void completed(long chunk, String lastKey, int count) {
+		completedChunks.put(chunk, lastKey);
+		while (completedChunks.containsKey(nextChunk)) {
+			checkpointKey = completedChunks.remove(nextChunk++);
+		}
+		transferred += count;
+
+		long now = System.currentTimeMillis();
+		if (now - lastProgress >= PROGRESS_INTERVAL) {
+			lastProgress = now;
+			saveCheckpoint(phase, checkpointKey);
+			// No total, counting the source's keys would take another pass over all of them
+			target.getLogger().info("Transferred " + transferred + " " + phase + (checkpointKey != null ? ", all up to " + checkpointKey : ""));
+		}
+	}
+
+	private Properties readCheckpoint() {
+		Properties ret = new Properties();
+		if (checkpointFile != null && checkpointFile.isFile()) {
+			try (InputStream is = new FileInputStream(checkpointFile)) {
+				ret.load(is);
+			} catch (IOException e) {
+				target.getLogger().warning("Unable to read transfer checkpoint " + checkpointFile + ", starting from the beginning: " + e.getMessage());
+				ret.clear();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Persist data written so far, then record that the transfer may be resumed after key
+	 */
+	private void saveCheckpoint(String phase, String key) {
+		if (checkpointFile == null) {
+			return;
+		}
+
+		target.persistImported();
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("phase", phase);
+		if (key != null) {
+			checkpoint.setProperty("after", key);
+		}
+
+		File tempFile = new File(checkpointFile.getPath() + ".tmp");
+		try (OutputStream os = new FileOutputStream(tempFile)) {
+			checkpoint.store(os, "PermissionsEx transfer checkpoint");
+		} catch (IOException e) {
+			target.getLogger().warning("Unable to write transfer checkpoint " + checkpointFile + ": " + e.getMessage());
+			return;
+		}
+		if (checkpointFile.exists() && !checkpointFile.delete() || !tempFile.renameTo(checkpointFile)) {
+			target.getLogger().warning("Unable to replace transfer checkpoint " + checkpointFile);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package ru.tehkode.permissions.backends;
+
+import com.google.common.collect.AbstractIterator;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Iterates over entity keys page by page, so only one page is held in memory at a time.
+ * Each page continues after the last key of the previous one, keys added or removed while iterating
+ * may or may not be returned.
+ */
+public abstract class EntityCursor implements Iterable<String> {
+	private final int pageSize;
+
+	protected EntityCursor(int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size must be positive, got " + pageSize);
+		}
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Fetch a page of keys
+	 *
+	 * @param afterKey Last key of previous page, null for the first page
+	 * @param pageSize Maximum number of keys to return
+	 * @return Keys following afterKey, fewer than pageSize when there are no more keys
+	 */
+	protected abstract List<String> fetchPage(String afterKey, int pageSize);
+
+	@Override
+	public Iterator<String> iterator() {
+		return new AbstractIterator<String>() {
+			private Iterator<String> page;
+			private String lastKey;
+			private boolean lastPage;
+
+			@Override
+			protected String computeNext() {
+				while (page == null || !page.hasNext()) {
+					if (lastPage) {
+						return endOfData();
+					}
+					List<String> keys = fetchPage(lastKey, pageSize);
+					lastPage = keys.size() < pageSize;
+					if (!keys.isEmpty()) {
+						lastKey = keys.get(keys.size() - 1);
+					}
+					page = keys.iterator();
+				}
+				return page.next();
+			}
+		};
+	}
+}
@@ -0,0 +1,74 @@
+package ru.tehkode.permissions.backends;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of group members, for backends without a queryable store.
+ * Memberships of all worlds are merged, group names are case-insensitive.
+ */
+public class MembershipIndex {
+	private final Map<String, Set<String>> members = new HashMap<>();
+	private final Map<String, Set<String>> memberships = new HashMap<>();
+
+	/**
+	 * Replace groups member is in
+	 *
+	 * @param member Identifier of member
+	 * @param groups Direct parent groups of member in any world
+	 */
+	public synchronized void setGroups(String member, Collection<String> groups) {
+		remove(member);
+		if (groups.isEmpty()) {
+			return;
+		}
+
+		Set<String> memberGroups = new HashSet<>();
+		for (String group : groups) {
+			String key = group.toLowerCase();
+			memberGroups.add(key);
+			Set<String> groupMembers = members.get(key);
+			if (groupMembers == null) {
+				groupMembers = new HashSet<>();
+				members.put(key, groupMembers);
+			}
+			groupMembers.add(member);
+		}
+		memberships.put(member, memberGroups);
+	}
+
+	public synchronized void remove(String member) {
+		Set<String> groups = memberships.remove(member);
+		if (groups == null) {
+			return;
+		}
+
+		for (String group : groups) {
+			Set<String> groupMembers = members.get(group);
+			if (groupMembers != null) {
+				groupMembers.remove(member);
+				if (groupMembers.isEmpty()) {
+					members.remove(group);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param group Group name
+	 * @return Copy of identifiers of group's direct members
+	 */
+	public synchronized Set<String> getMembers(String group) {
+		Set<String> ret = members.get(group.toLowerCase());
+		return ret == null ? Collections.<String>emptySet() : new HashSet<>(ret);
+	}
+
+	public synchronized void clear() {
+		members.clear();
+		memberships.clear();
+	}
+}
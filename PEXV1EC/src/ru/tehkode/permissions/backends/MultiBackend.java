@@ -79,6 +79,14 @@ public class MultiBackend extends PermissionBackend {
 		}
 	}
 
+	@Override
+	public void flush() {
+		super.flush();
+		for (PermissionBackend backend : backends) {
+			backend.flush();
+		}
+	}
+
 	@Override
 	public PermissionsUserData getUserData(String userName) {
 		for (PermissionBackend backend : backends) {
@@ -128,6 +136,37 @@ public class MultiBackend extends PermissionBackend {
 		return Collections.unmodifiableSet(ret);
 	}
 
+	/**
+	 * Identifiers of all backends are merged in memory anyway, iterating over them avoids sorting them for every page
+	 */
+	@Override
+	public Iterable<String> iterateUserIdentifiers(int pageSize) {
+		return getUserIdentifiers();
+	}
+
+	@Override
+	public Iterable<String> iterateUserNames(int pageSize) {
+		return getUserNames();
+	}
+
+	@Override
+	public Iterable<String> iterateGroupNames(int pageSize) {
+		return getGroupNames();
+	}
+
+	@Override
+	public Collection<String> getGroupMemberIdentifiers(String groupName) {
+		Set<String> ret = new HashSet<>();
+		for (PermissionBackend backend : backends) {
+			Collection<String> members = backend.getGroupMemberIdentifiers(groupName);
+			if (members == null) {
+				return null;
+			}
+			ret.addAll(members);
+		}
+		return Collections.unmodifiableSet(ret);
+	}
+
 	@Override
 	public Collection<String> getUserNames() {
 		Set<String> ret = new HashSet<>();
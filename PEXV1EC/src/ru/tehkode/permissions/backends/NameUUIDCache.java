@@ -0,0 +1,122 @@
+package ru.tehkode.permissions.backends;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Player UUIDs by name, kept in a file so names are only ever looked up once.
+ * The file maps names, in the case reported by the lookup service, to UUIDs.
+ */
+public class NameUUIDCache {
+	private final File file;
+	private final Logger logger;
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private volatile boolean dirty;
+
+	public NameUUIDCache(File file, Logger logger) {
+		this.file = file;
+		this.logger = logger;
+		load();
+	}
+
+	/**
+	 * @param name Player name, in any case
+	 * @return Cached entry, or null if the name has not been looked up yet
+	 */
+	public Entry get(String name) {
+		return entries.get(name.toLowerCase());
+	}
+
+	public void put(String name, UUID uuid) {
+		Entry old = entries.put(name.toLowerCase(), new Entry(name, uuid));
+		if (old == null || !old.getUUID().equals(uuid) || !old.getName().equals(name)) {
+			dirty = true;
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private void load() {
+		if (!file.isFile()) {
+			return;
+		}
+
+		Properties props = new Properties();
+		try (InputStream is = new FileInputStream(file)) {
+			props.load(is);
+		} catch (IOException e) {
+			logger.warning("Unable to read UUID cache " + file + ": " + e.getMessage());
+			return;
+		}
+
+		for (Map.Entry<Object, Object> entry : props.entrySet()) {
+			try {
+				String name = entry.getKey().toString();
+				entries.put(name.toLowerCase(), new Entry(name, UUID.fromString(entry.getValue().toString())));
+			} catch (IllegalArgumentException e) {
+				logger.warning("Invalid UUID for " + entry.getKey() + " in UUID cache " + file);
+			}
+		}
+	}
+
+	/**
+	 * Write the cache to its file if entries were added since it was last written
+	 */
+	public synchronized void save() {
+		if (!dirty) {
+			return;
+		}
+		dirty = false;
+
+		Properties props = new Properties();
+		for (Entry entry : entries.values()) {
+			props.setProperty(entry.getName(), entry.getUUID().toString());
+		}
+
+		File tempFile = new File(file.getPath() + ".tmp");
+		try (OutputStream os = new FileOutputStream(tempFile)) {
+			props.store(os, "PermissionsEx name to UUID cache");
+		} catch (IOException e) {
+			dirty = true;
+			logger.warning("Unable to write UUID cache " + file + ": " + e.getMessage());
+			return;
+		}
+		if (file.exists() && !file.delete() || !tempFile.renameTo(file)) {
+			dirty = true;
+			logger.warning("Unable to replace UUID cache " + file);
+		}
+	}
+
+	public static final class Entry {
+		private final String name;
+		private final UUID uuid;
+
+		Entry(String name, UUID uuid) {
+			this.name = name;
+			this.uuid = uuid;
+		}
+
+		/**
+		 * @return Name in the case reported by the lookup service
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public UUID getUUID() {
+			return uuid;
+		}
+	}
+}
@@ -3,6 +3,7 @@ package ru.tehkode.permissions.backends;
 import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.ConfigurationSection;
 import ru.tehkode.permissions.PermissionManager;
+import ru.tehkode.permissions.PermissionsData;
 import ru.tehkode.permissions.PermissionsGroupData;
 import ru.tehkode.permissions.PermissionsUserData;
 import ru.tehkode.permissions.bukkit.ErrorReport;
@@ -15,6 +16,7 @@ import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -22,9 +24,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -47,13 +49,13 @@ public abstract class PermissionBackend {
 	 */
 	private final Executor activeExecutorPtr,
 			onThreadExecutor;
-	private final ExecutorService asyncExecutor;
+	private final WriteBehindQueue asyncExecutor;
 	private final List<SchemaUpdate> schemaUpdates = new LinkedList<>();
 
 	protected PermissionBackend(PermissionManager manager, ConfigurationSection backendConfig) throws PermissionBackendException {
 		this.manager = manager;
 		this.backendConfig = backendConfig;
-		this.asyncExecutor = Executors.newSingleThreadExecutor();
+		this.asyncExecutor = new WriteBehindQueue(this, manager.getConfiguration().getWriteDelay(), manager.getConfiguration().getWriteBatchSize());
 		this.onThreadExecutor = new Executor() {
 			@Override
 			public void execute(Runnable runnable) {
@@ -133,6 +135,40 @@ public abstract class PermissionBackend {
 		return activeExecutorPtr;
 	}
 
+	/**
+	 * @return Queue of mutations waiting to be written by this backend
+	 */
+	public WriteBehindQueue getWriteQueue() {
+		return asyncExecutor;
+	}
+
+	/**
+	 * Write all pending mutations, waiting until they are written
+	 */
+	public void flush() {
+		asyncExecutor.flush();
+	}
+
+	/**
+	 * Called on the writing thread before a batch of queued mutations is written.
+	 * Backends may defer persisting changes until {@link #endBatch()}.
+	 */
+	protected void beginBatch() {
+	}
+
+	/**
+	 * Called on the writing thread after a batch of queued mutations was written, even if some of them failed.
+	 */
+	protected void endBatch() {
+	}
+
+	/**
+	 * @return Whether changes made by other servers sharing this backend's storage are picked up by the backend itself
+	 */
+	public boolean isTrackingRemoteChanges() {
+		return false;
+	}
+
 	protected final PermissionManager getManager() {
 		return manager;
 	}
@@ -163,6 +199,95 @@ public abstract class PermissionBackend {
 	 */
 	public abstract Collection<String> getUserNames();
 
+	/**
+	 * Return a page of user identifiers.
+	 * Keys are ordered in a backend-specific way, afterKey has to be the last key of a page previously returned by this method.
+	 * Backends holding their data in memory may use the default implementation, which sorts all identifiers on every call.
+	 * They should then override the iterate methods, like {@link #iterateUserIdentifiers(int)}, to walk their data directly.
+	 * Pending writes may not be reflected yet.
+	 *
+	 * @param afterKey Last identifier of previous page, null for the first page
+	 * @param pageSize Maximum number of identifiers to return
+	 * @return Identifiers following afterKey
+	 */
+	public List<String> getUserIdentifiers(String afterKey, int pageSize) {
+		return getPage(getUserIdentifiers(), afterKey, pageSize);
+	}
+
+	/**
+	 * Return a page of friendly user names, see {@link #getUserIdentifiers(String, int)}
+	 */
+	public List<String> getUserNames(String afterKey, int pageSize) {
+		return getPage(getUserNames(), afterKey, pageSize);
+	}
+
+	/**
+	 * Return a page of group names, see {@link #getUserIdentifiers(String, int)}
+	 */
+	public List<String> getGroupNames(String afterKey, int pageSize) {
+		return getPage(getGroupNames(), afterKey, pageSize);
+	}
+
+	/**
+	 * Iterate over user identifiers, holding at most pageSize of them in memory
+	 *
+	 * @param pageSize Number of identifiers fetched at once
+	 * @return Identifiers of all users
+	 */
+	public Iterable<String> iterateUserIdentifiers(int pageSize) {
+		return new EntityCursor(pageSize) {
+			@Override
+			protected List<String> fetchPage(String afterKey, int pageSize) {
+				return getUserIdentifiers(afterKey, pageSize);
+			}
+		};
+	}
+
+	public Iterable<String> iterateUserNames(int pageSize) {
+		return new EntityCursor(pageSize) {
+			@Override
+			protected List<String> fetchPage(String afterKey, int pageSize) {
+				return getUserNames(afterKey, pageSize);
+			}
+		};
+	}
+
+	public Iterable<String> iterateGroupNames(int pageSize) {
+		return new EntityCursor(pageSize) {
+			@Override
+			protected List<String> fetchPage(String afterKey, int pageSize) {
+				return getGroupNames(afterKey, pageSize);
+			}
+		};
+	}
+
+	protected static List<String> getPage(Collection<String> keys, String afterKey, int pageSize) {
+		SortedSet<String> sorted = new TreeSet<>(keys);
+		if (afterKey != null) {
+			sorted = sorted.tailSet(afterKey + "\0");
+		}
+
+		List<String> ret = new ArrayList<>(Math.min(pageSize, sorted.size()));
+		for (String key : sorted) {
+			if (ret.size() >= pageSize) {
+				break;
+			}
+			ret.add(key);
+		}
+		return ret;
+	}
+
+	/**
+	 * Return identifiers of users having group as a direct parent in any world.
+	 * Lets membership queries skip loading every user. Pending writes may not be reflected yet.
+	 *
+	 * @param groupName Name of group
+	 * @return Identifiers of group's direct members, or null if this backend can not look them up efficiently
+	 */
+	public Collection<String> getGroupMemberIdentifiers(String groupName) {
+		return null;
+	}
+
 	/*public List<PermissionsUserData> getUsers() {
 		List<PermissionsUserData> userData = new ArrayList<PermissionsUserData>();
 		for (String name : getUserNames()) {
@@ -173,6 +298,16 @@ public abstract class PermissionBackend {
 
 	public abstract Collection<String> getGroupNames();
 
+	/**
+	 * Called before data of the given groups is loaded one by one.
+	 * Backends able to fetch many entities at once should override this to fetch them in a single pass
+	 * and serve the following {@link ru.tehkode.permissions.PermissionsData#load()} calls from it.
+	 *
+	 * @param groupNames Names of groups about to be loaded
+	 */
+	public void prefetchGroups(Collection<String> groupNames) {
+	}
+
 	/*public List<PermissionsGroupData> getGroups() {
 		List<PermissionsGroupData> groupData = new ArrayList<PermissionsGroupData>();
 		for (String name : getGroupNames()) {
@@ -191,9 +326,8 @@ public abstract class PermissionBackend {
 	public abstract void setWorldInheritance(String world, List<String> inheritance);
 
 	public void close() throws PermissionBackendException {
-		asyncExecutor.shutdown();
 		try {
-			if (!asyncExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+			if (!asyncExecutor.shutdown(30, TimeUnit.SECONDS)) {
 				getLogger().warning("All backend tasks not completed after 30 seconds, waiting 2 minutes.");
 				if (!asyncExecutor.awaitTermination(2, TimeUnit.MINUTES)) {
 					getLogger().warning("All backend tasks not completed after another 2 minutes, giving up on the wait.");
@@ -215,15 +349,19 @@ public abstract class PermissionBackend {
 	 * @param backend The backend to load data from
 	 */
 	public void loadFrom(PermissionBackend backend) {
+		loadFrom(backend, null);
+	}
+
+	/**
+	 * Load data from alternate backend in chunks, see {@link BulkTransfer}.
+	 *
+	 * @param backend The backend to load data from
+	 * @param checkpointFile File to record progress in, an existing checkpoint is resumed. Null to disable checkpoints
+	 */
+	public void loadFrom(PermissionBackend backend, File checkpointFile) {
 		setPersistent(false);
 		try {
-			for (String group : backend.getGroupNames()) {
-				BackendDataTransfer.transferGroup(backend.getGroupData(group), getGroupData(group));
-			}
-
-			for (String user : backend.getUserIdentifiers()) {
-				BackendDataTransfer.transferUser(backend.getUserData(user), getUserData(user));
-			}
+			new BulkTransfer(backend, this, checkpointFile, BulkTransfer.DEFAULT_CHUNK_SIZE).run();
 
 			for (Map.Entry<String, List<String>> ent : backend.getAllWorldInheritance().entrySet()) {
 				setWorldInheritance(ent.getKey(), ent.getValue()); // Could merge data but too complicated & too lazy
@@ -233,11 +371,56 @@ public abstract class PermissionBackend {
 		}
 	}
 
+	/**
+	 * Write a chunk of entities loaded from another backend, replacing their data.
+	 * Called by up to {@link #getImportThreads()} threads at once, while this backend is not persistent.
+	 * The default implementation writes entities one by one through their data objects.
+	 *
+	 * @param batch Entities to write
+	 */
+	protected void importBatch(TransferBatch batch) {
+		for (TransferBatch.Entity entity : batch.getEntities()) {
+			PermissionsData data = batch.isGroups() ? getGroupData(entity.getName()) : getUserData(entity.getName());
+			BackendDataTransfer.write(entity, data);
+		}
+	}
+
+	/**
+	 * @return Number of threads allowed to call {@link #importBatch(TransferBatch)} concurrently
+	 */
+	protected int getImportThreads() {
+		return 1;
+	}
+
+	/**
+	 * Persist all data imported so far, called before a transfer checkpoint is recorded.
+	 * Backends deferring writes while not persistent have to write them here.
+	 */
+	protected void persistImported() {
+	}
+
+	/**
+	 * Rename users to their UUIDs, keeping their names in the name option. Users whose UUID is already taken are skipped.
+	 *
+	 * @param users Name and UUID by current identifier
+	 * @return Number of users renamed
+	 */
+	protected int convertUsers(Map<String, NameUUIDCache.Entry> users) {
+		int converted = 0;
+		for (Map.Entry<String, NameUUIDCache.Entry> user : users.entrySet()) {
+			PermissionsUserData data = getUserData(user.getKey());
+			if (data.setIdentifier(user.getValue().getUUID().toString())) {
+				data.setOption("name", user.getValue().getName(), null);
+				converted++;
+			}
+		}
+		return converted;
+	}
 
 	public void revertUUID() {
 		this.setPersistent(false);
 		try {
-			for (String ident : getUserIdentifiers()) {
+			for (String ident : iterateUserIdentifiers(DEFAULT_PAGE_SIZE)) {
 				PermissionsUserData data = getUserData(ident);
 				String name = data.getOption("name", null);
 				if (name != null) {
@@ -254,6 +437,7 @@ public abstract class PermissionBackend {
 		if (persistent) {
 			this.activeExecutor = asyncExecutor;
 		} else {
+			flush(); // Queued changes must not be written after on-thread ones
 			this.activeExecutor = onThreadExecutor;
 		}
 	}
@@ -268,6 +452,11 @@ public abstract class PermissionBackend {
 
 	public final static String DEFAULT_BACKEND = "file";
 
+	/**
+	 * Number of entities fetched at once when iterating over all of them
+	 */
+	public final static int DEFAULT_PAGE_SIZE = 500;
+
 	/**
 	 * Array of backend aliases
 	 */
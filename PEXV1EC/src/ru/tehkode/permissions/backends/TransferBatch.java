@@ -0,0 +1,70 @@
+package ru.tehkode.permissions.backends;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backend-neutral copy of the data of a chunk of entities, read from one backend to be written to another.
+ * World-independent data is stored under the null world.
+ */
+public class TransferBatch {
+	private final boolean groups;
+	private final List<Entity> entities;
+
+	public TransferBatch(boolean groups, List<Entity> entities) {
+		this.groups = groups;
+		this.entities = Collections.unmodifiableList(entities);
+	}
+
+	/**
+	 * @return true if entities are groups, false if they are users
+	 */
+	public boolean isGroups() {
+		return groups;
+	}
+
+	public List<Entity> getEntities() {
+		return entities;
+	}
+
+	public int size() {
+		return entities.size();
+	}
+
+	public static class Entity {
+		private final String name;
+		private final Map<String, List<String>> permissions;
+		private final Map<String, Map<String, String>> options;
+		private final Map<String, List<String>> parents;
+
+		public Entity(String name, Map<String, List<String>> permissions, Map<String, Map<String, String>> options, Map<String, List<String>> parents) {
+			this.name = name;
+			this.permissions = permissions;
+			this.options = options;
+			this.parents = parents;
+		}
+
+		/**
+		 * @return Identifier of entity in the source backend
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public Map<String, List<String>> getPermissions() {
+			return permissions;
+		}
+
+		public Map<String, Map<String, String>> getOptions() {
+			return options;
+		}
+
+		/**
+		 * @return Parents by world, worlds without parents are left out except for the null world
+		 */
+		public Map<String, List<String>> getParents() {
+			return parents;
+		}
+	}
+}
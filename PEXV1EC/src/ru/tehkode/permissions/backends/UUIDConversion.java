@@ -0,0 +1,268 @@
+package ru.tehkode.permissions.backends;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mojang.api.profiles.HttpProfileRepository;
+import com.mojang.api.profiles.Profile;
+import com.mojang.api.profiles.ProfileRepository;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renames users identified by name to their UUIDs.
+ *
+ * Identifiers are read from the backend page by page. Names not in the {@link NameUUIDCache} are looked up by a pool of
+ * workers, in requests of up to {@link HttpProfileRepository#PROFILES_PER_REQUEST} names, with the request rate limited
+ * and failed requests retried. Each page is then renamed at once with {@link PermissionBackend#convertUsers(Map)}.
+ * The last identifier of the last converted page is periodically recorded in a checkpoint file, so an interrupted conversion
+ * resumes there and names that could not be found are not looked up again.
+ */
+public class UUIDConversion {
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+	private static final int MAX_ATTEMPTS = 5;
+	private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(2);
+	private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+	private final PermissionBackend backend;
+	private final ProfileRepository profiles;
+	private final NameUUIDCache cache;
+	private final File checkpointFile;
+	private final int threads, chunkSize;
+	private final RateLimiter rateLimiter;
+
+	/**
+	 * @param backend Backend to convert users of
+	 * @param profiles Service to look up UUIDs with
+	 * @param cache Cache of UUIDs looked up before, written at every checkpoint
+	 * @param checkpointFile File to record progress in and resume from, null to always start from the beginning
+	 * @param threads Number of lookups running at once
+	 * @param requestsPerMinute Maximum number of lookup requests per minute
+	 * @param chunkSize Number of users converted at once
+	 */
+	public UUIDConversion(PermissionBackend backend, ProfileRepository profiles, NameUUIDCache cache, File checkpointFile, int threads, int requestsPerMinute, int chunkSize) {
+		this.backend = backend;
+		this.profiles = profiles;
+		this.cache = cache;
+		this.checkpointFile = checkpointFile;
+		this.threads = Math.max(1, threads);
+		this.chunkSize = chunkSize;
+		this.rateLimiter = RateLimiter.create(Math.max(1, requestsPerMinute) / 60.0);
+	}
+
+	/**
+	 * Convert all users still identified by name. The checkpoint file is removed after a successful conversion.
+	 *
+	 * @return Number of users converted
+	 * @throws RuntimeException if a lookup failed after retries or renaming failed, progress up to that point is kept in the checkpoint file
+	 */
+	public int run() {
+		String afterKey = readCheckpoint();
+		if (afterKey != null) {
+			backend.getLogger().info("Resuming UUID conversion after " + afterKey);
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("PEX-uuid-lookup-%d").setDaemon(true).build());
+		int converted = 0, checked = 0, notFound = 0;
+		long lastProgress = System.currentTimeMillis();
+		boolean complete = false;
+		backend.setPersistent(false);
+		try {
+			List<String> keys;
+			do {
+				keys = backend.getUserIdentifiers(afterKey, chunkSize);
+				List<String> names = new ArrayList<>(keys.size());
+				for (String key : keys) {
+					if (!isUUID(key)) {
+						names.add(key);
+					}
+				}
+
+				Map<String, NameUUIDCache.Entry> found = lookup(names, workers);
+				if (!found.isEmpty()) {
+					converted += backend.convertUsers(found);
+					for (String name : found.keySet()) {
+						backend.getManager().resetUser(name);
+					}
+				}
+				checked += names.size();
+				notFound += names.size() - found.size();
+
+				if (!keys.isEmpty()) {
+					afterKey = keys.get(keys.size() - 1);
+				}
+
+				long now = System.currentTimeMillis();
+				if (now - lastProgress >= PROGRESS_INTERVAL) {
+					lastProgress = now;
+					saveCheckpoint(afterKey);
+					backend.getLogger().info("Converted " + converted + " of " + checked + " users checked so far");
+				}
+			} while (keys.size() == chunkSize);
+			complete = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("UUID conversion interrupted after converting " + converted + " users", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("UUID conversion failed after converting " + converted + " users"
+					+ (checkpointFile != null ? ", progress saved to " + checkpointFile : ""), e.getCause());
+		} finally {
+			workers.shutdownNow();
+			if (!complete && afterKey != null) {
+				saveCheckpoint(afterKey);
+			}
+			backend.setPersistent(true);
+			cache.save();
+		}
+
+		if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+			backend.getLogger().warning("Unable to delete UUID conversion checkpoint " + checkpointFile);
+		}
+		backend.getLogger().info("Converted " + converted + " users to UUIDs, " + notFound + " names were not found");
+		return converted;
+	}
+
+	/**
+	 * @param names Names to look up
+	 * @return Cached or found entry by name, for names that have a UUID
+	 */
+	private Map<String, NameUUIDCache.Entry> lookup(List<String> names, ExecutorService workers) throws InterruptedException, ExecutionException {
+		Map<String, NameUUIDCache.Entry> ret = new LinkedHashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String name : names) {
+			NameUUIDCache.Entry entry = cache.get(name);
+			if (entry != null) {
+				ret.put(name, entry);
+			} else {
+				missing.add(name);
+			}
+		}
+
+		List<Future<Profile[]>> requests = new ArrayList<>();
+		for (final List<String> batch : Lists.partition(missing, HttpProfileRepository.PROFILES_PER_REQUEST)) {
+			requests.add(workers.submit(new Callable<Profile[]>() {
+				@Override
+				public Profile[] call() throws Exception {
+					return fetch(batch);
+				}
+			}));
+		}
+
+		Map<String, String> missingByLowerName = new HashMap<>();
+		for (String name : missing) {
+			missingByLowerName.put(name.toLowerCase(), name);
+		}
+		for (Future<Profile[]> request : requests) {
+			for (Profile profile : request.get()) {
+				UUID uuid = parseUUID(profile.getId());
+				String name = profile.getName() == null ? null : missingByLowerName.get(profile.getName().toLowerCase());
+				if (uuid == null || name == null) {
+					continue;
+				}
+				cache.put(profile.getName(), uuid);
+				ret.put(name, cache.get(name));
+			}
+		}
+		return ret;
+	}
+
+	private Profile[] fetch(List<String> names) throws InterruptedException {
+		for (int attempt = 1; ; attempt++) {
+			rateLimiter.acquire();
+			try {
+				return profiles.findProfilesByNames(names.toArray(new String[names.size()]));
+			} catch (RuntimeException e) {
+				if (attempt >= MAX_ATTEMPTS) {
+					throw e;
+				}
+				backend.getLogger().warning("UUID lookup failed (attempt " + attempt + " of " + MAX_ATTEMPTS + "), retrying: " + e.getMessage());
+				Thread.sleep(RETRY_DELAY << (attempt - 1));
+			}
+		}
+	}
+
+	/**
+	 * @param id UUID with or without dashes
+	 * @return Parsed UUID, or null if id is not valid
+	 */
+	private static UUID parseUUID(String id) {
+		if (id == null) {
+			return null;
+		}
+		try {
+			return UUID.fromString(id.length() == 32 ? id.replaceFirst("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})", "$1-$2-$3-$4-$5") : id);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static boolean isUUID(String identifier) {
+		if (identifier.length() != 36) {
+			return false;
+		}
+		try {
+			UUID.fromString(identifier);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private String readCheckpoint() {
+		if (checkpointFile == null || !checkpointFile.isFile()) {
+			return null;
+		}
+
+		Properties checkpoint = new Properties();
+		try (InputStream is = new FileInputStream(checkpointFile)) {
+			checkpoint.load(is);
+		} catch (IOException e) {
+			backend.getLogger().warning("Unable to read UUID conversion checkpoint " + checkpointFile + ", starting from the beginning: " + e.getMessage());
+			return null;
+		}
+		return checkpoint.getProperty("after");
+	}
+
+	/**
+	 * Persist users converted so far and the cache, then record that the conversion may be resumed after key
+	 */
+	private void saveCheckpoint(String key) {
+		cache.save();
+		if (checkpointFile == null || key == null) {
+			return;
+		}
+
+		backend.persistImported();
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("after", key);
+
+		File tempFile = new File(checkpointFile.getPath() + ".tmp");
+		try (OutputStream os = new FileOutputStream(tempFile)) {
+			checkpoint.store(os, "PermissionsEx UUID conversion checkpoint");
+		} catch (IOException e) {
+			backend.getLogger().warning("Unable to write UUID conversion checkpoint " + checkpointFile + ": " + e.getMessage());
+			return;
+		}
+		if (checkpointFile.exists() && !checkpointFile.delete() || !tempFile.renameTo(checkpointFile)) {
+			backend.getLogger().warning("Unable to replace UUID conversion checkpoint " + checkpointFile);
+		}
+	}
+}
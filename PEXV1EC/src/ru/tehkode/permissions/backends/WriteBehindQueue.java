@@ -0,0 +1,246 @@
+package ru.tehkode.permissions.backends;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executor delaying backend mutations and applying them in batches.
+ *
+ * Tasks submitted with a key replace a still pending task with the same key, so repeated changes
+ * of the same entity data are written once. Pending tasks are flushed after a short delay or
+ * as soon as enough of them are queued, and the backend is told when a batch starts and ends,
+ * so it may persist all changes of a batch at once.
+ */
+public class WriteBehindQueue implements Executor {
+	private final PermissionBackend backend;
+	private final long delay;
+	private final int batchSize;
+	private volatile Thread flushThread;
+	private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "PEX-write-behind");
+			flushThread = thread;
+			return thread;
+		}
+	});
+	private final Object lock = new Object();
+	private Map<Object, Runnable> pending = new LinkedHashMap<>();
+	private boolean flushScheduled;
+	private boolean inBatch; // Only accessed by the flush thread
+
+	// Metrics
+	private final AtomicLong submitted = new AtomicLong(), coalesced = new AtomicLong(), executed = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong(), totalFlushTime = new AtomicLong(), maxFlushTime = new AtomicLong();
+	private volatile long lastFlushTime;
+
+	/**
+	 * @param backend Backend notified of batches
+	 * @param delay Milliseconds a mutation may wait for others before being written
+	 * @param batchSize Number of pending mutations that triggers a flush right away
+	 */
+	public WriteBehindQueue(PermissionBackend backend, long delay, int batchSize) {
+		this.backend = backend;
+		this.delay = delay;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Wrap task to be coalesced with other pending tasks having an equal key
+	 *
+	 * @param key Identifies data modified by task, like entity, type of data and world
+	 * @param task Task fully replacing the effect of previous tasks with the same key
+	 * @return Task to pass to the executor
+	 */
+	public static Runnable keyed(Object key, Runnable task) {
+		return new KeyedTask(key, task);
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		Object key = task instanceof KeyedTask ? ((KeyedTask) task).key : new Object();
+		submitted.incrementAndGet();
+		synchronized (lock) {
+			if (pending.put(key, task) != null) {
+				coalesced.incrementAndGet();
+			}
+
+			if (pending.size() >= batchSize) {
+				flushExecutor.execute(flushTask);
+			} else if (!flushScheduled) {
+				flushScheduled = true;
+				flushExecutor.schedule(flushTask, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			runPending();
+		}
+	};
+
+	private void runPending() {
+		List<Runnable> tasks;
+		synchronized (lock) {
+			flushScheduled = false;
+			if (pending.isEmpty()) {
+				return;
+			}
+			tasks = new ArrayList<>(pending.values());
+			pending = new LinkedHashMap<>();
+		}
+
+		long start = System.nanoTime();
+		boolean nested = inBatch; // Flushed by a task of the current batch, run within it
+		if (!nested) {
+			inBatch = true;
+			backend.beginBatch();
+		}
+		try {
+			for (Runnable task : tasks) {
+				try {
+					task.run();
+				} catch (Throwable t) {
+					getLogger().log(Level.SEVERE, "Error while writing permissions data", t);
+				}
+				executed.incrementAndGet();
+			}
+		} finally {
+			if (!nested) {
+				backend.endBatch();
+				inBatch = false;
+			}
+		}
+
+		long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		lastFlushTime = time;
+		totalFlushTime.addAndGet(time);
+		flushes.incrementAndGet();
+		long max;
+		do {
+			max = maxFlushTime.get();
+		} while (time > max && !maxFlushTime.compareAndSet(max, time));
+	}
+
+	/**
+	 * Write all pending mutations, waiting until they are written.
+	 * Called from a queued mutation, pending mutations are written right away on the flush thread.
+	 */
+	public void flush() {
+		if (Thread.currentThread() == flushThread) {
+			runPending();
+			return;
+		}
+
+		Future<?> future = flushExecutor.submit(flushTask);
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			getLogger().log(Level.SEVERE, "Error while flushing permissions data", e.getCause());
+		}
+	}
+
+	/**
+	 * Write all pending mutations and stop accepting new ones
+	 *
+	 * @param timeout Time to wait for pending mutations
+	 * @param unit Unit of timeout
+	 * @return Whether all mutations were written in time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		flushExecutor.execute(flushTask);
+		flushExecutor.shutdown();
+		return flushExecutor.awaitTermination(timeout, unit);
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return flushExecutor.awaitTermination(timeout, unit);
+	}
+
+	private Logger getLogger() {
+		return backend.getLogger();
+	}
+
+	/**
+	 * @return Number of mutations waiting to be written
+	 */
+	public int getQueueDepth() {
+		synchronized (lock) {
+			return pending.size();
+		}
+	}
+
+	public long getSubmittedCount() {
+		return submitted.get();
+	}
+
+	/**
+	 * @return Number of mutations replaced by a later mutation of the same data before being written
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	public long getExecutedCount() {
+		return executed.get();
+	}
+
+	public long getFlushCount() {
+		return flushes.get();
+	}
+
+	/**
+	 * @return Duration of the last flush in milliseconds
+	 */
+	public long getLastFlushTime() {
+		return lastFlushTime;
+	}
+
+	public long getMaxFlushTime() {
+		return maxFlushTime.get();
+	}
+
+	public double getAverageFlushTime() {
+		long flushes = this.flushes.get();
+		return flushes == 0 ? 0 : (double) totalFlushTime.get() / flushes;
+	}
+
+	@Override
+	public String toString() {
+		return "WriteBehindQueue{depth=" + getQueueDepth() + ", submitted=" + getSubmittedCount() + ", coalesced=" + getCoalescedCount()
+				+ ", flushes=" + getFlushCount() + ", lastFlush=" + getLastFlushTime() + "ms, avgFlush=" + String.format("%.1f", getAverageFlushTime())
+				+ "ms, maxFlush=" + getMaxFlushTime() + "ms}";
+	}
+
+	private static class KeyedTask implements Runnable {
+		private final Object key;
+		private final Runnable task;
+
+		private KeyedTask(Object key, Runnable task) {
+			this.key = key;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			task.run();
+		}
+	}
+}
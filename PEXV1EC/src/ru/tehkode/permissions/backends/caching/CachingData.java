@@ -1,8 +1,11 @@
 package ru.tehkode.permissions.backends.caching;
 
+import ru.tehkode.permissions.NodeDictionary;
 import ru.tehkode.permissions.PermissionsData;
+import ru.tehkode.permissions.backends.WriteBehindQueue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -16,10 +19,11 @@ import java.util.concurrent.Executor;
 public abstract class CachingData implements PermissionsData {
 	private final Executor executor;
 	protected final Object lock;
-	private Map<String, List<String>> permissions;
+	private Map<String, List<String>> permissions; // Values are compact lists from NodeDictionary
 	private Map<String, Map<String, String>> options;
 	private Map<String, List<String>> parents;
 	private volatile Set<String> worlds;
+	private volatile int generation; // Incremented on removal, so writes queued before are dropped
 
 	public CachingData(Executor executor, Object lock) {
 		this.executor = executor;
@@ -27,21 +31,47 @@ public abstract class CachingData implements PermissionsData {
 	}
 
 	protected void execute(final Runnable run) {
-		executor.execute(new Runnable() {
+		executor.execute(guard(run));
+	}
+
+	/**
+	 * Execute a write that may be coalesced with a pending write having the same key
+	 *
+	 * @param run Write replacing effects of previous writes with the same key
+	 * @param key Parts of key identifying the written data of this entity
+	 */
+	protected void execute(final Runnable run, Object... key) {
+		List<Object> fullKey = new ArrayList<>(key.length + 1);
+		fullKey.add(this);
+		fullKey.addAll(Arrays.asList(key));
+		executor.execute(WriteBehindQueue.keyed(fullKey, guard(run)));
+	}
+
+	/**
+	 * @return Task running run under the lock, unless this entity was removed after run was queued
+	 */
+	private Runnable guard(final Runnable run) {
+		final int generation = this.generation;
+		return new Runnable() {
 			@Override
 			public void run() {
 				synchronized (lock) {
-					run.run();
+					if (generation == CachingData.this.generation) {
+						run.run();
+					}
 				}
 			}
-		});
+		};
 	}
 
 	protected abstract PermissionsData getBackingData();
 
 	protected void loadPermissions() {
 		synchronized (lock) {
-			this.permissions = new HashMap<>(getBackingData().getPermissionsMap());
+			this.permissions = new HashMap<>();
+			for (Map.Entry<String, List<String>> e : getBackingData().getPermissionsMap().entrySet()) {
+				this.permissions.put(e.getKey(), NodeDictionary.toList(e.getValue()));
+			}
 		}
 	}
 
@@ -90,7 +120,7 @@ public abstract class CachingData implements PermissionsData {
 			loadPermissions();
 		}
 		List<String> ret = permissions.get(worldName);
-		return ret == null ? Collections.<String>emptyList() : Collections.unmodifiableList(ret);
+		return ret == null ? Collections.<String>emptyList() : ret;
 	}
 
 	@Override
@@ -98,14 +128,14 @@ public abstract class CachingData implements PermissionsData {
 		if (this.permissions == null) {
 			loadPermissions();
 		}
-		final List<String> safePermissions = new ArrayList<>(permissions);
+		final List<String> safePermissions = NodeDictionary.toList(permissions);
 		execute(new Runnable() {
 			@Override
 			public void run() {
 				clearWorldsCache();
 				getBackingData().setPermissions(safePermissions, worldName);
 			}
-		});
+		}, "permissions", worldName);
 		this.permissions.put(worldName, safePermissions);
 	}
 
@@ -117,7 +147,7 @@ public abstract class CachingData implements PermissionsData {
 
 		Map<String, List<String>> ret = new HashMap<>();
 		for (Map.Entry<String, List<String>> e : permissions.entrySet()) {
-			ret.put(e.getKey(), Collections.unmodifiableList(e.getValue()));
+			ret.put(e.getKey(), e.getValue());
 		}
 		return Collections.unmodifiableMap(ret);
 	}
@@ -159,7 +189,7 @@ public abstract class CachingData implements PermissionsData {
 			public void run() {
 				getBackingData().setOption(option, value, world);
 			}
-		});
+		}, "option", option, world);
 		if (options != null) {
 			Map<String, String> optionsMap = options.get(world);
 			if (optionsMap == null) {
@@ -218,7 +248,7 @@ public abstract class CachingData implements PermissionsData {
 			public void run() {
 				getBackingData().setParents(safeParents, worldName);
 			}
-		});
+		}, "parents", worldName);
 		this.parents.put(worldName, Collections.unmodifiableList(safeParents));
 	}
 
@@ -234,12 +264,13 @@ public abstract class CachingData implements PermissionsData {
 			public void run() {
 				getBackingData().save();
 			}
-		});
+		}, "save");
 	}
 
 	@Override
 	public void remove() {
 		synchronized (lock) {
+			generation++; // Pending writes would otherwise re-create the entity once flushed
 			getBackingData().remove();
 			clearCache();
 		}
@@ -23,7 +23,9 @@ import ru.tehkode.permissions.PermissionsGroupData;
 import ru.tehkode.permissions.PermissionsUserData;
 import ru.tehkode.permissions.backends.PermissionBackend;
 import ru.tehkode.permissions.PermissionManager;
+import ru.tehkode.permissions.backends.MembershipIndex;
 import ru.tehkode.permissions.backends.SchemaUpdate;
+import ru.tehkode.permissions.backends.WriteBehindQueue;
 import ru.tehkode.permissions.backends.caching.CachingGroupData;
 import ru.tehkode.permissions.backends.caching.CachingUserData;
 import ru.tehkode.permissions.exceptions.PermissionBackendException;
@@ -44,6 +46,9 @@ public class FileBackend extends PermissionBackend {
 	public File permissionsFile;
 	private final Map<String, List<String>> worldInheritanceCache = new ConcurrentHashMap<>();
 	private final Object lock = new Object();
+	private boolean persistent = true;
+	private final boolean lazyUsers;
+	private MembershipIndex memberIndex;
 
 	public FileBackend(PermissionManager manager, ConfigurationSection config) throws PermissionBackendException {
 		super(manager, config);
@@ -61,6 +66,9 @@ public class FileBackend extends PermissionBackend {
 			baseDir = baseDir.replace("\\", File.separator);
 		}
 
+		// Parse user sections only when users are requested, speeds up loading of files with many users
+		this.lazyUsers = getConfig().getBoolean("lazy-users", false);
+
 		File baseDirectory = new File(baseDir);
 		if (!baseDirectory.exists()) {
 			baseDirectory.mkdirs();
@@ -70,6 +78,7 @@ public class FileBackend extends PermissionBackend {
 		addSchemaUpdate(new SchemaUpdate(1) {
 			@Override
 			public void performUpdate() {
+				permissions.materializeAll();
 				ConfigurationSection userSection = permissions.getConfigurationSection("users");
 				if (userSection != null) {
 					for (Map.Entry<String, Object> e : userSection.getValues(false).entrySet()) {
@@ -181,7 +190,7 @@ public class FileBackend extends PermissionBackend {
 		final List<String> parentWorlds = new ArrayList<>(rawParentWorlds);
 		worldInheritanceCache.put(world, parentWorlds);
 
-		getExecutor().execute(new Runnable() {
+		getExecutor().execute(WriteBehindQueue.keyed(Arrays.asList("worldInheritance", world), new Runnable() {
 			@Override
 			public void run() {
 				synchronized (lock) {
@@ -189,13 +198,36 @@ public class FileBackend extends PermissionBackend {
 					save();
 				}
 			}
-		});
+		}));
 	}
 
 	@Override
 	public PermissionsUserData getUserData(String userName) {
 		synchronized (lock) {
-			final CachingUserData data = new CachingUserData(new FileData("users", userName, this.permissions, "group"), getExecutor(), lock);
+			final CachingUserData data = new CachingUserData(new FileData("users", userName, this.permissions, "group") {
+				@Override
+				public boolean setIdentifier(String identifier) {
+					String oldIdentifier = getIdentifier();
+					if (!super.setIdentifier(identifier)) {
+						return false;
+					}
+					removeMembership(oldIdentifier);
+					updateMembership(this);
+					return true;
+				}
+
+				@Override
+				public void setParents(List<String> parents, String worldName) {
+					super.setParents(parents, worldName);
+					updateMembership(this);
+				}
+
+				@Override
+				public void remove() {
+					super.remove();
+					removeMembership(getIdentifier());
+				}
+			}, getExecutor(), lock);
 			data.load();
 			return data;
 		}
@@ -241,6 +273,13 @@ public class FileBackend extends PermissionBackend {
 	public Collection<String> getUserIdentifiers() {
 		synchronized (lock) {
 			ConfigurationSection users = this.permissions.getConfigurationSection("users");
+			Set<String> lazyUsers = this.permissions.getLazyKeys();
+			if (!lazyUsers.isEmpty()) {
+				if (users != null) {
+					lazyUsers.addAll(users.getKeys(false));
+				}
+				return lazyUsers;
+			}
 			return users != null ? users.getKeys(false) : Collections.<String>emptyList();
 		}
 	}
@@ -249,20 +288,34 @@ public class FileBackend extends PermissionBackend {
 	public Collection<String> getUserNames() {
 		synchronized (lock) {
 			ConfigurationSection users = this.permissions.getConfigurationSection("users");
+			Set<String> lazyUsers = this.permissions.getLazyKeys();
 
-			if (users == null) {
+			if (users == null && lazyUsers.isEmpty()) {
 				return Collections.emptySet();
 			}
 
 			Set<String> userNames = new HashSet<>();
 
-			for (Map.Entry<String, Object> entry : users.getValues(false).entrySet()) {
-				if (entry.getValue() instanceof ConfigurationSection) {
-					ConfigurationSection userSection = (ConfigurationSection) entry.getValue();
+			if (users != null) {
+				for (Map.Entry<String, Object> entry : users.getValues(false).entrySet()) {
+					if (entry.getValue() instanceof ConfigurationSection) {
+						ConfigurationSection userSection = (ConfigurationSection) entry.getValue();
 
-					String name = userSection.getString(buildPath("options", "name"));
-					if (name != null) {
-						userNames.add(name);
+						String name = userSection.getString(buildPath("options", "name"));
+						if (name != null) {
+							userNames.add(name);
+						}
+					}
+				}
+			}
+
+			// Unparsed users are only peeked at, not kept in memory
+			for (String user : lazyUsers) {
+				Object userSection = this.permissions.peekLazy(user);
+				if (userSection instanceof Map) {
+					Object options = ((Map<?, ?>) userSection).get("options");
+					if (options instanceof Map && ((Map<?, ?>) options).get("name") != null) {
+						userNames.add(((Map<?, ?>) options).get("name").toString());
 					}
 				}
 			}
@@ -270,6 +323,108 @@ public class FileBackend extends PermissionBackend {
 		}
 	}
 
+	/**
+	 * The whole file is held in memory already, iterating over a snapshot avoids sorting it for every page
+	 */
+	@Override
+	public Iterable<String> iterateUserIdentifiers(int pageSize) {
+		return getUserIdentifiers();
+	}
+
+	@Override
+	public Iterable<String> iterateUserNames(int pageSize) {
+		return getUserNames();
+	}
+
+	@Override
+	public Iterable<String> iterateGroupNames(int pageSize) {
+		return getGroupNames();
+	}
+
+	/**
+	 * Members are looked up in an index built from all users on first use, and kept up to date by user data afterwards
+	 */
+	@Override
+	public Collection<String> getGroupMemberIdentifiers(String groupName) {
+		synchronized (lock) {
+			if (this.memberIndex == null) {
+				MembershipIndex index = new MembershipIndex();
+				ConfigurationSection users = this.permissions.getConfigurationSection("users");
+				if (users != null) {
+					for (Map.Entry<String, Object> entry : users.getValues(false).entrySet()) {
+						index.setGroups(entry.getKey(), getParentNames(entry.getValue()));
+					}
+				}
+
+				for (String user : this.permissions.getLazyKeys()) {
+					index.setGroups(user, getParentNames(this.permissions.peekLazy(user)));
+				}
+				this.memberIndex = index;
+			}
+			return this.memberIndex.getMembers(groupName);
+		}
+	}
+
+	private void updateMembership(FileData data) {
+		synchronized (lock) {
+			if (this.memberIndex != null) {
+				Set<String> parents = new HashSet<>();
+				for (List<String> worldParents : data.getParentsMap().values()) {
+					parents.addAll(worldParents);
+				}
+				this.memberIndex.setGroups(data.getIdentifier().toLowerCase(), parents);
+			}
+		}
+	}
+
+	private void removeMembership(String identifier) {
+		synchronized (lock) {
+			if (this.memberIndex != null) {
+				this.memberIndex.remove(identifier.toLowerCase());
+			}
+		}
+	}
+
+	/**
+	 * Direct parents of user in any world
+	 *
+	 * @param user Parsed user section, or map of an unparsed one
+	 */
+	private static Set<String> getParentNames(Object user) {
+		Set<String> ret = new HashSet<>();
+		addNames(ret, getChild(user, "group"));
+		Object worlds = getChild(user, "worlds");
+		if (worlds instanceof ConfigurationSection) {
+			for (Object world : ((ConfigurationSection) worlds).getValues(false).values()) {
+				addNames(ret, getChild(world, "group"));
+			}
+		} else if (worlds instanceof Map) {
+			for (Object world : ((Map<?, ?>) worlds).values()) {
+				addNames(ret, getChild(world, "group"));
+			}
+		}
+		return ret;
+	}
+
+	private static Object getChild(Object section, String key) {
+		if (section instanceof ConfigurationSection) {
+			return ((ConfigurationSection) section).get(key);
+		} else if (section instanceof Map) {
+			return ((Map<?, ?>) section).get(key);
+		}
+		return null;
+	}
+
+	private static void addNames(Set<String> names, Object list) {
+		if (list instanceof List) {
+			for (Object name : (List<?>) list) {
+				if (name != null && !name.toString().isEmpty()) {
+					names.add(name.toString());
+				}
+			}
+		}
+	}
+
 	@Override
 	public Collection<String> getGroupNames() {
 		synchronized (lock) {
@@ -305,10 +460,14 @@ public class FileBackend extends PermissionBackend {
 	public void reload() throws PermissionBackendException {
 		FileConfig newPermissions = new FileConfig(permissionsFile, new Object(), "users");
 		newPermissions.options().pathSeparator(PATH_SEPARATOR);
+		if (lazyUsers) {
+			newPermissions.setLazySection("users");
+		}
 		try {
 			newPermissions.load();
 			getLogger().info("Permissions file successfully reloaded");
 			worldInheritanceCache.clear();
+			this.memberIndex = null;
 			this.permissions = newPermissions;
 		} catch (FileNotFoundException e) {
 			if (this.permissions == null) {
@@ -350,22 +509,59 @@ public class FileBackend extends PermissionBackend {
 	}
 
 	@Override
-	public void loadFrom(PermissionBackend backend) {
+	public void loadFrom(PermissionBackend backend, File checkpointFile) {
 		this.setPersistent(false);
 		try {
-			super.loadFrom(backend);
+			super.loadFrom(backend, checkpointFile);
 		} finally {
 			this.setPersistent(true);
 		}
 		save();
 	}
 
+	@Override
+	protected void persistImported() {
+		synchronized (lock) {
+			if (!this.persistent) {
+				this.permissions.setSaveSuppressed(false);
+				try {
+					this.save();
+				} finally {
+					this.permissions.setSaveSuppressed(true);
+				}
+			}
+		}
+	}
+
 	@Override
 	public void setPersistent(boolean persistent) {
 		super.setPersistent(persistent);
-		this.permissions.setSaveSuppressed(!persistent);
-		if (persistent) {
-			this.save();
+		synchronized (lock) {
+			this.persistent = persistent;
+			this.permissions.setSaveSuppressed(!persistent);
+			if (persistent) {
+				this.save();
+			}
+		}
+	}
+
+	/**
+	 * Suppress saving while a batch is written, the whole file is rewritten once afterwards
+	 */
+	@Override
+	protected void beginBatch() {
+		synchronized (lock) {
+			this.permissions.setSaveSuppressed(true);
+		}
+	}
+
+	@Override
+	protected void endBatch() {
+		synchronized (lock) {
+			if (this.persistent) {
+				this.permissions.setSaveSuppressed(false);
+				this.save();
+			}
 		}
 	}
 
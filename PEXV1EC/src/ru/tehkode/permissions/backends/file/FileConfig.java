@@ -1,20 +1,28 @@
 package ru.tehkode.permissions.backends.file;
 
+import com.google.common.io.ByteStreams;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.YamlConfiguration;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class FileConfig extends YamlConfiguration {
 	private final List<String> lowerCaseSections;
-	private final File file, tempFile, oldFile;
+	private File file, tempFile, oldFile;
 	private final Object lock;
 	private boolean saveSuppressed;
+	private String lazySection;
+	private LazySectionIndex lazyIndex;
 
 	public FileConfig(File file) {
 		this(file, new Object());
@@ -25,17 +33,53 @@ public class FileConfig extends YamlConfiguration {
 		this.lock = lock;
 		this.lowerCaseSections = Arrays.asList(lowerCaseSections);
 		this.options().pathSeparator(FileBackend.PATH_SEPARATOR);
+		setFile(file);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Change the file this configuration is loaded from and saved to
+	 *
+	 * @param file New file
+	 */
+	void setFile(File file) {
 		this.file = file;
 		this.tempFile = new File(file.getPath() + ".tmp");
 		this.oldFile = new File(file.getPath() + ".old");
 	}
 
-	public File getFile() {
-		return file;
+	/**
+	 * Parse entries of section only when they are accessed. Has to be set before loading.
+	 *
+	 * @param lazySection Top-level section to index instead of parsing, null to parse everything
+	 */
+	void setLazySection(String lazySection) {
+		this.lazySection = lazySection;
 	}
 
 	public void load() throws IOException, InvalidConfigurationException {
-		this.load(file);
+		if (lazySection == null) {
+			this.load(file);
+			return;
+		}
+
+		byte[] source;
+		try (InputStream is = new FileInputStream(file)) {
+			source = ByteStreams.toByteArray(is);
+		}
+
+		LazySectionIndex index = LazySectionIndex.build(source, lazySection);
+		synchronized (lock) {
+			this.lazyIndex = index;
+			if (index == null) { // Not indexable, parse whole file
+				this.loadFromString(new String(source, "UTF-8"));
+			} else {
+				this.loadFromString(index.getRemainder());
+			}
+		}
 	}
 
 	public void save() throws IOException {
@@ -88,10 +132,101 @@ public class FileConfig extends YamlConfiguration {
 	@Override
 	public String saveToString() {
 		synchronized (lock) {
-			return super.saveToString();
+			String dump = super.saveToString();
+			if (lazyIndex != null && !lazyIndex.isEmpty()) {
+				dump = lazyIndex.merge(dump, options().indent());
+			}
+			return dump;
+		}
+	}
+
+	/**
+	 * Materialize lazily loaded entry addressed by path, if any
+	 *
+	 * @param path Path of an entry or a node within it
+	 */
+	private void materialize(String path) {
+		if (lazyIndex == null || lazyIndex.isEmpty() || path.length() <= lazySection.length()
+				|| !path.startsWith(lazySection) || path.charAt(lazySection.length()) != FileBackend.PATH_SEPARATOR) {
+			return;
+		}
+
+		int keyEnd = path.indexOf(FileBackend.PATH_SEPARATOR, lazySection.length() + 1);
+		String key = path.substring(lazySection.length() + 1, keyEnd == -1 ? path.length() : keyEnd).toLowerCase();
+		synchronized (lock) {
+			if (lazyIndex.contains(key)) {
+				store(key, lazyIndex.take(key));
+			}
+		}
+	}
+
+	private void store(String key, Object value) {
+		String path = FileBackend.buildPath(lazySection, key);
+		if (value instanceof Map) {
+			super.createSection(path, (Map<?, ?>) value);
+		} else {
+			super.set(path, value);
+		}
+	}
+
+	/**
+	 * Materialize all lazily loaded entries, needed before processing the whole section
+	 */
+	public void materializeAll() {
+		synchronized (lock) {
+			if (lazyIndex != null) {
+				for (String key : lazyIndex.getKeys().toArray(new String[0])) {
+					store(key, lazyIndex.take(key));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Lower-cased keys of lazy section's entries not parsed yet
+	 */
+	public Set<String> getLazyKeys() {
+		synchronized (lock) {
+			return lazyIndex == null ? Collections.<String>emptySet() : new HashSet<>(lazyIndex.getKeys());
+		}
+	}
+
+	/**
+	 * Parse lazily loaded entry without keeping it in memory
+	 *
+	 * @param key Lower-cased key
+	 * @return Value of entry, null if there is no such unparsed entry
+	 */
+	public Object peekLazy(String key) {
+		synchronized (lock) {
+			return lazyIndex == null ? null : lazyIndex.parse(key);
 		}
 	}
 
+	@Override
+	public Object get(String path, Object def) {
+		materialize(path);
+		return super.get(path, def);
+	}
+
+	@Override
+	public void set(String path, Object value) {
+		materialize(path);
+		super.set(path, value);
+	}
+
+	@Override
+	public ConfigurationSection createSection(String path) {
+		materialize(path);
+		return super.createSection(path);
+	}
+
+	@Override
+	public ConfigurationSection createSection(String path, Map<?, ?> map) {
+		materialize(path);
+		return super.createSection(path, map);
+	}
+
 	public boolean isLowerCased(String basePath) {
 		return lowerCaseSections.contains(basePath);
 	}
@@ -0,0 +1,303 @@
+package ru.tehkode.permissions.backends.file;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Byte offset index of the entries of one top-level section of a YAML file.
+ *
+ * The file is scanned line by line once, recording where each direct child of the section starts and ends.
+ * The rest of the file is parsed as usual, while entries of the section are only parsed when requested.
+ * Files using YAML features the scanner does not understand are not indexed and have to be loaded completely.
+ */
+class LazySectionIndex {
+	private final String section;
+	private final byte[] source;
+	private final int sectionStart, sectionEnd, childIndent;
+	private final Map<String, int[]> entries;
+
+	private LazySectionIndex(String section, byte[] source, int sectionStart, int sectionEnd, int childIndent, Map<String, int[]> entries) {
+		this.section = section;
+		this.source = source;
+		this.sectionStart = sectionStart;
+		this.sectionEnd = sectionEnd;
+		this.childIndent = childIndent;
+		this.entries = entries;
+	}
+
+	/**
+	 * Index entries of section
+	 *
+	 * @param source UTF-8 encoded YAML document
+	 * @param section Top-level key of section to index
+	 * @return Index, or null if section is absent or the document can not be indexed safely
+	 */
+	public static LazySectionIndex build(byte[] source, String section) {
+		byte[] sectionKey = (section + ":").getBytes(StandardCharsets.UTF_8);
+		int pos = 0, sectionStart = -1;
+		for (; pos < source.length && sectionStart == -1; pos = nextLine(source, pos)) {
+			int end = lineEnd(source, pos);
+			if (isBlankOrComment(source, pos, end) || source[pos] == ' ') {
+				continue;
+			} else if (source[pos] == '\t' || isDocumentMarker(source, pos, end)) {
+				return null;
+			} else if (startsWith(source, pos, end, sectionKey)) {
+				if (!isBlankOrComment(source, pos + sectionKey.length, end)) { // Inline value, like "users: {}"
+					return null;
+				}
+				sectionStart = pos;
+			}
+		}
+
+		if (sectionStart == -1) {
+			return null;
+		}
+
+		Map<String, int[]> entries = new LinkedHashMap<>();
+		int childIndent = -1, sectionEnd = source.length;
+		int[] current = null;
+		for (; pos < source.length; pos = nextLine(source, pos)) {
+			int end = lineEnd(source, pos);
+			if (isBlankOrComment(source, pos, end)) {
+				continue;
+			}
+
+			int indent = 0;
+			while (pos + indent < end && source[pos + indent] == ' ') {
+				indent++;
+			}
+
+			if (source[pos + indent] == '\t') {
+				return null;
+			} else if (indent == 0) {
+				if (isDocumentMarker(source, pos, end)) {
+					return null;
+				}
+				sectionEnd = pos;
+				break;
+			}
+
+			if (childIndent == -1) {
+				childIndent = indent;
+			}
+
+			if (indent < childIndent) {
+				return null;
+			} else if (indent == childIndent) {
+				String key = parseKey(source, pos + indent, end);
+				if (key == null || entries.containsKey(key.toLowerCase())) {
+					return null;
+				}
+				if (current != null) {
+					current[1] = pos;
+				}
+				current = new int[]{pos, source.length};
+				entries.put(key.toLowerCase(), current);
+			}
+		}
+
+		if (current != null) {
+			current[1] = sectionEnd;
+		}
+		return new LazySectionIndex(section, source, sectionStart, sectionEnd, childIndent, entries);
+	}
+
+	private static int lineEnd(byte[] source, int pos) {
+		while (pos < source.length && source[pos] != '\n') {
+			pos++;
+		}
+		return pos > 0 && pos <= source.length && source[pos - 1] == '\r' ? pos - 1 : pos;
+	}
+
+	private static int nextLine(byte[] source, int pos) {
+		while (pos < source.length && source[pos] != '\n') {
+			pos++;
+		}
+		return pos + 1;
+	}
+
+	private static boolean isBlankOrComment(byte[] source, int pos, int end) {
+		while (pos < end && source[pos] == ' ') {
+			pos++;
+		}
+		return pos >= end || source[pos] == '#';
+	}
+
+	private static boolean isDocumentMarker(byte[] source, int pos, int end) {
+		return end - pos >= 3 && ((source[pos] == '-' && source[pos + 1] == '-' && source[pos + 2] == '-')
+				|| (source[pos] == '.' && source[pos + 1] == '.' && source[pos + 2] == '.'));
+	}
+
+	private static boolean startsWith(byte[] source, int pos, int end, byte[] prefix) {
+		if (end - pos < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (source[pos + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse mapping key at the start of line
+	 *
+	 * @return Key, or null if the line is not a simple key
+	 */
+	private static String parseKey(byte[] source, int pos, int end) {
+		byte first = source[pos];
+		int keyStart = pos, keyEnd;
+		if (first == '\'' || first == '"') {
+			keyStart = ++pos;
+			while (pos < end && source[pos] != first) {
+				if (source[pos] == '\\') { // Escape sequences are not supported
+					return null;
+				}
+				pos++;
+			}
+			keyEnd = pos++;
+			if (pos < end && source[pos] == first) { // Escaped quote
+				return null;
+			}
+		} else if ("-?&*!{[|>%@`,#".indexOf(first) != -1) {
+			return null;
+		} else {
+			while (pos < end && !(source[pos] == ':' && (pos + 1 == end || source[pos + 1] == ' '))) {
+				pos++;
+			}
+			keyEnd = pos;
+			while (keyEnd > keyStart && source[keyEnd - 1] == ' ') {
+				keyEnd--;
+			}
+		}
+
+		if (pos >= end || source[pos] != ':' || keyEnd <= keyStart) {
+			return null;
+		}
+		return new String(source, keyStart, keyEnd - keyStart, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return Document without the indexed section
+	 */
+	public String getRemainder() {
+		return new String(source, 0, sectionStart, StandardCharsets.UTF_8) + new String(source, sectionEnd, source.length - sectionEnd, StandardCharsets.UTF_8);
+	}
+
+	public String getSection() {
+		return section;
+	}
+
+	/**
+	 * @return Lower-cased keys of entries not materialized yet
+	 */
+	public Set<String> getKeys() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	public boolean contains(String key) {
+		return entries.containsKey(key);
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	/**
+	 * Parse entry without removing it from the index
+	 *
+	 * @param key Lower-cased key
+	 * @return Parsed value of entry, null if there is no such entry
+	 */
+	public Object parse(String key) {
+		int[] range = entries.get(key);
+		if (range == null) {
+			return null;
+		}
+
+		Map<?, ?> parsed = (Map<?, ?>) new Yaml(new SafeConstructor()).load(getText(range, 0));
+		return parsed == null || parsed.isEmpty() ? null : parsed.values().iterator().next();
+	}
+
+	/**
+	 * Parse entry and remove it from the index, it is the caller's responsibility to store it
+	 *
+	 * @param key Lower-cased key
+	 * @return Parsed value of entry, null if there is no such entry
+	 */
+	public Object take(String key) {
+		Object ret = parse(key);
+		entries.remove(key);
+		return ret;
+	}
+
+	/**
+	 * Add entries not materialized yet to a dump of the rest of the configuration
+	 *
+	 * @param dump Serialized configuration
+	 * @param indent Indentation used by dump
+	 * @return Serialized configuration including all entries of indexed section
+	 */
+	public String merge(String dump, int indent) {
+		StringBuilder unmaterialized = new StringBuilder();
+		for (int[] range : entries.values()) {
+			unmaterialized.append(getText(range, indent));
+		}
+
+		String header = section + ":";
+		int pos = 0;
+		while (pos < dump.length()) {
+			int end = dump.indexOf('\n', pos);
+			if (end == -1) {
+				end = dump.length();
+			}
+
+			String line = dump.substring(pos, end);
+			if (line.equals(header) || line.equals(header + " {}")) {
+				StringBuilder ret = new StringBuilder(dump.length() + unmaterialized.length());
+				ret.append(dump, 0, pos).append(header).append('\n').append(unmaterialized);
+				if (end < dump.length()) {
+					ret.append(dump, end + 1, dump.length());
+				}
+				return ret.toString();
+			}
+			pos = end + 1;
+		}
+
+		StringBuilder ret = new StringBuilder(dump);
+		if (ret.length() > 0 && ret.charAt(ret.length() - 1) != '\n') {
+			ret.append('\n');
+		}
+		return ret.append(header).append('\n').append(unmaterialized).toString();
+	}
+
+	/**
+	 * @return Source of entry with its indentation changed to indent
+	 */
+	private String getText(int[] range, int indent) {
+		StringBuilder ret = new StringBuilder(range[1] - range[0]);
+		for (int pos = range[0]; pos < range[1]; pos = nextLine(source, pos)) {
+			int end = Math.min(lineEnd(source, pos), range[1]);
+			int strip = 0;
+			while (strip < childIndent && pos + strip < end && source[pos + strip] == ' ') {
+				strip++;
+			}
+
+			if (pos + strip < end) {
+				for (int i = 0; i < indent; i++) {
+					ret.append(' ');
+				}
+				ret.append(new String(source, pos + strip, end - pos - strip, StandardCharsets.UTF_8));
+			}
+			ret.append('\n');
+		}
+		return ret.toString();
+	}
+}
@@ -0,0 +1,576 @@
+package ru.tehkode.permissions.backends.file;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bukkit.configuration.ConfigurationSection;
+import ru.tehkode.permissions.PermissionManager;
+import ru.tehkode.permissions.PermissionsGroupData;
+import ru.tehkode.permissions.PermissionsUserData;
+import ru.tehkode.permissions.backends.PermissionBackend;
+import ru.tehkode.permissions.backends.WriteBehindQueue;
+import ru.tehkode.permissions.backends.caching.CachingGroupData;
+import ru.tehkode.permissions.backends.caching.CachingUserData;
+import ru.tehkode.permissions.exceptions.PermissionBackendException;
+import ru.tehkode.utils.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * File backend storing every user and group in its own file, so a change only rewrites the changed entity.
+ *
+ * Layout of the backend directory:
+ * <pre>
+ * global.yml                  world inheritance and schema version
+ * users/&lt;shard&gt;/&lt;name&gt;.yml   one user, same structure as the user's section in permissions.yml
+ * groups/&lt;shard&gt;/&lt;name&gt;.yml  one group
+ * </pre>
+ * Shards are two hex digits derived from the lower-cased name, keeping directories small with many users.
+ * Loaded files are kept while in use and only re-read on reload if they changed on disk.
+ */
+public class ShardedFileBackend extends PermissionBackend {
+	private static final String USERS = "users", GROUPS = "groups", EXTENSION = ".yml";
+	private final File directory;
+	private final Object lock = new Object();
+	private FileConfig global;
+	private final Map<String, List<String>> worldInheritanceCache = new ConcurrentHashMap<>();
+	private final Cache<File, EntityConfig> configs = CacheBuilder.newBuilder().weakValues().build();
+	private final Set<EntityConfig> dirty = new LinkedHashSet<>();
+	private boolean batching, persistent = true;
+
+	public ShardedFileBackend(PermissionManager manager, ConfigurationSection config) throws PermissionBackendException {
+		super(manager, config);
+		String directoryName = getConfig().getString("directory");
+		if (directoryName == null) {
+			directoryName = "permissions";
+			getConfig().set("directory", directoryName);
+		}
+
+		String baseDir = manager.getConfiguration().getBasedir();
+		if (baseDir.contains("\\") && !"\\".equals(File.separator)) {
+			baseDir = baseDir.replace("\\", File.separator);
+		}
+
+		this.directory = new File(baseDir, directoryName);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new PermissionBackendException("Unable to create permissions directory " + this.directory);
+		}
+
+		reload();
+		performSchemaUpdate();
+	}
+
+	@Override
+	public int getSchemaVersion() {
+		synchronized (lock) {
+			return this.global.getInt("schema-version", -1);
+		}
+	}
+
+	@Override
+	protected void setSchemaVersion(int version) {
+		synchronized (lock) {
+			this.global.set("schema-version", version);
+			saveGlobal();
+		}
+	}
+
+	@Override
+	public void reload() throws PermissionBackendException {
+		FileConfig newGlobal = new FileConfig(new File(directory, "global.yml"));
+		try {
+			if (newGlobal.getFile().exists()) {
+				newGlobal.load();
+			} else {
+				newGlobal.set("schema-version", getLatestSchemaVersion());
+			}
+		} catch (Throwable e) {
+			throw new PermissionBackendException("Error loading global permissions file!", e);
+		}
+
+		synchronized (lock) {
+			this.global = newGlobal;
+			worldInheritanceCache.clear();
+		}
+
+		if (!newGlobal.getFile().exists()) {
+			initNewConfiguration();
+		}
+
+		// Only entities changed on disk are read again
+		for (EntityConfig config : new ArrayList<>(configs.asMap().values())) {
+			if (config.isModifiedOnDisk()) {
+				configs.invalidate(config.getFile());
+			}
+		}
+	}
+
+	private void initNewConfiguration() {
+		saveGlobal();
+		PermissionsGroupData defGroup = getGroupData("default");
+		defGroup.setPermissions(Collections.singletonList("modifyworld.*"), null);
+		defGroup.setOption("default", "true", null);
+		defGroup.save();
+	}
+
+	// -- Files
+
+	/**
+	 * Escape entity name so it can be used as file name on any file system
+	 *
+	 * @param name Lower-cased name
+	 * @return File name without extension
+	 */
+	static String escapeName(String name) {
+		StringBuilder ret = new StringBuilder(name.length());
+		try {
+			for (byte b : name.getBytes("UTF-8")) {
+				char c = (char) (b & 0xFF);
+				if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || (c == '.' && ret.length() > 0)) {
+					ret.append(c);
+				} else {
+					ret.append('%').append(String.format("%02x", b & 0xFF));
+				}
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		return ret.toString();
+	}
+
+	static String unescapeName(String fileName) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(fileName.length());
+		for (int i = 0; i < fileName.length(); ++i) {
+			char c = fileName.charAt(i);
+			if (c == '%' && i + 2 < fileName.length()) {
+				bytes.write(Integer.parseInt(fileName.substring(i + 1, i + 3), 16));
+				i += 2;
+			} else {
+				bytes.write(c);
+			}
+		}
+		try {
+			return bytes.toString("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	File getEntityFile(String type, String name) {
+		String lowerName = name.toLowerCase();
+		String shard = String.format("%02x", lowerName.hashCode() & 0xFF);
+		return new File(new File(new File(directory, type), shard), escapeName(lowerName) + EXTENSION);
+	}
+
+	private EntityConfig getEntityConfig(String type, String name) {
+		File file = getEntityFile(type, name);
+		synchronized (configs) {
+			EntityConfig config = configs.getIfPresent(file);
+			if (config == null) {
+				config = new EntityConfig(file);
+				if (file.exists()) {
+					try {
+						config.load();
+					} catch (Exception e) {
+						throw new RuntimeException("Error loading permissions file " + file, e);
+					}
+				}
+				config.updateModified();
+				configs.put(file, config);
+			}
+			return config;
+		}
+	}
+
+	private List<File> listEntityFiles(String type) {
+		List<File> ret = new ArrayList<>();
+		File[] shards = new File(directory, type).listFiles();
+		if (shards == null) {
+			return ret;
+		}
+
+		for (File shard : shards) {
+			File[] files = shard.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				if (file.getName().endsWith(EXTENSION)) {
+					ret.add(file);
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static String getFileEntityName(File file) {
+		String name = file.getName();
+		return unescapeName(name.substring(0, name.length() - EXTENSION.length()));
+	}
+
+	private void saveGlobal() {
+		try {
+			this.global.save();
+		} catch (IOException e) {
+			getManager().getLogger().severe("Error while saving global permissions file: " + e.getMessage());
+		}
+	}
+
+	// -- Entities
+
+	@Override
+	public PermissionsUserData getUserData(String userName) {
+		EntityConfig config = getEntityConfig(USERS, userName);
+		synchronized (config.lock) {
+			final CachingUserData data = new CachingUserData(new EntityData(USERS, userName, config, "group"), getExecutor(), config.lock);
+			data.load();
+			return data;
+		}
+	}
+
+	@Override
+	public PermissionsGroupData getGroupData(String groupName) {
+		EntityConfig config = getEntityConfig(GROUPS, groupName);
+		synchronized (config.lock) {
+			final CachingGroupData data = new CachingGroupData(new EntityData(GROUPS, groupName, config, "inheritance"), getExecutor(), config.lock);
+			data.load();
+			return data;
+		}
+	}
+
+	@Override
+	public boolean hasUser(String userName) {
+		return getEntityFile(USERS, userName).isFile();
+	}
+
+	@Override
+	public boolean hasGroup(String group) {
+		return getEntityFile(GROUPS, group).isFile();
+	}
+
+	@Override
+	public Collection<String> getUserIdentifiers() {
+		Set<String> ret = new HashSet<>();
+		for (File file : listEntityFiles(USERS)) {
+			ret.add(getFileEntityName(file));
+		}
+		return Collections.unmodifiableSet(ret);
+	}
+
+	/**
+	 * Users are paged shard by shard in file name order, so only one shard directory is listed at a time
+	 */
+	@Override
+	public List<String> getUserIdentifiers(String afterKey, int pageSize) {
+		List<String> ret = new ArrayList<>(pageSize);
+		File afterFile = afterKey == null ? null : getEntityFile(USERS, afterKey);
+		int firstShard = afterFile == null ? 0 : Integer.parseInt(afterFile.getParentFile().getName(), 16);
+		for (int shard = firstShard; shard <= 0xFF && ret.size() < pageSize; shard++) {
+			String[] files = new File(new File(directory, USERS), String.format("%02x", shard)).list();
+			if (files == null) {
+				continue;
+			}
+
+			Arrays.sort(files);
+			for (String file : files) {
+				if (ret.size() >= pageSize) {
+					break;
+				}
+				if (file.endsWith(EXTENSION) && (afterFile == null || shard != firstShard || file.compareTo(afterFile.getName()) > 0)) {
+					ret.add(getFileEntityName(new File(file)));
+				}
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public Collection<String> getUserNames() {
+		Set<String> ret = new HashSet<>();
+		for (File file : listEntityFiles(USERS)) {
+			EntityConfig config = getEntityConfig(USERS, getFileEntityName(file));
+			synchronized (config.lock) {
+				for (String name : config.getEntityNames()) {
+					String userName = config.getString(FileBackend.buildPath(USERS, name, "options", "name"));
+					if (userName != null) {
+						ret.add(userName);
+					}
+				}
+			}
+		}
+		return Collections.unmodifiableSet(ret);
+	}
+
+	@Override
+	public Collection<String> getGroupNames() {
+		Set<String> ret = new HashSet<>();
+		for (File file : listEntityFiles(GROUPS)) {
+			EntityConfig config = getEntityConfig(GROUPS, getFileEntityName(file));
+			synchronized (config.lock) {
+				ret.addAll(config.getEntityNames()); // Files are lower-cased, names inside are not
+			}
+		}
+		return Collections.unmodifiableSet(ret);
+	}
+
+	// -- World inheritance
+
+	@Override
+	public List<String> getWorldInheritance(String world) {
+		if (world != null && !world.isEmpty()) {
+			List<String> parentWorlds = worldInheritanceCache.get(world);
+			if (parentWorlds == null) {
+				synchronized (lock) {
+					parentWorlds = this.global.getStringList(FileBackend.buildPath("worlds", world, "inheritance"));
+					if (parentWorlds != null) {
+						parentWorlds = Collections.unmodifiableList(parentWorlds);
+						worldInheritanceCache.put(world, parentWorlds);
+						return parentWorlds;
+					}
+				}
+			} else {
+				return parentWorlds;
+			}
+		}
+
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Map<String, List<String>> getAllWorldInheritance() {
+		synchronized (lock) {
+			ConfigurationSection worldsSection = this.global.getConfigurationSection("worlds");
+			if (worldsSection == null) {
+				return Collections.emptyMap();
+			}
+
+			Map<String, List<String>> ret = new HashMap<>();
+			for (String world : worldsSection.getKeys(false)) {
+				ret.put(world, getWorldInheritance(world));
+			}
+			return Collections.unmodifiableMap(ret);
+		}
+	}
+
+	@Override
+	public void setWorldInheritance(final String world, List<String> rawParentWorlds) {
+		if (world == null || world.isEmpty()) {
+			return;
+		}
+		final List<String> parentWorlds = new ArrayList<>(rawParentWorlds);
+		worldInheritanceCache.put(world, parentWorlds);
+
+		getExecutor().execute(WriteBehindQueue.keyed(Arrays.asList("worldInheritance", world), new Runnable() {
+			@Override
+			public void run() {
+				synchronized (lock) {
+					global.set(FileBackend.buildPath("worlds", world, "inheritance"), parentWorlds);
+					saveGlobal();
+				}
+			}
+		}));
+	}
+
+	// -- Batching
+
+	private boolean deferSave(EntityConfig config) {
+		synchronized (dirty) {
+			if (batching || !persistent) {
+				dirty.add(config);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private void saveDirty() {
+		List<EntityConfig> toSave;
+		synchronized (dirty) {
+			toSave = new ArrayList<>(dirty);
+			dirty.clear();
+		}
+
+		for (EntityConfig config : toSave) {
+			synchronized (config.lock) {
+				config.write();
+			}
+		}
+	}
+
+	/**
+	 * Entity files changed in a batch are written once when it ends
+	 */
+	@Override
+	protected void beginBatch() {
+		synchronized (dirty) {
+			batching = true;
+		}
+	}
+
+	@Override
+	protected void endBatch() {
+		synchronized (dirty) {
+			batching = false;
+		}
+		saveDirty();
+	}
+
+	@Override
+	public void setPersistent(boolean persistent) {
+		super.setPersistent(persistent);
+		synchronized (dirty) {
+			this.persistent = persistent;
+		}
+		if (persistent) {
+			saveDirty();
+		}
+	}
+
+	@Override
+	protected void persistImported() {
+		saveDirty();
+	}
+
+	@Override
+	public void loadFrom(PermissionBackend backend, File checkpointFile) {
+		this.setPersistent(false);
+		try {
+			super.loadFrom(backend, checkpointFile);
+		} finally {
+			this.setPersistent(true);
+		}
+	}
+
+	@Override
+	public void writeContents(Writer writer) throws IOException {
+		synchronized (lock) {
+			writer.write(this.global.saveToString());
+		}
+
+		for (String type : new String[]{USERS, GROUPS}) {
+			for (File file : listEntityFiles(type)) {
+				writer.write("\n# " + type + "/" + file.getParentFile().getName() + "/" + file.getName() + "\n");
+				try (InputStream is = new FileInputStream(file)) {
+					writer.write(StringUtils.readStream(is));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Data of one entity stored in its own file
+	 */
+	private class EntityData extends FileData {
+		private final String type;
+
+		EntityData(String type, String name, EntityConfig config, String parentPath) {
+			super(type, name, config, parentPath);
+			this.type = type;
+		}
+
+		@Override
+		public boolean setIdentifier(String identifier) {
+			File oldFile = this.config.getFile();
+			File newFile = getEntityFile(type, identifier);
+			if (newFile.equals(oldFile)) {
+				return super.setIdentifier(identifier);
+			}
+
+			synchronized (configs) {
+				if (newFile.exists() || configs.getIfPresent(newFile) != null) {
+					return false;
+				}
+
+				this.config.setFile(newFile);
+				if (!super.setIdentifier(identifier)) {
+					this.config.setFile(oldFile);
+					return false;
+				}
+				configs.invalidate(oldFile);
+				configs.put(newFile, (EntityConfig) this.config);
+			}
+
+			if (oldFile.exists() && !oldFile.delete()) {
+				getLogger().warning("Unable to delete " + oldFile + " after renaming " + type + " to " + identifier);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Configuration of a single entity file. Saving is deferred while a batch is written,
+	 * and the file is deleted once it contains no entity anymore.
+	 */
+	private class EntityConfig extends FileConfig {
+		private final Object lock;
+		private final String type;
+		private long loadedModified, loadedLength;
+
+		EntityConfig(File file) {
+			this(file, new Object());
+		}
+
+		private EntityConfig(File file, Object lock) {
+			super(file, lock, USERS);
+			this.lock = lock;
+			this.type = file.getParentFile().getParentFile().getName();
+		}
+
+		Set<String> getEntityNames() {
+			ConfigurationSection section = getConfigurationSection(type);
+			return section == null ? Collections.<String>emptySet() : section.getKeys(false);
+		}
+
+		@Override
+		public void save() throws IOException {
+			if (isSaveSuppressed() || deferSave(this)) {
+				return;
+			}
+			writeFile();
+		}
+
+		void write() {
+			try {
+				writeFile();
+			} catch (IOException e) {
+				getManager().getLogger().severe("Error while saving permissions file " + getFile() + ": " + e.getMessage());
+			}
+		}
+
+		private void writeFile() throws IOException {
+			if (getEntityNames().isEmpty()) {
+				if (getFile().exists() && !getFile().delete()) {
+					throw new IOException("Unable to delete " + getFile());
+				}
+			} else {
+				super.save();
+			}
+			updateModified();
+		}
+
+		void updateModified() {
+			this.loadedModified = getFile().lastModified();
+			this.loadedLength = getFile().length();
+		}
+
+		boolean isModifiedOnDisk() {
+			return getFile().lastModified() != loadedModified || getFile().length() != loadedLength;
+		}
+	}
+}
@@ -94,6 +94,21 @@ public class MemoryBackend extends PermissionBackend {
 		return Collections.emptySet();
 	}
 
+	@Override
+	public Iterable<String> iterateUserIdentifiers(int pageSize) {
+		return getUserIdentifiers();
+	}
+
+	@Override
+	public Iterable<String> iterateUserNames(int pageSize) {
+		return getUserNames();
+	}
+
+	@Override
+	public Iterable<String> iterateGroupNames(int pageSize) {
+		return getGroupNames();
+	}
+
 	@Override
 	public List<String> getWorldInheritance(String world) {
 		return Collections.emptyList();
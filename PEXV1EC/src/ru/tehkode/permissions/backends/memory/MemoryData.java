@@ -78,13 +78,17 @@ public class MemoryData implements PermissionsGroupData, PermissionsUserData {
 	}
 
 	@Override
-	public void setOption(String option, String worldName, String value) {
+	public void setOption(String option, String value, String worldName) {
 		Map<String, String> worldOptions = worldsOptions.get(worldName);
 		if (worldOptions == null) {
 			worldOptions = new HashMap<>();
 			worldsOptions.put(worldName, worldOptions);
 		}
-		worldOptions.put(option, value);
+		if (value == null) {
+			worldOptions.remove(option);
+		} else {
+			worldOptions.put(option, value);
+		}
 	}
 
 	@Override
@@ -0,0 +1,217 @@
+package ru.tehkode.permissions.backends.sql;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Log of changed entities, shared by all servers using the database.
+ *
+ * Every mutation adds a row naming the changed entity, in the same transaction as the change itself.
+ * Each server polls for rows added since the last one it has seen, and only drops the entities
+ * changed by other servers instead of reloading everything.
+ *
+ * Ids are assigned when rows are inserted but become visible in commit order, so a row may show up after rows with higher ids.
+ * Rows above a missing id are remembered until the missing row shows up, or until this server has waited for it
+ * long enough that the transaction holding the missing id must have been rolled back.
+ *
+ * Rows are stamped with the database's clock, estimated from an offset measured on every poll, so retention
+ * does not depend on the clocks of the servers agreeing. Gaps are aged by this server's own clock.
+ */
+public class ChangeFeed implements Runnable {
+	private static final int PAGE_SIZE = 1000;
+	private final SQLBackend backend;
+	private final String serverId = UUID.randomUUID().toString();
+	private final long retention, gapTimeout;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("PEX-change-feed-%d").setDaemon(true).build());
+	// Only accessed from the polling thread
+	private final TreeMap<Long, Long> pending = new TreeMap<>(); // Local time first seen by id
+	private long lastSeen, lastPoll, lastPrune;
+	private volatile long clockOffset; // Database time minus local time
+
+	/**
+	 * @param backend Backend to report changes to
+	 * @param retention Time in milliseconds rows are kept for servers to see them
+	 * @param gapTimeout Time in milliseconds to wait for a missing row before skipping it
+	 */
+	ChangeFeed(SQLBackend backend, long retention, long gapTimeout) {
+		this.backend = backend;
+		this.retention = retention;
+		this.gapTimeout = gapTimeout;
+	}
+
+	/**
+	 * Skip changes made before now and start polling for new ones
+	 *
+	 * @param pollInterval Time in milliseconds between polls
+	 */
+	void start(long pollInterval) throws SQLException, IOException {
+		try (SQLConnection conn = backend.getSQL()) {
+			syncClock(conn);
+			lastSeen = getLatestId(conn);
+		}
+		lastPoll = lastPrune = System.currentTimeMillis();
+		executor.scheduleWithFixedDelay(this, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+	}
+
+	void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Record a change of an entity, in the transaction of the connection
+	 *
+	 * @param conn Connection making the change
+	 * @param type Type of entity
+	 * @param name Name of entity
+	 */
+	void record(SQLConnection conn, SQLData.Type type, String name) throws SQLException {
+		conn.execute("changes.add", name, type.ordinal(), serverId, getDatabaseTime());
+	}
+
+	/**
+	 * @param name Name of entity
+	 * @param type Type of entity
+	 * @return Row recording a change, for inserting several at once
+	 */
+	Object[] toRow(String name, SQLData.Type type) {
+		return new Object[]{name, type.ordinal(), serverId, getDatabaseTime()};
+	}
+
+	/**
+	 * @return Estimated current time of the database, in milliseconds
+	 */
+	private long getDatabaseTime() {
+		return System.currentTimeMillis() + clockOffset;
+	}
+
+	/**
+	 * Measure the offset of the database's clock from the local one
+	 */
+	private void syncClock(SQLConnection conn) throws SQLException {
+		try (PreparedStatement statement = conn.prepAndBind("changes.now")) {
+			long before = System.currentTimeMillis();
+			try (ResultSet res = statement.executeQuery()) {
+				long after = System.currentTimeMillis();
+				if (res.next()) {
+					clockOffset = res.getLong(1) - (before + after) / 2;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			poll();
+		} catch (SQLException | IOException | RuntimeException e) {
+			backend.getLogger().log(Level.WARNING, "Unable to check database for changes made by other servers", e);
+		}
+	}
+
+	private void poll() throws SQLException, IOException {
+		long now = System.currentTimeMillis();
+		Set<Map.Entry<SQLData.Type, String>> changes = new LinkedHashSet<>();
+		boolean missed = now - lastPoll > retention; // Rows may have been pruned before this server saw them
+
+		try (SQLConnection conn = backend.getSQL()) {
+			syncClock(conn);
+			if (missed) {
+				pending.clear();
+				lastSeen = getLatestId(conn);
+			} else {
+				fetch(conn, changes, now);
+				skipGaps(now);
+			}
+
+			if (now - lastPrune > retention / 4) {
+				prune(conn);
+				lastPrune = now;
+			}
+		}
+		lastPoll = now;
+
+		if (missed) {
+			backend.getLogger().warning("Changes made by other servers may have been missed, reloading all permissions data");
+			backend.onChangesMissed();
+			return;
+		}
+
+		for (Map.Entry<SQLData.Type, String> change : changes) {
+			try {
+				backend.onRemoteChange(change.getKey(), change.getValue());
+			} catch (RuntimeException e) {
+				backend.getLogger().log(Level.WARNING, "Unable to reload " + change.getKey().name().toLowerCase() + " " + change.getValue(), e);
+			}
+		}
+	}
+
+	private void fetch(SQLConnection conn, Set<Map.Entry<SQLData.Type, String>> changes, long now) throws SQLException {
+		SQLData.Type[] types = SQLData.Type.values();
+		long after = lastSeen;
+		int count;
+		do {
+			count = 0;
+			try (PreparedStatement statement = conn.prepAndBind("changes.since", after, PAGE_SIZE); ResultSet res = statement.executeQuery()) {
+				while (res.next()) {
+					count++;
+					after = res.getLong("id");
+					if (pending.putIfAbsent(after, now) != null || serverId.equals(res.getString("server"))) {
+						continue;
+					}
+
+					int type = res.getInt("type");
+					if (type >= 0 && type < types.length) {
+						changes.add(new AbstractMap.SimpleImmutableEntry<>(types[type], res.getString("name")));
+					}
+				}
+			}
+		} while (count == PAGE_SIZE);
+	}
+
+	/**
+	 * Advance past contiguous rows seen, skipping missing ids followed by rows seen longer than the gap timeout ago
+	 */
+	private void skipGaps(long now) {
+		while (!pending.isEmpty()) {
+			Map.Entry<Long, Long> first = pending.firstEntry();
+			if (first.getKey() != lastSeen + 1 && now - first.getValue() < gapTimeout) {
+				break;
+			}
+			lastSeen = first.getKey();
+			pending.remove(lastSeen);
+		}
+	}
+
+	/**
+	 * Delete rows past retention, by database time. The latest row is always kept, so ids keep increasing on databases
+	 * that reset their counter to the highest id in the table on restart.
+	 */
+	private void prune(SQLConnection conn) throws SQLException {
+		conn.execute("changes.prune", getDatabaseTime() - retention, getLatestId(conn));
+	}
+
+	private static long getLatestId(SQLConnection conn) throws SQLException {
+		try (PreparedStatement statement = conn.prepAndBind("changes.latest"); ResultSet res = statement.executeQuery()) {
+			return res.next() ? res.getLong(1) : 0;
+		}
+	}
+}
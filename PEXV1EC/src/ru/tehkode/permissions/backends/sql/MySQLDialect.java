@@ -0,0 +1,45 @@
+package ru.tehkode.permissions.backends.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * MySQL and MariaDB. Options share the permissions table with permissions in a TEXT column,
+ * so there is no unique key to upsert them against.
+ */
+public class MySQLDialect extends SQLDialect {
+	public MySQLDialect() {
+		super("mysql");
+	}
+
+	@Override
+	public String quoteString(String value) {
+		return super.quoteString(value.replace("\\", "\\\\"));
+	}
+
+	/**
+	 * Convert tables to utf8mb4, so all of unicode can be stored
+	 */
+	@Override
+	public void prepareSchema(SQLConnection conn, Logger logger) {
+		try {
+			conn.execute("ALTER TABLE `{permissions}` CONVERT TO CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci");
+			conn.execute("ALTER TABLE `{permissions_entity}` CONVERT TO CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci");
+			conn.execute("ALTER TABLE `{permissions_inheritance}` CONVERT TO CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci");
+		} catch (SQLException e) {
+			// Ignore, this MySQL version just doesn't support it.
+		}
+	}
+
+	@Override
+	public String getCreateTable(SQLConnection conn, String table) throws SQLException {
+		try (PreparedStatement statement = conn.prep("SHOW CREATE TABLE `" + table + "`"); ResultSet res = statement.executeQuery()) {
+			if (!res.next()) {
+				throw new SQLException("No value for table create for table " + table);
+			}
+			return res.getString(2);
+		}
+	}
+}
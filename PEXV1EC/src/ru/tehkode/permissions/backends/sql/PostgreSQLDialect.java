@@ -0,0 +1,37 @@
+package ru.tehkode.permissions.backends.sql;
+
+/**
+ * PostgreSQL 9.5 or later. Identifiers are quoted with double quotes,
+ * options are upserted against the partial unique index created by the deploy script.
+ */
+public class PostgreSQLDialect extends SQLDialect {
+	public PostgreSQLDialect() {
+		super("postgresql");
+	}
+
+	/**
+	 * Quote identifiers with double quotes. Backticks inside string literals are kept.
+	 */
+	@Override
+	public String translate(String query) {
+		if (query.indexOf('`') == -1) {
+			return query;
+		}
+
+		StringBuilder ret = new StringBuilder(query.length());
+		boolean literal = false;
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (c == '\'') {
+				literal = !literal; // An escaped quote ('') leaves and enters the literal again
+			}
+			ret.append(c == '`' && !literal ? '"' : c);
+		}
+		return ret.toString();
+	}
+
+	@Override
+	public boolean supportsOptionUpsert() {
+		return true;
+	}
+}
@@ -25,8 +25,10 @@ import ru.tehkode.permissions.PermissionManager;
 import ru.tehkode.permissions.PermissionsData;
 import ru.tehkode.permissions.PermissionsGroupData;
 import ru.tehkode.permissions.PermissionsUserData;
+import ru.tehkode.permissions.backends.NameUUIDCache;
 import ru.tehkode.permissions.backends.PermissionBackend;
 import ru.tehkode.permissions.backends.SchemaUpdate;
+import ru.tehkode.permissions.backends.TransferBatch;
 import ru.tehkode.permissions.backends.caching.CachingGroupData;
 import ru.tehkode.permissions.backends.caching.CachingUserData;
 import ru.tehkode.permissions.exceptions.PermissionBackendException;
@@ -39,23 +41,36 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 
 /**
  * @author code
  */
 public class SQLBackend extends PermissionBackend {
-	protected Map<String, List<String>> worldInheritanceCache = new HashMap<>();
+	protected Map<String, List<String>> worldInheritanceCache = new ConcurrentHashMap<>();
+	private static final int MAX_POOLED_STATEMENTS = 100; // per connection
+	private static final long VALIDATION_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+	private static final long CHANGE_GAP_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+	private final ThreadLocal<UnitOfWork> unitOfWork = new ThreadLocal<>(), batchWork = new ThreadLocal<>();
 	private final AtomicReference<ImmutableSet<String>> userNamesCache = new AtomicReference<>(), groupNamesCache = new AtomicReference<>();
+	private final ConcurrentMap<String, SQLData.Snapshot> preloaded = new ConcurrentHashMap<>();
 	private Map<String, Object> tableNames;
+	private final ConcurrentMap<String, String> expandedQueries = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Integer> parameterCounts = new ConcurrentHashMap<>();
 	private SQLQueryCache queryCache;
 	private static final SQLQueryCache DEFAULT_QUERY_CACHE;
 
@@ -69,6 +84,8 @@ public class SQLBackend extends PermissionBackend {
 
 	private BasicDataSource ds;
 	protected final String dbDriver;
+	private final SQLDialect dialect;
+	private final ChangeFeed changeFeed;
 
 	public SQLBackend(PermissionManager manager, final ConfigurationSection config) throws PermissionBackendException {
 		super(manager, config);
@@ -84,6 +101,7 @@ public class SQLBackend extends PermissionBackend {
 			throw new PermissionBackendException("SQL connection is not configured, see config.yml");
 		}
 		dbDriver = dbUri.split(":", 2)[0];
+		dialect = SQLDialect.forDriver(dbDriver);
 
 		this.ds = new BasicDataSource();
 		String driverClass = getDriverClass(dbDriver);
@@ -96,10 +114,18 @@ public class SQLBackend extends PermissionBackend {
 		// https://github.com/brettwooldridge/HikariCP/wiki/About-Pool-Sizing
 		this.ds.setMaxActive((Runtime.getRuntime().availableProcessors() * 2) + 1);
 		this.ds.setMaxWait(200); // 4 ticks
+		this.ds.setLockFreePool(getConfig().getBoolean("lock-free-pool", true));
+		this.ds.setPoolPreparedStatements(true);
+		this.ds.setMaxOpenPreparedStatements(MAX_POOLED_STATEMENTS);
+		// Validate idle connections in the background instead of on every borrow
 		this.ds.setValidationQuery("SELECT 1 AS dbcp_validate");
-		this.ds.setTestOnBorrow(true);
+		this.ds.setValidationQueryTimeout(3);
+		this.ds.setTestOnBorrow(false);
+		this.ds.setTestWhileIdle(true);
+		this.ds.setTimeBetweenEvictionRunsMillis(VALIDATION_INTERVAL);
+		this.ds.setNumTestsPerEvictionRun(this.ds.getMaxActive());
 
-		InputStream queryLocation = getClass().getResourceAsStream("/sql/" + dbDriver + "/queries.properties");
+		InputStream queryLocation = getClass().getResourceAsStream("/sql/" + dialect.getName() + "/queries.properties");
 		if (queryLocation != null) {
 			try {
 				this.queryCache = new SQLQueryCache(queryLocation, DEFAULT_QUERY_CACHE);
@@ -126,7 +152,7 @@ public class SQLBackend extends PermissionBackend {
 				// Change encoding for all columns to utf8mb4
 				// Change collation for all columns to utf8mb4_general_ci
 				try (SQLConnection conn = getSQL()) {
-					conn.prep("ALTER TABLE `{permissions}` DROP KEY `unique`, MODIFY COLUMN `permission` TEXT NOT NULL").execute();
+					conn.execute("ALTER TABLE `{permissions}` DROP KEY `unique`, MODIFY COLUMN `permission` TEXT NOT NULL");
 				} catch (SQLException | IOException e) {
 					throw new PermissionBackendException(e);
 				}
@@ -135,9 +161,10 @@ public class SQLBackend extends PermissionBackend {
 		addSchemaUpdate(new SchemaUpdate(1) {
 			@Override
 			public void performUpdate() throws PermissionBackendException {
-				try (SQLConnection conn = getSQL()) {
-					PreparedStatement updateStmt = conn.prep("entity.options.add");
-					ResultSet res = conn.prepAndBind("SELECT `name`, `type` FROM `{permissions_entity}` WHERE `default`='1'").executeQuery();
+				try (SQLConnection conn = getSQL();
+						PreparedStatement updateStmt = conn.prep("entity.options.add");
+						PreparedStatement select = conn.prepAndBind("SELECT `name`, `type` FROM `{permissions_entity}` WHERE `default`='1'");
+						ResultSet res = select.executeQuery()) {
 					while (res.next()) {
 							conn.bind(updateStmt, res.getString("name"), res.getInt("type"), "default", "", "true");
 							updateStmt.addBatch();
@@ -145,7 +172,7 @@ public class SQLBackend extends PermissionBackend {
 					updateStmt.executeBatch();
 
 					// Update tables
-					conn.prep("ALTER TABLE `{permissions_entity}` DROP COLUMN `default`").execute();
+					conn.execute("ALTER TABLE `{permissions_entity}` DROP COLUMN `default`");
 				} catch (SQLException | IOException e) {
 					throw new PermissionBackendException(e);
 				}
@@ -154,11 +181,12 @@ public class SQLBackend extends PermissionBackend {
 		addSchemaUpdate(new SchemaUpdate(0) {
 			@Override
 			public void performUpdate() throws PermissionBackendException {
-				try (SQLConnection conn = getSQL()) {
-					// TODO: Table modifications not supported in SQLite
-					// Prefix/sufix -> options
-					PreparedStatement updateStmt = conn.prep("entity.options.add");
-					ResultSet res = conn.prepAndBind("SELECT `name`, `type`, `prefix`, `suffix` FROM `{permissions_entity}` WHERE LENGTH(`prefix`)>0 OR LENGTH(`suffix`)>0").executeQuery();
+				// TODO: Table modifications not supported in SQLite
+				// Prefix/sufix -> options
+				try (SQLConnection conn = getSQL();
+						PreparedStatement updateStmt = conn.prep("entity.options.add");
+						PreparedStatement select = conn.prepAndBind("SELECT `name`, `type`, `prefix`, `suffix` FROM `{permissions_entity}` WHERE LENGTH(`prefix`)>0 OR LENGTH(`suffix`)>0");
+						ResultSet res = select.executeQuery()) {
 					while (res.next()) {
 						String prefix = res.getString("prefix");
 						if (!prefix.isEmpty() && !prefix.equals("null")) {
@@ -176,12 +204,12 @@ public class SQLBackend extends PermissionBackend {
 					// Data type corrections
 
 					// Update tables
-					conn.prep("ALTER TABLE `{permissions_entity}` DROP KEY `name`").execute();
-					conn.prep("ALTER TABLE `{permissions_entity}` DROP COLUMN `prefix`, DROP COLUMN `suffix`").execute();
-					conn.prep("ALTER TABLE `{permissions_entity}` ADD CONSTRAINT UNIQUE KEY `name` (`name`, `type`)").execute();
+					conn.execute("ALTER TABLE `{permissions_entity}` DROP KEY `name`");
+					conn.execute("ALTER TABLE `{permissions_entity}` DROP COLUMN `prefix`, DROP COLUMN `suffix`");
+					conn.execute("ALTER TABLE `{permissions_entity}` ADD CONSTRAINT UNIQUE KEY `name` (`name`, `type`)");
 
-					conn.prep("ALTER TABLE `{permissions}` DROP KEY `unique`").execute();
-					conn.prep("ALTER TABLE `{permissions}` ADD CONSTRAINT UNIQUE `unique` (`name`,`permission`,`world`,`type`)").execute();
+					conn.execute("ALTER TABLE `{permissions}` DROP KEY `unique`");
+					conn.execute("ALTER TABLE `{permissions}` ADD CONSTRAINT UNIQUE `unique` (`name`,`permission`,`world`,`type`)");
 				} catch (SQLException | IOException e) {
 					throw new PermissionBackendException(e);
 				}
@@ -192,18 +220,96 @@ public class SQLBackend extends PermissionBackend {
 		performSchemaUpdate();
 
 		try (SQLConnection conn = getSQL()) {
-			conn.prep("ALTER TABLE `{permissions}` CONVERT TO CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci").execute();
-			conn.prep("ALTER TABLE `{permissions_entity}` CONVERT TO CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci").execute();
-			conn.prep("ALTER TABLE `{permissions_inheritance}` CONVERT TO CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci").execute();
+			dialect.prepareSchema(conn, getLogger());
 		} catch (SQLException | IOException e) {
-			// Ignore, this MySQL version just doesn't support it.
+			throw new PermissionBackendException("Unable to prepare database schema", e);
+		}
+
+		this.changeFeed = getConfig().getBoolean("change-feed", true) ? startChangeFeed() : null;
+	}
+
+	/**
+	 * Create the change log table if needed and start polling it for changes made by other servers
+	 *
+	 * @return The change feed, or null if there is no change log table for this database
+	 */
+	private ChangeFeed startChangeFeed() throws PermissionBackendException {
+		long retention = TimeUnit.SECONDS.toMillis(Math.max(getConfig().getInt("change-retention", 600), 120));
+		ChangeFeed feed = new ChangeFeed(this, retention, CHANGE_GAP_TIMEOUT);
+		try (SQLConnection conn = getSQL()) {
+			if (!conn.hasTable("{permissions_changes}")) {
+				InputStream changesStream = getClass().getResourceAsStream("/sql/" + dialect.getName() + "/changes.sql");
+				if (changesStream == null) {
+					getLogger().warning("No change log available for database (" + dbDriver + "), changes made by other servers will not be seen");
+					return null;
+				}
+				executeStream(conn, changesStream);
+			}
+			feed.start(Math.max(getConfig().getInt("change-poll-interval", 1000), 50));
+		} catch (SQLException | IOException e) {
+			throw new PermissionBackendException("Unable to set up change log", e);
+		}
+		return feed;
+	}
+
+	/**
+	 * Record a change of an entity in the change log, as part of the current transaction of the connection
+	 *
+	 * @param conn Connection making the change
+	 * @param type Type of entity
+	 * @param name Name of entity
+	 */
+	void recordChange(SQLConnection conn, SQLData.Type type, String name) throws SQLException {
+		if (changeFeed != null) {
+			changeFeed.record(conn, type, name);
+		}
+	}
+
+	/**
+	 * Drop data of an entity changed by another server, it is loaded again when next needed
+	 *
+	 * @param type Type of entity
+	 * @param name Name of entity
+	 */
+	void onRemoteChange(SQLData.Type type, String name) {
+		preloaded.remove(getPreloadKey(type, name));
+		switch (type) {
+			case USER:
+				userNamesCache.set(null);
+				getManager().invalidateUser(name);
+				break;
+			case GROUP:
+				groupNamesCache.set(null);
+				getManager().invalidateGroup(name);
+				break;
+			case WORLD:
+				worldInheritanceCache.remove(name);
+				getManager().invalidateWorldInheritance();
+				break;
+		}
+	}
+
+	/**
+	 * Called when this server fell too far behind the change log, everything has to be reloaded
+	 */
+	void onChangesMissed() {
+		try {
+			getManager().reset();
+		} catch (PermissionBackendException e) {
+			getLogger().log(Level.SEVERE, "Unable to reload permissions data", e);
 		}
 	}
 
+	@Override
+	public boolean isTrackingRemoteChanges() {
+		return changeFeed != null;
+	}
+
 	@Override
 	public int getSchemaVersion() {
-		try (SQLConnection conn = getSQL()) {
-			ResultSet res = conn.prepAndBind("entity.options.get", "system", SQLData.Type.WORLD.ordinal(), "schema_version", "").executeQuery();
+		try (SQLConnection conn = getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.options.get", "system", SQLData.Type.WORLD.ordinal(), "schema_version", "");
+				ResultSet res = statement.executeQuery()) {
 			if (!res.next()) {
 				return -1;
 			}
@@ -216,13 +322,31 @@ public class SQLBackend extends PermissionBackend {
 	@Override
 	protected void setSchemaVersion(int version) {
 		try (SQLConnection conn = getSQL()) {
-			conn.prepAndBind("entity.options.delete", "system", "schema_version", SQLData.Type.WORLD.ordinal(), "").execute();
-			conn.prepAndBind("entity.options.add", "system", SQLData.Type.WORLD.ordinal(), "schema_version", "", version).execute();
+			conn.execute("entity.options.delete", "system", "schema_version", SQLData.Type.WORLD.ordinal(), "");
+			conn.execute("entity.options.add", "system", SQLData.Type.WORLD.ordinal(), "schema_version", "", version);
 		} catch (SQLException | IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * @return Queries with expanded table names by query key
+	 */
+	ConcurrentMap<String, String> getExpandedQueries() {
+		return expandedQueries;
+	}
+
+	/**
+	 * @return Number of parameters by expanded query
+	 */
+	ConcurrentMap<String, Integer> getParameterCounts() {
+		return parameterCounts;
+	}
+
+	SQLDialect getDialect() {
+		return dialect;
+	}
+
 	SQLQueryCache getQueryCache() {
 		return queryCache;
 	}
@@ -232,19 +356,100 @@ public class SQLBackend extends PermissionBackend {
 			return "com.mysql.jdbc.Driver";
 		} else if (alias.equals("sqlite")) {
 			return "org.sqlite.JDBC";
-		} else if (alias.matches("postgres?")) {
+		} else if (alias.matches("postgres(ql)?")) {
 			return "org.postgresql.Driver";
 		}
 		return null;
 	}
 
+	/**
+	 * @return Connection of the unit of work open on this thread, or a new connection if there is none
+	 */
 	public SQLConnection getSQL() throws SQLException {
+		UnitOfWork work = this.unitOfWork.get();
+		if (work != null) {
+			return work.getConnection().borrow();
+		}
+
 		if (ds == null) {
 			throw new SQLException("SQL connection information was not correct, could not retrieve connection");
 		}
 		return new SQLConnection(ds.getConnection(), this);
 	}
 
+	/**
+	 * Open a unit of work on this thread, see {@link UnitOfWork}. Units opened inside another one are nested in it.
+	 *
+	 * @return The new unit of work
+	 */
+	public UnitOfWork beginUnitOfWork() throws SQLException {
+		UnitOfWork outer = this.unitOfWork.get();
+		UnitOfWork work;
+		if (outer != null) {
+			work = new UnitOfWork(this, outer.getConnection(), outer);
+		} else {
+			if (ds == null) {
+				throw new SQLException("SQL connection information was not correct, could not retrieve connection");
+			}
+			SQLConnection conn = new SQLConnection(ds.getConnection(), this);
+			try {
+				work = new UnitOfWork(this, conn, null);
+			} catch (SQLException e) {
+				try {
+					conn.close();
+				} catch (IOException ignore) {
+				}
+				throw e;
+			}
+		}
+		this.unitOfWork.set(work);
+		return work;
+	}
+
+	void endUnitOfWork(UnitOfWork work) {
+		if (this.unitOfWork.get() == work) {
+			if (work.getOuter() != null) {
+				this.unitOfWork.set(work.getOuter());
+			} else {
+				this.unitOfWork.remove();
+			}
+		}
+	}
+
+	/**
+	 * Queued writes are executed in one unit of work, committed once at the end of the batch.
+	 * Every mutation runs in a nested unit, so a failing one does not roll back the others.
+	 */
+	@Override
+	protected void beginBatch() {
+		try {
+			this.batchWork.set(beginUnitOfWork());
+		} catch (SQLException e) {
+			getLogger().log(Level.WARNING, "Unable to start transaction for batch, writing without it", e);
+		}
+	}
+
+	@Override
+	protected void endBatch() {
+		UnitOfWork work = this.batchWork.get();
+		if (work == null) {
+			return;
+		}
+		this.batchWork.remove();
+
+		try {
+			work.commit();
+		} catch (SQLException e) {
+			getLogger().log(Level.SEVERE, "Error while committing batch of permissions data", e);
+		} finally {
+			try {
+				work.close();
+			} catch (IOException e) {
+				getLogger().log(Level.SEVERE, "Error while closing batch transaction", e);
+			}
+		}
+	}
+
 	public String getTableName(String identifier) {
 		Map<String, Object> tableNames = this.tableNames;
 		if (tableNames == null) {
@@ -260,18 +465,67 @@ public class SQLBackend extends PermissionBackend {
 
 	@Override
 	public PermissionsUserData getUserData(String name) {
-		CachingUserData data = new CachingUserData(new SQLData(name, SQLData.Type.USER, this), getExecutor(), new Object());
+		CachingUserData data = new CachingUserData(createData(name, SQLData.Type.USER), getExecutor(), new Object());
 		updateNameCache(userNamesCache, data);
 		return data;
 	}
 
 	@Override
 	public PermissionsGroupData getGroupData(String name) {
-		CachingGroupData data = new CachingGroupData(new SQLData(name, SQLData.Type.GROUP, this), getExecutor(), new Object());
+		CachingGroupData data = new CachingGroupData(createData(name, SQLData.Type.GROUP), getExecutor(), new Object());
 		updateNameCache(groupNamesCache, data);
 		return data;
 	}
 
+	/**
+	 * Create data for an entity with all its contents fetched using a single connection,
+	 * or from a prefetched snapshot if there is one.
+	 *
+	 * @param name Name of entity
+	 * @param type Type of entity
+	 * @return Loaded data
+	 */
+	private SQLData createData(String name, SQLData.Type type) {
+		SQLData.Snapshot snapshot = preloaded.isEmpty() ? null : preloaded.get(getPreloadKey(type, name));
+		if (snapshot == null) {
+			try (SQLConnection conn = getSQL()) {
+				snapshot = SQLData.fetchSnapshots(conn, type, Collections.singleton(name)).get(name.toLowerCase());
+			} catch (SQLException | IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return new SQLData(snapshot, type, this);
+	}
+
+	/**
+	 * Fetch data of all given groups using one connection. Snapshots are kept until the group's data is loaded.
+	 */
+	@Override
+	public void prefetchGroups(Collection<String> groupNames) {
+		try (SQLConnection conn = getSQL()) {
+			for (Map.Entry<String, SQLData.Snapshot> entry : SQLData.fetchSnapshots(conn, SQLData.Type.GROUP, groupNames).entrySet()) {
+				preloaded.put(getPreloadKey(SQLData.Type.GROUP, entry.getKey()), entry.getValue());
+			}
+		} catch (SQLException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Remove and return a snapshot fetched by {@link #prefetchGroups(Collection)} that has not been loaded yet
+	 *
+	 * @param type Type of entity
+	 * @param name Name of entity
+	 * @return Snapshot or null if entity was not preloaded
+	 */
+	SQLData.Snapshot takePreloaded(SQLData.Type type, String name) {
+		return preloaded.isEmpty() ? null : preloaded.remove(getPreloadKey(type, name));
+	}
+
+	private static String getPreloadKey(SQLData.Type type, String name) {
+		return type.ordinal() + ":" + name.toLowerCase();
+	}
+
 	/**
 	 * Update the cache of names for a newly created data object, if necessary.
 	 *
@@ -336,8 +590,9 @@ public class SQLBackend extends PermissionBackend {
 
 	@Override
 	public boolean hasUser(String userName) {
-		try (SQLConnection conn = getSQL()) {
-			ResultSet res = conn.prepAndBind("entity.exists", userName, SQLData.Type.USER.ordinal()).executeQuery();
+		try (SQLConnection conn = getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.exists", userName, SQLData.Type.USER.ordinal());
+				ResultSet res = statement.executeQuery()) {
 			return res.next();
 		} catch (SQLException | IOException e) {
 			return false;
@@ -346,8 +601,9 @@ public class SQLBackend extends PermissionBackend {
 
 	@Override
 	public boolean hasGroup(String group) {
-		try (SQLConnection conn = getSQL()) {
-			ResultSet res = conn.prepAndBind("entity.exists", group, SQLData.Type.GROUP.ordinal()).executeQuery();
+		try (SQLConnection conn = getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.exists", group, SQLData.Type.GROUP.ordinal());
+				ResultSet res = statement.executeQuery()) {
 			return res.next();
 		} catch (SQLException | IOException e) {
 			return false;
@@ -364,12 +620,28 @@ public class SQLBackend extends PermissionBackend {
 		return getEntityNames(userNamesCache, SQLData.Type.USER);
 	}
 
+	@Override
+	public Collection<String> getGroupMemberIdentifiers(String groupName) {
+		Set<String> ret = new HashSet<>();
+		try (SQLConnection conn = getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.members", groupName, SQLData.Type.USER.ordinal());
+				ResultSet set = statement.executeQuery()) {
+			while (set.next()) {
+				ret.add(set.getString("child"));
+			}
+		} catch (SQLException | IOException e) {
+			throw new RuntimeException(e);
+		}
+		return Collections.unmodifiableSet(ret);
+	}
+
 	@Override
 	public Collection<String> getUserNames() {
 		// TODO: Look at implementing caching
 		Set<String> ret = new HashSet<>();
-		try (SQLConnection conn = getSQL()) {
-			ResultSet set = conn.prepAndBind("SELECT `value` FROM `{permissions}` WHERE `type` = ? AND `permission` = 'name' AND `value` IS NOT NULL", SQLData.Type.USER.ordinal()).executeQuery();
+		try (SQLConnection conn = getSQL();
+				PreparedStatement statement = conn.prepAndBind("SELECT `value` FROM `{permissions}` WHERE `type` = ? AND `permission` = 'name' AND `value` IS NOT NULL", SQLData.Type.USER.ordinal());
+				ResultSet set = statement.executeQuery()) {
 			while (set.next()) {
 				ret.add(set.getString("value"));
 			}
@@ -379,6 +651,228 @@ public class SQLBackend extends PermissionBackend {
 		return Collections.unmodifiableSet(ret);
 	}
 
+	/**
+	 * Pages are fetched with keyset pagination, ordered by the database's collation
+	 */
+	@Override
+	public List<String> getUserIdentifiers(String afterKey, int pageSize) {
+		return getPage("entity.names.page", SQLData.Type.USER, "name", afterKey, pageSize);
+	}
+
+	@Override
+	public List<String> getUserNames(String afterKey, int pageSize) {
+		return getPage("entity.user_names.page", SQLData.Type.USER, "value", afterKey, pageSize);
+	}
+
+	@Override
+	public List<String> getGroupNames(String afterKey, int pageSize) {
+		return getPage("entity.names.page", SQLData.Type.GROUP, "name", afterKey, pageSize);
+	}
+
+	private List<String> getPage(String query, SQLData.Type type, String column, String afterKey, int pageSize) {
+		List<String> ret = new ArrayList<>(pageSize);
+		try (SQLConnection conn = getSQL();
+				PreparedStatement statement = conn.prepAndBind(query, type.ordinal(), afterKey == null ? "" : afterKey, pageSize);
+				ResultSet set = statement.executeQuery()) {
+			while (set.next()) {
+				ret.add(set.getString(column));
+			}
+		} catch (SQLException | IOException e) {
+			throw new RuntimeException(e);
+		}
+		return ret;
+	}
+
+	/**
+	 * Databases locking the whole database for writing, like SQLite, only get one thread, as concurrent transactions would only fail
+	 */
+	@Override
+	protected int getImportThreads() {
+		return dialect.supportsConcurrentWrites() ? getConfig().getInt("import-threads", 4) : 1;
+	}
+
+	/**
+	 * Replace entities of batch in one transaction, using multi-row inserts instead of one statement per value
+	 */
+	@Override
+	protected void importBatch(TransferBatch batch) {
+		int type = (batch.isGroups() ? SQLData.Type.GROUP : SQLData.Type.USER).ordinal();
+		List<Object[]> entities = new ArrayList<>(batch.size()), permissions = new ArrayList<>(), inheritance = new ArrayList<>(), changes = new ArrayList<>();
+		for (TransferBatch.Entity entity : batch.getEntities()) {
+			String name = entity.getName();
+			entities.add(new Object[]{name, type});
+			if (changeFeed != null) {
+				changes.add(changeFeed.toRow(name, batch.isGroups() ? SQLData.Type.GROUP : SQLData.Type.USER));
+			}
+
+			for (Map.Entry<String, List<String>> entry : entity.getPermissions().entrySet()) {
+				String world = entry.getKey() == null ? "" : entry.getKey();
+				List<String> worldPermissions = entry.getValue();
+				Set<String> included = new HashSet<>();
+				for (int i = worldPermissions.size() - 1; i >= 0; i--) { // Permissions and parents are read in reverse order of insertion
+					if (included.add(worldPermissions.get(i))) {
+						permissions.add(new Object[]{name, type, worldPermissions.get(i), world, ""});
+					}
+				}
+			}
+
+			for (Map.Entry<String, Map<String, String>> entry : entity.getOptions().entrySet()) {
+				String world = entry.getKey() == null ? "" : entry.getKey();
+				for (Map.Entry<String, String> option : entry.getValue().entrySet()) {
+					if (option.getKey() != null && !option.getKey().isEmpty() && option.getValue() != null && !option.getValue().isEmpty()) {
+						permissions.add(new Object[]{name, type, option.getKey(), world, option.getValue()});
+					}
+				}
+			}
+
+			for (Map.Entry<String, List<String>> entry : entity.getParents().entrySet()) {
+				List<String> parents = entry.getValue();
+				for (int i = parents.size() - 1; i >= 0; i--) {
+					if (parents.get(i) != null && !parents.get(i).isEmpty()) {
+						inheritance.add(new Object[]{name, parents.get(i), type, entry.getKey()});
+					}
+				}
+			}
+		}
+
+		try (UnitOfWork work = beginUnitOfWork(); SQLConnection conn = getSQL()) {
+			for (String query : new String[]{"entity.delete.inheritance", "entity.delete.permissions", "entity.delete.entity"}) {
+				try (PreparedStatement statement = conn.prep(query)) {
+					for (TransferBatch.Entity entity : batch.getEntities()) {
+						conn.bind(statement, entity.getName(), type);
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+			}
+
+			insertRows(conn, "INSERT INTO `{permissions_entity}` (`name`, `type`) VALUES ", entities);
+			insertRows(conn, "INSERT INTO `{permissions}` (`name`, `type`, `permission`, `world`, `value`) VALUES ", permissions);
+			insertRows(conn, "INSERT INTO `{permissions_inheritance}` (`child`, `parent`, `type`, `world`) VALUES ", inheritance);
+			insertRows(conn, "INSERT INTO `{permissions_changes}` (`name`, `type`, `server`, `time`) VALUES ", changes);
+			work.commit();
+		} catch (SQLException | IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		(batch.isGroups() ? groupNamesCache : userNamesCache).set(null);
+	}
+
+	/**
+	 * Rename all users in one transaction, with each rename batched across users
+	 */
+	@Override
+	protected int convertUsers(Map<String, NameUUIDCache.Entry> users) {
+		int type = SQLData.Type.USER.ordinal();
+		Map<String, NameUUIDCache.Entry> renames = new LinkedHashMap<>();
+		List<Object[]> changes = new ArrayList<>();
+		try (UnitOfWork work = beginUnitOfWork(); SQLConnection conn = getSQL()) {
+			try (PreparedStatement exists = conn.prep("entity.exists")) {
+				for (Map.Entry<String, NameUUIDCache.Entry> user : users.entrySet()) {
+					conn.bind(exists, user.getValue().getUUID().toString(), type);
+					try (ResultSet res = exists.executeQuery()) {
+						if (res.next()) {
+							getLogger().warning("Not converting user " + user.getKey() + ", a user with UUID " + user.getValue().getUUID() + " already exists");
+							continue;
+						}
+					}
+					renames.put(user.getKey(), user.getValue());
+					if (changeFeed != null) {
+						changes.add(changeFeed.toRow(user.getKey(), SQLData.Type.USER));
+						changes.add(changeFeed.toRow(user.getValue().getUUID().toString(), SQLData.Type.USER));
+					}
+				}
+			}
+			if (renames.isEmpty()) {
+				return 0;
+			}
+
+			for (String query : new String[]{"entity.rename.entity", "entity.rename.permissions", "entity.rename.inheritance"}) {
+				try (PreparedStatement statement = conn.prep(query)) {
+					for (Map.Entry<String, NameUUIDCache.Entry> rename : renames.entrySet()) {
+						conn.bind(statement, rename.getValue().getUUID().toString(), rename.getKey(), type);
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+			}
+
+			try (PreparedStatement deleteName = conn.prep("entity.options.delete"); PreparedStatement addName = conn.prep("entity.options.add")) {
+				for (NameUUIDCache.Entry entry : renames.values()) {
+					conn.bind(deleteName, entry.getUUID().toString(), "name", type, "");
+					deleteName.addBatch();
+					conn.bind(addName, entry.getUUID().toString(), type, "name", "", entry.getName());
+					addName.addBatch();
+				}
+				deleteName.executeBatch();
+				addName.executeBatch();
+			}
+
+			insertRows(conn, "INSERT INTO `{permissions_changes}` (`name`, `type`, `server`, `time`) VALUES ", changes);
+			work.commit();
+		} catch (SQLException | IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		userNamesCache.set(null);
+		for (String name : renames.keySet()) {
+			preloaded.remove(getPreloadKey(SQLData.Type.USER, name));
+		}
+		return renames.size();
+	}
+
+	/**
+	 * Insert rows in order, as many rows per statement as the database supports.
+	 * Statements inserting the full number of rows are executed as one batch.
+	 *
+	 * @param insert Insert statement up to the VALUES keyword
+	 * @param rows Values of rows, all of the same length
+	 */
+	private void insertRows(SQLConnection conn, String insert, List<Object[]> rows) throws SQLException {
+		if (rows.isEmpty()) {
+			return;
+		}
+
+		int columns = rows.get(0).length;
+		int rowsPerInsert = Math.max(1, dialect.getRowsPerInsert(columns));
+		int fullRows = rows.size() - rows.size() % rowsPerInsert;
+		if (fullRows > 0) {
+			try (PreparedStatement statement = conn.prep(buildInsert(insert, columns, rowsPerInsert))) {
+				for (int start = 0; start < fullRows; start += rowsPerInsert) {
+					conn.bind(statement, flatten(rows, start, rowsPerInsert, columns));
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+		}
+		if (fullRows < rows.size()) {
+			int count = rows.size() - fullRows;
+			conn.execute(buildInsert(insert, columns, count), flatten(rows, fullRows, count, columns));
+		}
+	}
+
+	private static String buildInsert(String insert, int columns, int count) {
+		StringBuilder row = new StringBuilder("(");
+		for (int i = 0; i < columns; i++) {
+			row.append(i == 0 ? "?" : ", ?");
+		}
+		row.append(")");
+
+		StringBuilder query = new StringBuilder(insert);
+		for (int i = 0; i < count; i++) {
+			query.append(i == 0 ? "" : ", ").append(row);
+		}
+		return query.toString();
+	}
+
+	private static Object[] flatten(List<Object[]> rows, int start, int count, int columns) {
+		Object[] args = new Object[count * columns];
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(rows.get(start + i), 0, args, i * columns, columns);
+		}
+		return args;
+	}
+
 	protected final void setupAliases() {
 		ConfigurationSection aliases = getConfig().getConfigurationSection("aliases");
 
@@ -387,6 +881,7 @@ public class SQLBackend extends PermissionBackend {
 		}
 
 		tableNames = aliases.getValues(false);
+		expandedQueries.clear();
 	}
 
 	private void executeStream(SQLConnection conn, InputStream str) throws SQLException, IOException {
@@ -413,7 +908,7 @@ public class SQLBackend extends PermissionBackend {
 			if (conn.hasTable("{permissions}") && conn.hasTable("{permissions_entity}") && conn.hasTable("{permissions_inheritance}")) {
 				return;
 			}
-			InputStream databaseDumpStream = getClass().getResourceAsStream("/sql/" + dbDriver + "/deploy.sql");
+			InputStream databaseDumpStream = getClass().getResourceAsStream("/sql/" + dialect.getName() + "/deploy.sql");
 
 			if (databaseDumpStream == null) {
 				throw new Exception("Can't find appropriate database dump for used database (" + dbDriver + "). Is it bundled?");
@@ -441,8 +936,9 @@ public class SQLBackend extends PermissionBackend {
 		}
 
 		if (!worldInheritanceCache.containsKey(world)) {
-			try (SQLConnection conn = getSQL()) {
-				ResultSet result = conn.prepAndBind("SELECT `parent` FROM `{permissions_inheritance}` WHERE `child` = ? AND `type` = ?;", world, SQLData.Type.WORLD.ordinal()).executeQuery();
+			try (SQLConnection conn = getSQL();
+					PreparedStatement statement = conn.prepAndBind("SELECT `parent` FROM `{permissions_inheritance}` WHERE `child` = ? AND `type` = ?;", world, SQLData.Type.WORLD.ordinal());
+					ResultSet result = statement.executeQuery()) {
 				LinkedList<String> worldParents = new LinkedList<>();
 
 				while (result.next()) {
@@ -460,8 +956,9 @@ public class SQLBackend extends PermissionBackend {
 
 	@Override
 	public Map<String, List<String>> getAllWorldInheritance() {
-		try (SQLConnection conn = getSQL()) {
-			ResultSet result = conn.prepAndBind("SELECT `child` FROM `{permissions_inheritance}` WHERE `type` = ?", SQLData.Type.WORLD.ordinal()).executeQuery();
+		try (SQLConnection conn = getSQL();
+				PreparedStatement statement = conn.prepAndBind("SELECT `child` FROM `{permissions_inheritance}` WHERE `type` = ?", SQLData.Type.WORLD.ordinal());
+				ResultSet result = statement.executeQuery()) {
 
 			Map<String, List<String>> ret = new HashMap<>();
 			while (result.next()) {
@@ -482,15 +979,18 @@ public class SQLBackend extends PermissionBackend {
 			return;
 		}
 
-		try (SQLConnection conn = getSQL()) {
-			conn.prepAndBind("DELETE FROM `{permissions_inheritance}` WHERE `child` = ? AND `type` = ?", worldName, SQLData.Type.WORLD.ordinal()).execute();
+		try (UnitOfWork work = beginUnitOfWork(); SQLConnection conn = getSQL()) {
+			conn.execute("DELETE FROM `{permissions_inheritance}` WHERE `child` = ? AND `type` = ?", worldName, SQLData.Type.WORLD.ordinal());
 
-			PreparedStatement statement = conn.prepAndBind("INSERT INTO `{permissions_inheritance}` (`child`, `parent`, `type`) VALUES (?, ?, ?)", worldName, "toset", SQLData.Type.WORLD.ordinal());
-			for (String parentWorld : parentWorlds) {
-				statement.setString(2, parentWorld);
-				statement.addBatch();
+			try (PreparedStatement statement = conn.prepAndBind("INSERT INTO `{permissions_inheritance}` (`child`, `parent`, `type`) VALUES (?, ?, ?)", worldName, "toset", SQLData.Type.WORLD.ordinal())) {
+				for (String parentWorld : parentWorlds) {
+					statement.setString(2, parentWorld);
+					statement.addBatch();
+				}
+				statement.executeBatch();
 			}
-			statement.executeBatch();
+			recordChange(conn, SQLData.Type.WORLD, worldName);
+			work.commit();
 
 			this.worldInheritanceCache.put(worldName, parentWorlds);
 
@@ -500,6 +1000,7 @@ public class SQLBackend extends PermissionBackend {
 	}
 
 	public void reload() {
+		preloaded.clear();
 		worldInheritanceCache.clear();
 		userNamesCache.set(null);
 		groupNamesCache.set(null);
@@ -520,39 +1021,27 @@ public class SQLBackend extends PermissionBackend {
 	}
 
 	private void writeTable(String table, SQLConnection conn, Writer writer) throws IOException, SQLException {
-		ResultSet res = conn.prep("SHOW CREATE TABLE `{" + table + "}`").executeQuery();
-		if (!res.next()) {
-			throw new IOException("No value for table create for table " + table);
-		}
-		writer.write(res.getString(2));
+		writer.write(dialect.getCreateTable(conn, getTableName(table)));
 		writer.write(";\n");
 
-		res = conn.prep("SELECT * FROM `{" + table + "}`").executeQuery();
-		while (res.next()) {
-			writer.write("INSERT INTO `{");
-			writer.write(table);
-			writer.write("}` VALUES (");
-
-			for (int i = 1; i <= res.getMetaData().getColumnCount(); ++i) {
-				String value = res.getString(i);
-				Class<?> columnClazz;
-				try {
-					columnClazz = Class.forName(res.getMetaData().getColumnClassName(i));
-				} catch (ClassNotFoundException e) {
-					throw new IOException(e);
-				}
-				if (value == null) {
-					value = "null";
-				} else {
-					if (String.class.equals(columnClazz)) {
-						value = "'" + value + "'";
+		try (PreparedStatement statement = conn.prep("SELECT * FROM `{" + table + "}`"); ResultSet res = statement.executeQuery()) {
+			while (res.next()) {
+				writer.write(dialect.translate("INSERT INTO `{" + table + "}` VALUES ("));
+
+				for (int i = 1; i <= res.getMetaData().getColumnCount(); ++i) {
+					Object value = res.getObject(i);
+					if (value == null) {
+						writer.write("null");
+					} else if (value instanceof Number) {
+						writer.write(value.toString());
+					} else {
+						writer.write(dialect.quoteString(value.toString()));
+					}
+					if (i == res.getMetaData().getColumnCount()) { // Last column
+						writer.write(");\n");
+					} else {
+						writer.write(", ");
 					}
-				}
-				writer.write(value);
-				if (i == res.getMetaData().getColumnCount()) { // Last column
-					writer.write(");\n");
-				} else {
-					writer.write(", ");
 				}
 			}
 		}
@@ -562,6 +1051,9 @@ public class SQLBackend extends PermissionBackend {
 	@Override
 	public void close() throws PermissionBackendException {
 		super.close();
+		if (changeFeed != null) {
+			changeFeed.close();
+		}
 		if (ds != null) {
 			try {
 				ds.close();
@@ -21,9 +21,13 @@ package ru.tehkode.permissions.backends.sql;
 import java.io.Closeable;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -36,34 +40,64 @@ public class SQLConnection implements Closeable {
 	private Statement statement;
 	private final Connection db;
 	private final SQLBackend backend;
+	private final Map<PreparedStatement, String> preparedQueries;
+	private final boolean borrowed;
 
 	public SQLConnection(Connection conn, SQLBackend backend) {
+		this(conn, backend, new IdentityHashMap<PreparedStatement, String>(), false);
+	}
+
+	private SQLConnection(Connection conn, SQLBackend backend, Map<PreparedStatement, String> preparedQueries, boolean borrowed) {
 		this.backend = backend;
 		this.db = conn;
+		this.preparedQueries = preparedQueries;
+		this.borrowed = borrowed;
 	}
 
+	/**
+	 * @return View of this connection that is not closed by {@link #close()}
+	 */
+	SQLConnection borrow() {
+		return new SQLConnection(db, backend, preparedQueries, true);
+	}
+
+	/**
+	 * Prepare a statement. Statements are pooled by the data source, so callers should close them once done.
+	 */
 	public PreparedStatement prep(String query) throws SQLException {
-		return this.db.prepareStatement(expandQuery(query));
+		String expanded = expandQuery(query);
+		PreparedStatement statement = this.db.prepareStatement(expanded);
+		if (backend.getExpandedQueries().containsKey(query)) { // named query
+			preparedQueries.put(statement, expanded);
+		}
+		return statement;
 	}
 
 	/**
 	 * Perform table name expansion on a query
 	 * Example: <pre>SELECT * FROM `{permissions}`;</pre>
+	 * Expansions of named queries are cached until table aliases change.
 	 * @param query the query to get
 	 * @return The expanded query
 	 */
 	public String expandQuery(String query) {
-		String newQuery = backend.getQueryCache().getQuery(query);
-		if (newQuery != null) {
-			query = newQuery;
+		String expanded = backend.getExpandedQueries().get(query);
+		if (expanded != null) {
+			return expanded;
 		}
+
+		String newQuery = backend.getQueryCache().getQuery(query);
 		StringBuffer ret = new StringBuffer();
-		Matcher m = TABLE_PATTERN.matcher(query);
+		Matcher m = TABLE_PATTERN.matcher(newQuery != null ? newQuery : query);
 		while (m.find()) {
 			m.appendReplacement(ret, this.backend.getTableName(m.group(1)));
 		}
 		m.appendTail(ret);
-		return ret.toString();
+		expanded = backend.getDialect().translate(ret.toString());
+		if (newQuery != null) {
+			backend.getExpandedQueries().put(query, expanded);
+		}
+		return expanded;
 	}
 
 	public Statement getStatement() throws SQLException {
@@ -74,6 +108,10 @@ public class SQLConnection implements Closeable {
 		return this.statement;
 	}
 
+	public DatabaseMetaData getMetaData() throws SQLException {
+		return db.getMetaData();
+	}
+
 	public boolean hasTable(String table) throws SQLException {
 		this.checkConnection();
 		table = expandQuery(table);
@@ -82,13 +120,27 @@ public class SQLConnection implements Closeable {
 
 	public PreparedStatement prepAndBind(String query, Object... args) throws SQLException {
 		PreparedStatement statement = prep(query);
-		bind(statement, (Object[]) args);
+		try {
+			bind(statement, (Object[]) args);
+		} catch (SQLException e) {
+			statement.close();
+			throw e;
+		}
 		return statement;
 	}
 
+	/**
+	 * Execute an update statement, closing it afterwards
+	 */
+	public void execute(String query, Object... args) throws SQLException {
+		try (PreparedStatement statement = prepAndBind(query, args)) {
+			statement.execute();
+		}
+	}
+
 	public PreparedStatement bind(PreparedStatement statement, Object... args) throws SQLException {
 		statement.clearParameters();
-		final int argsExpected = statement.getParameterMetaData().getParameterCount();
+		final int argsExpected = getParameterCount(statement);
 		if (args.length != argsExpected) {
 			throw new SQLException("Invalid argument number provided; expected " + argsExpected + " but got " + args.length);
 		}
@@ -98,6 +150,57 @@ public class SQLConnection implements Closeable {
 		return statement;
 	}
 
+	/**
+	 * Number of parameters of a statement. Looked up from the database once per query,
+	 * as parameter metadata takes a round trip with some drivers.
+	 */
+	private int getParameterCount(PreparedStatement statement) throws SQLException {
+		String query = preparedQueries.get(statement);
+		Integer count = query == null ? null : backend.getParameterCounts().get(query);
+		if (count == null) {
+			count = statement.getParameterMetaData().getParameterCount();
+			if (query != null) {
+				backend.getParameterCounts().put(query, count);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Execute following statements in one transaction, until {@link #commit()} or {@link #rollback()} is called
+	 */
+	public void beginTransaction() throws SQLException {
+		this.db.setAutoCommit(false);
+	}
+
+	public void commit() throws SQLException {
+		try {
+			this.db.commit();
+		} finally {
+			this.db.setAutoCommit(true);
+		}
+	}
+
+	public void rollback() throws SQLException {
+		try {
+			this.db.rollback();
+		} finally {
+			this.db.setAutoCommit(true);
+		}
+	}
+
+	public Savepoint setSavepoint() throws SQLException {
+		return this.db.setSavepoint();
+	}
+
+	public void rollback(Savepoint savepoint) throws SQLException {
+		this.db.rollback(savepoint);
+	}
+
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		this.db.releaseSavepoint(savepoint);
+	}
+
 	protected void checkConnection() throws SQLException {
 		if (this.backend.dbDriver.equals("sqlite")) {
 			return;
@@ -110,6 +213,10 @@ public class SQLConnection implements Closeable {
 
 	@Override
 	public void close() throws IOException {
+		if (borrowed) {
+			return;
+		}
+
 		try {
 			db.close();
 		} catch (SQLException e) {
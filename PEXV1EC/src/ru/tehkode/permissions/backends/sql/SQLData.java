@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,12 +22,14 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Data for SQL entities
  */
 public class SQLData implements PermissionsUserData, PermissionsGroupData {
+	private static final int BULK_LOAD_BATCH_SIZE = 500;
 	private String identifier;
 	private final Type type;
 	private final SQLBackend backend;
 
 	// Cache
 	private final AtomicBoolean virtual = new AtomicBoolean(true);
+	private volatile Snapshot snapshot;
 
 	public SQLData(String identifier, Type type, SQLBackend backend) {
 		this.identifier = identifier;
@@ -34,13 +38,32 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 		fetchInfo();
 	}
 
+	/**
+	 * Create data from an already fetched snapshot, skipping the info query
+	 *
+	 * @param snapshot Snapshot of this entity, see {@link #fetchSnapshots(SQLConnection, Type, Collection)}
+	 */
+	SQLData(Snapshot snapshot, Type type, SQLBackend backend) {
+		this.identifier = snapshot.name;
+		this.type = type;
+		this.backend = backend;
+		applySnapshot(snapshot);
+	}
+
+	private void applySnapshot(Snapshot snapshot) {
+		this.identifier = snapshot.name;
+		this.virtual.set(snapshot.virtual);
+		this.snapshot = snapshot;
+	}
+
 	protected void updateInfo() {
 		if (!this.isVirtual()) { // Non-virtual, no-op
 			return;
 		}
+		this.snapshot = null;
 
 		try (SQLConnection conn = backend.getSQL()) {
-			conn.prepAndBind("entity.update", this.getIdentifier(), this.type.ordinal()).execute();
+			conn.execute("entity.update", this.getIdentifier(), this.type.ordinal());
 		} catch (SQLException | IOException e) {
 			if (virtual.compareAndSet(true, false)) {
 				this.updateInfo();
@@ -55,8 +78,9 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 
 
 	protected final void fetchInfo() {
-		try (SQLConnection conn = backend.getSQL()) {
-			ResultSet result = conn.prepAndBind("entity.fetch", this.getIdentifier(), this.type.ordinal()).executeQuery();
+		try (SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.fetch", this.getIdentifier(), this.type.ordinal());
+				ResultSet result = statement.executeQuery()) {
 
 			if (result.next()) {
 				// For teh case-insensetivity
@@ -78,20 +102,25 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 
 	@Override
 	public boolean setIdentifier(String identifier) {
-		try (SQLConnection conn = backend.getSQL()) {
-			ResultSet set = conn.prepAndBind("entity.exists", identifier, this.type.ordinal()).executeQuery();
+		try (UnitOfWork work = backend.beginUnitOfWork(); SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.exists", identifier, this.type.ordinal());
+				ResultSet set = statement.executeQuery()) {
 			if (set.next()) {
 				return false;
 			}
 
+			this.snapshot = null;
 			if (this.isVirtual()) {
 				this.identifier = identifier;
 				return true;
 			}
 
-			conn.prepAndBind("entity.rename.entity", identifier, this.identifier, this.type.ordinal()).execute();
-			conn.prepAndBind("entity.rename.permissions", identifier, this.identifier, this.type.ordinal()).execute();
-			conn.prepAndBind("entity.rename.inheritance", identifier, this.identifier, this.type.ordinal()).execute();
+			conn.execute("entity.rename.entity", identifier, this.identifier, this.type.ordinal());
+			conn.execute("entity.rename.permissions", identifier, this.identifier, this.type.ordinal());
+			conn.execute("entity.rename.inheritance", identifier, this.identifier, this.type.ordinal());
+			backend.recordChange(conn, this.type, this.identifier);
+			backend.recordChange(conn, this.type, identifier);
+			work.commit();
 			this.identifier = identifier;
 			backend.updateNameCache(this);
 			return true;
@@ -102,9 +131,10 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 
 	@Override
 	public List<String> getPermissions(String worldName) {
-		try (SQLConnection conn = backend.getSQL()) {
+		try (SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.permissions.get_world", getIdentifier(), this.type.ordinal(), worldName == null ? "" : worldName);
+				ResultSet set = statement.executeQuery()) {
 			LinkedList<String> permissions = new LinkedList<>();
-			ResultSet set = conn.prepAndBind("entity.permissions.get_world", getIdentifier(), this.type.ordinal(), worldName == null ? "" : worldName).executeQuery();
 
 			while (set.next()) {
 				permissions.add(set.getString("permission"));
@@ -122,21 +152,25 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 			worldName = "";
 		}
 
-		try (SQLConnection conn = backend.getSQL()) {
-			conn.prepAndBind("entity.permissions.clear", this.getIdentifier(), this.type.ordinal(), worldName).execute();
+		this.snapshot = null;
+		try (UnitOfWork work = backend.beginUnitOfWork(); SQLConnection conn = backend.getSQL()) {
+			conn.execute("entity.permissions.clear", this.getIdentifier(), this.type.ordinal(), worldName);
 
 			if (permissions.size() > 0) {
 				Set<String> includedPerms = new HashSet<>();
-				PreparedStatement statement = conn.prepAndBind("entity.permissions.add", this.getIdentifier(), "toset", worldName, this.type.ordinal());
-				for (int i = permissions.size() - 1; i >= 0; i--) { // insert in reverse order
-					if (!includedPerms.contains(permissions.get(i))) {
-						statement.setString(2, permissions.get(i));
-						statement.addBatch();
-						includedPerms.add(permissions.get(i));
+				try (PreparedStatement statement = conn.prepAndBind("entity.permissions.add", this.getIdentifier(), "toset", worldName, this.type.ordinal())) {
+					for (int i = permissions.size() - 1; i >= 0; i--) { // insert in reverse order
+						if (!includedPerms.contains(permissions.get(i))) {
+							statement.setString(2, permissions.get(i));
+							statement.addBatch();
+							includedPerms.add(permissions.get(i));
+						}
 					}
+					statement.executeBatch();
 				}
-				statement.executeBatch();
 			}
+			backend.recordChange(conn, this.type, getIdentifier());
+			work.commit();
 		} catch (SQLException | IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -148,10 +182,16 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 
 	@Override
 	public Map<String, List<String>> getPermissionsMap() {
+		Snapshot snapshot = this.snapshot;
+		if (snapshot != null) {
+			return snapshot.permissions;
+		}
+
 		Map<String, List<String>> allPermissions = new HashMap<>();
 
-		try (SQLConnection conn = backend.getSQL()) {
-			ResultSet res = conn.prepAndBind("entity.permissions.get_all", getIdentifier(), type.ordinal()).executeQuery();
+		try (SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.permissions.get_all", getIdentifier(), type.ordinal());
+				ResultSet res = statement.executeQuery()) {
 			while (res.next()) {
 				String world = res.getString("world");
 				if (world.isEmpty()) {
@@ -177,15 +217,19 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 
 	@Override
 	public Set<String> getWorlds() {
+		Snapshot snapshot = this.snapshot;
+		if (snapshot != null) {
+			return snapshot.worlds;
+		}
+
 		Set<String> worlds = new HashSet<>();
 		try (SQLConnection conn = backend.getSQL()) {
-			ResultSet res = conn.prepAndBind("entity.worlds.permissions", getIdentifier(), type.ordinal()).executeQuery();
-			while (res.next()) {
-				worlds.add(res.getString("world"));
-			}
-			res = conn.prepAndBind("entity.worlds.inheritance", getIdentifier(), type.ordinal()).executeQuery();
-			while (res.next()) {
-				worlds.add(res.getString("world"));
+			for (String query : new String[]{"entity.worlds.permissions", "entity.worlds.inheritance"}) {
+				try (PreparedStatement statement = conn.prepAndBind(query, getIdentifier(), type.ordinal()); ResultSet res = statement.executeQuery()) {
+					while (res.next()) {
+						worlds.add(res.getString("world"));
+					}
+				}
 			}
 			worlds.remove("");
 
@@ -197,8 +241,9 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 
 	@Override
 	public String getOption(String option, String worldName) {
-		try (SQLConnection conn = backend.getSQL()) {
-			ResultSet res = conn.prepAndBind("entity.options.get", getIdentifier(), this.type.ordinal(), option, worldName == null ? "" : worldName).executeQuery();
+		try (SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.options.get", getIdentifier(), this.type.ordinal(), option, worldName == null ? "" : worldName);
+				ResultSet res = statement.executeQuery()) {
 			if (res.next()) {
 				return res.getString("value");
 			}
@@ -218,11 +263,18 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 			worldName = "";
 		}
 
-		try (SQLConnection conn = backend.getSQL()) {
-			conn.prepAndBind("entity.options.delete", this.getIdentifier(), option, this.type.ordinal(), worldName).execute();
-			if (value != null && !value.isEmpty()) {
-				conn.prepAndBind("entity.options.add", getIdentifier(), this.type.ordinal(), option, worldName, value).execute();
+		this.snapshot = null;
+		try (UnitOfWork work = backend.beginUnitOfWork(); SQLConnection conn = backend.getSQL()) {
+			if (value != null && !value.isEmpty() && backend.getDialect().supportsOptionUpsert()) {
+				conn.execute("entity.options.upsert", getIdentifier(), this.type.ordinal(), option, worldName, value);
+			} else {
+				conn.execute("entity.options.delete", this.getIdentifier(), option, this.type.ordinal(), worldName);
+				if (value != null && !value.isEmpty()) {
+					conn.execute("entity.options.add", getIdentifier(), this.type.ordinal(), option, worldName, value);
+				}
 			}
+			backend.recordChange(conn, this.type, getIdentifier());
+			work.commit();
 		} catch (SQLException | IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -232,8 +284,9 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 	public Map<String, String> getOptions(String worldName) {
 		Map<String, String> options = new HashMap<>();
 
-		try (SQLConnection conn = backend.getSQL()) {
-			ResultSet set = conn.prepAndBind("entity.options.get_world", getIdentifier(), type.ordinal(), worldName == null ? "" : worldName).executeQuery();
+		try (SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.options.get_world", getIdentifier(), type.ordinal(), worldName == null ? "" : worldName);
+				ResultSet set = statement.executeQuery()) {
 			while (set.next()) {
 				options.put(set.getString("permission"), set.getString("value"));
 			}
@@ -246,10 +299,16 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 
 	@Override
 	public Map<String, Map<String, String>> getOptionsMap() {
+		Snapshot snapshot = this.snapshot;
+		if (snapshot != null) {
+			return snapshot.options;
+		}
+
 		Map<String, Map<String, String>> allOptions = new HashMap<>();
 
-		try (SQLConnection conn = backend.getSQL()) {
-			ResultSet res = conn.prepAndBind("entity.options.get_all", getIdentifier(), type.ordinal()).executeQuery();
+		try (SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.options.get_all", getIdentifier(), type.ordinal());
+				ResultSet res = statement.executeQuery()) {
 			while (res.next()) {
 				String world = res.getString("world");
 				if (world.isEmpty()) {
@@ -284,13 +343,16 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 	@Override
 	public void remove() {
 		if (this.virtual.compareAndSet(false, true)) {
-			try (SQLConnection conn = backend.getSQL()) {
+			this.snapshot = null;
+			try (UnitOfWork work = backend.beginUnitOfWork(); SQLConnection conn = backend.getSQL()) {
 				// clear inheritance info
-				conn.prepAndBind("entity.delete.inheritance", this.getIdentifier(), this.type.ordinal()).execute();
+				conn.execute("entity.delete.inheritance", this.getIdentifier(), this.type.ordinal());
 				// clear permissions
-				conn.prepAndBind("entity.delete.permissions", this.getIdentifier(), this.type.ordinal()).execute();
+				conn.execute("entity.delete.permissions", this.getIdentifier(), this.type.ordinal());
 				// clear info
-				conn.prepAndBind("entity.delete.entity", this.getIdentifier(), this.type.ordinal()).execute();
+				conn.execute("entity.delete.entity", this.getIdentifier(), this.type.ordinal());
+				backend.recordChange(conn, this.type, getIdentifier());
+				work.commit();
 				backend.updateNameCache(this);
 			} catch (SQLException | IOException e) {
 				throw new RuntimeException(e);
@@ -300,9 +362,15 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 
 	@Override
 	public Map<String, List<String>> getParentsMap() {
+		Snapshot snapshot = this.snapshot;
+		if (snapshot != null) {
+			return snapshot.parents;
+		}
+
 		Map<String, List<String>> ret = new HashMap<>();
-		try (SQLConnection conn = backend.getSQL()) {
-			ResultSet res = conn.prepAndBind("entity.parents.get_all", getIdentifier(), this.type.ordinal()).executeQuery();
+		try (SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = conn.prepAndBind("entity.parents.get_all", getIdentifier(), this.type.ordinal());
+				ResultSet res = statement.executeQuery()) {
 			while (res.next()) {
 				String world = res.getString("world");
 				List<String> worldParents = ret.get(world);
@@ -321,13 +389,11 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 	@Override
 	public List<String> getParents(String worldName) {
 		List<String> ret = new LinkedList<>();
-		try (SQLConnection conn = backend.getSQL()) {
-			ResultSet res;
-			if (worldName == null) {
-				res = conn.prepAndBind("SELECT `parent` FROM `{permissions_inheritance}` WHERE `child` = ? AND `type` = ? AND `world` IS NULL ORDER BY `id` DESC", getIdentifier(), type.ordinal()).executeQuery();
-			} else {
-				res = conn.prepAndBind("entity.parents.get_world", getIdentifier(), type.ordinal(), worldName).executeQuery();
-			}
+		try (SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = worldName == null
+						? conn.prepAndBind("SELECT `parent` FROM `{permissions_inheritance}` WHERE `child` = ? AND `type` = ? AND `world` IS NULL ORDER BY `id` DESC", getIdentifier(), type.ordinal())
+						: conn.prepAndBind("entity.parents.get_world", getIdentifier(), type.ordinal(), worldName);
+				ResultSet res = statement.executeQuery()) {
 			while (res.next()) {
 				ret.add(res.getString("parent"));
 			}
@@ -343,32 +409,49 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 		if (this.isVirtual()) {
 			this.save();
 		}
-		try (SQLConnection conn = backend.getSQL()) {
+		this.snapshot = null;
+		try (UnitOfWork work = backend.beginUnitOfWork(); SQLConnection conn = backend.getSQL()) {
 			// Clean out existing records
 			if (worldName != null) { // damn NULL
-				conn.prepAndBind("entity.parents.clear", this.getIdentifier(), this.type.ordinal(), worldName).execute();
+				conn.execute("entity.parents.clear", this.getIdentifier(), this.type.ordinal(), worldName);
 			} else {
-				conn.prepAndBind("DELETE FROM `{permissions_inheritance}` WHERE `child` = ? AND `type` = ? AND `world` IS NULL", this.getIdentifier(), this.type.ordinal()).execute();
+				conn.execute("DELETE FROM `{permissions_inheritance}` WHERE `child` = ? AND `type` = ? AND `world` IS NULL", this.getIdentifier(), this.type.ordinal());
 			}
 
-			PreparedStatement statement = conn.prepAndBind("entity.parents.add", this.getIdentifier(), "toset", this.type.ordinal(), worldName);
-			for (int i = parents.size() - 1; i >= 0; --i) {
-				final String group = parents.get(i);
-				if (group == null || group.isEmpty()) {
-					continue;
+			try (PreparedStatement statement = conn.prepAndBind("entity.parents.add", this.getIdentifier(), "toset", this.type.ordinal(), worldName)) {
+				for (int i = parents.size() - 1; i >= 0; --i) {
+					final String group = parents.get(i);
+					if (group == null || group.isEmpty()) {
+						continue;
+					}
+					statement.setString(2, group);
+					statement.addBatch();
 				}
-				statement.setString(2, group);
-				statement.addBatch();
+				statement.executeBatch();
 			}
-			statement.executeBatch();
+			backend.recordChange(conn, this.type, getIdentifier());
+			work.commit();
 		} catch (SQLException | IOException e) {
 			throw new RuntimeException(e);
 		}
 
 	}
 
+	/**
+	 * Fetch info, permissions, options and inheritance of this entity using a single connection.
+	 * Whole-entity getters are served from the fetched data until the entity is modified.
+	 */
 	@Override
-	public void load() { // Nothing to load, we don't handle caching!
+	public void load() {
+		Snapshot snapshot = backend.takePreloaded(this.type, getIdentifier());
+		if (snapshot == null) {
+			try (SQLConnection conn = backend.getSQL()) {
+				snapshot = fetchSnapshots(conn, this.type, Collections.singleton(getIdentifier())).get(getIdentifier().toLowerCase());
+			} catch (SQLException | IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		applySnapshot(snapshot);
 	}
 
 	public Type getType() {
@@ -382,14 +465,200 @@ public class SQLData implements PermissionsUserData, PermissionsGroupData {
 	public static Set<String> getEntitiesNames(SQLConnection sql, Type type, boolean defaultOnly) throws SQLException {
 		Set<String> entities = new HashSet<>();
 
-		ResultSet result = sql.prepAndBind("SELECT `name` FROM `{permissions_entity}` WHERE `type` = ? " + (defaultOnly ? " AND `default` = 1" : ""), type.ordinal()).executeQuery();
+		try (PreparedStatement statement = sql.prepAndBind("SELECT `name` FROM `{permissions_entity}` WHERE `type` = ? " + (defaultOnly ? " AND `default` = 1" : ""), type.ordinal());
+				ResultSet result = statement.executeQuery()) {
+			while (result.next()) {
+				entities.add(result.getString("name"));
+			}
+		}
 
-		while (result.next()) {
-			entities.add(result.getString("name"));
+		return Collections.unmodifiableSet(entities);
+	}
+
+	/**
+	 * Fetch everything stored for a batch of entities with three queries on one connection.
+	 *
+	 * @param sql Connection to use
+	 * @param type Type of entities
+	 * @param names Names of entities to fetch, or null to fetch all entities of the given type
+	 * @return Snapshots keyed by lower-cased entity name. Every requested name has a snapshot, virtual if entity does not exist
+	 * @throws SQLException on database error
+	 */
+	public static Map<String, Snapshot> fetchSnapshots(SQLConnection sql, Type type, Collection<String> names) throws SQLException {
+		Map<String, Snapshot.Builder> builders = new HashMap<>();
+		if (names == null) {
+			fetchSnapshots(sql, type, null, builders);
+		} else {
+			for (String name : names) {
+				builders.put(name.toLowerCase(), new Snapshot.Builder(name));
+			}
+
+			List<String> batch = new ArrayList<>(names);
+			for (int i = 0; i < batch.size(); i += BULK_LOAD_BATCH_SIZE) {
+				fetchSnapshots(sql, type, batch.subList(i, Math.min(batch.size(), i + BULK_LOAD_BATCH_SIZE)), builders);
+			}
 		}
 
-		result.close();
+		Map<String, Snapshot> ret = new HashMap<>();
+		for (Map.Entry<String, Snapshot.Builder> entry : builders.entrySet()) {
+			ret.put(entry.getKey(), entry.getValue().build());
+		}
+		return ret;
+	}
 
-		return Collections.unmodifiableSet(entities);
+	private static void fetchSnapshots(SQLConnection sql, Type type, List<String> names, Map<String, Snapshot.Builder> builders) throws SQLException {
+		String entityFilter = names == null ? "" : " AND `name` IN (" + placeholders(names.size()) + ")";
+		String childFilter = names == null ? "" : " AND `child` IN (" + placeholders(names.size()) + ")";
+		List<Object> args = new ArrayList<>();
+		args.add(type.ordinal());
+		if (names != null) {
+			args.addAll(names);
+		}
+
+		try (PreparedStatement statement = sql.prepAndBind("SELECT `name` FROM `{permissions_entity}` WHERE `type` = ?" + entityFilter, args.toArray());
+				ResultSet res = statement.executeQuery()) {
+			while (res.next()) {
+				Snapshot.Builder builder = getBuilder(builders, res.getString("name"));
+				builder.name = res.getString("name"); // For teh case-insensetivity
+				builder.virtual = false;
+			}
+		}
+
+		try (PreparedStatement statement = sql.prepAndBind("SELECT `name`, `permission`, `world`, `value` FROM `{permissions}` WHERE `type` = ?" + entityFilter + " ORDER BY `id` DESC", args.toArray());
+				ResultSet res = statement.executeQuery()) {
+			while (res.next()) {
+				getBuilder(builders, res.getString("name")).addPermissionRow(res.getString("permission"), res.getString("world"), res.getString("value"));
+			}
+		}
+
+		try (PreparedStatement statement = sql.prepAndBind("SELECT `child`, `parent`, `world` FROM `{permissions_inheritance}` WHERE `type` = ?" + childFilter + " ORDER BY `id` DESC", args.toArray());
+				ResultSet res = statement.executeQuery()) {
+			while (res.next()) {
+				getBuilder(builders, res.getString("child")).addParentRow(res.getString("parent"), res.getString("world"));
+			}
+		}
+	}
+
+	private static Snapshot.Builder getBuilder(Map<String, Snapshot.Builder> builders, String name) {
+		Snapshot.Builder builder = builders.get(name.toLowerCase());
+		if (builder == null) {
+			builder = new Snapshot.Builder(name);
+			builders.put(name.toLowerCase(), builder);
+		}
+		return builder;
+	}
+
+	private static String placeholders(int count) {
+		StringBuilder ret = new StringBuilder();
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) {
+				ret.append(", ");
+			}
+			ret.append('?');
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Everything stored for one entity, fetched at once
+	 */
+	public static final class Snapshot {
+		private final String name;
+		private final boolean virtual;
+		private final Map<String, List<String>> permissions;
+		private final Map<String, Map<String, String>> options;
+		private final Map<String, List<String>> parents;
+		private final Set<String> worlds;
+
+		private Snapshot(String name, boolean virtual, Map<String, List<String>> permissions, Map<String, Map<String, String>> options,
+						 Map<String, List<String>> parents, Set<String> worlds) {
+			this.name = name;
+			this.virtual = virtual;
+			this.permissions = permissions;
+			this.options = options;
+			this.parents = parents;
+			this.worlds = worlds;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isVirtual() {
+			return virtual;
+		}
+
+		private static final class Builder {
+			private String name;
+			private boolean virtual = true;
+			private final Map<String, List<String>> permissions = new HashMap<>();
+			private final Map<String, Map<String, String>> options = new HashMap<>();
+			private final Map<String, List<String>> parents = new HashMap<>();
+			private final Set<String> worlds = new HashSet<>();
+
+			private Builder(String name) {
+				this.name = name;
+			}
+
+			/**
+			 * Rows are expected newest first, same as the single entity queries
+			 */
+			private void addPermissionRow(String permission, String world, String value) {
+				worlds.add(world);
+				if (value == null) {
+					return;
+				}
+				if (world != null && world.isEmpty()) {
+					world = null;
+				}
+
+				if (value.isEmpty()) {
+					List<String> perms = permissions.get(world);
+					if (perms == null) {
+						perms = new LinkedList<>();
+						permissions.put(world, perms);
+					}
+					perms.add(permission);
+				} else {
+					Map<String, String> worldOpts = options.get(world);
+					if (worldOpts == null) {
+						worldOpts = new HashMap<>();
+						options.put(world, worldOpts);
+					}
+					if (!worldOpts.containsKey(permission)) {
+						worldOpts.put(permission, value);
+					}
+				}
+			}
+
+			private void addParentRow(String parent, String world) {
+				worlds.add(world);
+				List<String> worldParents = parents.get(world);
+				if (worldParents == null) {
+					worldParents = new LinkedList<>();
+					parents.put(world, worldParents);
+				}
+				worldParents.add(parent);
+			}
+
+			private Snapshot build() {
+				Map<String, List<String>> safePermissions = new HashMap<>();
+				for (Map.Entry<String, List<String>> e : permissions.entrySet()) {
+					safePermissions.put(e.getKey(), Collections.unmodifiableList(e.getValue()));
+				}
+				Map<String, Map<String, String>> safeOptions = new HashMap<>();
+				for (Map.Entry<String, Map<String, String>> e : options.entrySet()) {
+					safeOptions.put(e.getKey(), Collections.unmodifiableMap(e.getValue()));
+				}
+				Map<String, List<String>> safeParents = new HashMap<>();
+				for (Map.Entry<String, List<String>> e : parents.entrySet()) {
+					safeParents.put(e.getKey(), Collections.unmodifiableList(e.getValue()));
+				}
+				worlds.remove("");
+
+				return new Snapshot(name, virtual, Collections.unmodifiableMap(safePermissions), Collections.unmodifiableMap(safeOptions),
+						Collections.unmodifiableMap(safeParents), Collections.unmodifiableSet(worlds));
+			}
+		}
 	}
 }
@@ -0,0 +1,144 @@
+package ru.tehkode.permissions.backends.sql;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * Differences between the databases supported by {@link SQLBackend}.
+ *
+ * Queries are written with MySQL-style `quoted` identifiers and {table} placeholders. Database-specific queries
+ * are loaded from sql/&lt;name&gt;/queries.properties, tables are created by sql/&lt;name&gt;/deploy.sql.
+ * Databases without a dialect of their own use this one, which only relies on standard SQL and JDBC metadata.
+ */
+public class SQLDialect {
+	private static final int ROWS_PER_INSERT = 100;
+	private final String name;
+
+	protected SQLDialect(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @param driver Driver alias, the scheme of the database uri
+	 * @return Dialect for the database
+	 */
+	public static SQLDialect forDriver(String driver) {
+		switch (driver) {
+			case "mysql":
+				return new MySQLDialect();
+			case "sqlite":
+				return new SQLiteDialect();
+			case "postgres":
+			case "postgresql":
+				return new PostgreSQLDialect();
+			default:
+				return new SQLDialect(driver);
+		}
+	}
+
+	/**
+	 * @return Name of the directory holding database-specific queries and deploy script
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Rewrite a query for this database, after table names were expanded
+	 *
+	 * @param query Query with `quoted` identifiers
+	 * @return Query to execute
+	 */
+	public String translate(String query) {
+		return query;
+	}
+
+	/**
+	 * @param value String to write
+	 * @return String literal for value
+	 */
+	public String quoteString(String value) {
+		return "'" + value.replace("'", "''") + "'";
+	}
+
+	/**
+	 * @param columns Number of columns of each row
+	 * @return Maximum number of rows inserted by one INSERT statement
+	 */
+	public int getRowsPerInsert(int columns) {
+		return ROWS_PER_INSERT;
+	}
+
+	/**
+	 * @return Whether several connections may write at once without failing
+	 */
+	public boolean supportsConcurrentWrites() {
+		return true;
+	}
+
+	/**
+	 * @return Whether options can be set with the entity.options.upsert query, instead of a delete and an insert
+	 */
+	public boolean supportsOptionUpsert() {
+		return false;
+	}
+
+	/**
+	 * Bring the schema up to date with what this dialect needs, called on every start after tables are deployed
+	 *
+	 * @param conn Connection to use
+	 * @param logger Logger to report problems to
+	 */
+	public void prepareSchema(SQLConnection conn, Logger logger) throws SQLException {
+	}
+
+	/**
+	 * Build a statement creating a table, for dumps
+	 *
+	 * @param conn Connection to use
+	 * @param table Expanded table name
+	 * @return CREATE TABLE statement, without trailing semicolon
+	 */
+	public String getCreateTable(SQLConnection conn, String table) throws SQLException {
+		StringBuilder ret = new StringBuilder(translate("CREATE TABLE `" + table + "` ("));
+		try (ResultSet columns = conn.getMetaData().getColumns(null, null, table, null)) {
+			boolean first = true;
+			while (columns.next()) {
+				ret.append(first ? "\n  " : ",\n  ");
+				first = false;
+				ret.append(translate("`" + columns.getString("COLUMN_NAME") + "` ")).append(columns.getString("TYPE_NAME"));
+				String typeName = columns.getString("TYPE_NAME").toLowerCase();
+				if (typeName.contains("char")) {
+					ret.append('(').append(columns.getInt("COLUMN_SIZE")).append(')');
+				}
+				if (columns.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls) {
+					ret.append(" NOT NULL");
+				}
+			}
+		}
+		return ret.append("\n)").toString();
+	}
+
+	/**
+	 * @param version Version reported by the database, such as 3.7.2
+	 * @param required Components of required version
+	 * @return Whether version is at least the required one
+	 */
+	protected static boolean isAtLeast(String version, int... required) {
+		String[] parts = version.split("[^0-9]+");
+		for (int i = 0; i < required.length; i++) {
+			int part;
+			try {
+				part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+			} catch (NumberFormatException e) {
+				part = 0;
+			}
+			if (part != required[i]) {
+				return part > required[i];
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,69 @@
+package ru.tehkode.permissions.backends.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * SQLite, whose features depend on the library version bundled with the server.
+ * Options are upserted against a partial unique index, created on start when the library supports it.
+ */
+public class SQLiteDialect extends SQLDialect {
+	private volatile String version = "0";
+	private volatile boolean optionUpsert;
+
+	public SQLiteDialect() {
+		super("sqlite");
+	}
+
+	/**
+	 * Multi-row inserts are supported from SQLite 3.7.11
+	 */
+	@Override
+	public int getRowsPerInsert(int columns) {
+		return isAtLeast(version, 3, 7, 11) ? super.getRowsPerInsert(columns) : 1;
+	}
+
+	/**
+	 * SQLite locks the whole database for writing
+	 */
+	@Override
+	public boolean supportsConcurrentWrites() {
+		return false;
+	}
+
+	@Override
+	public boolean supportsOptionUpsert() {
+		return optionUpsert;
+	}
+
+	/**
+	 * Create the unique index on options needed for upserts, available from SQLite 3.24
+	 */
+	@Override
+	public void prepareSchema(SQLConnection conn, Logger logger) throws SQLException {
+		version = conn.getMetaData().getDatabaseProductVersion();
+		if (!isAtLeast(version, 3, 24)) {
+			return;
+		}
+
+		try {
+			conn.execute("CREATE UNIQUE INDEX IF NOT EXISTS `{permissions}_options` ON `{permissions}` (`name`, `type`, `world`, `permission`) WHERE LENGTH(`value`) > 0");
+			optionUpsert = true;
+		} catch (SQLException e) {
+			logger.warning("Unable to create unique index on options, duplicate options exist. Options will be written without upserts: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public String getCreateTable(SQLConnection conn, String table) throws SQLException {
+		try (PreparedStatement statement = conn.prepAndBind("SELECT `sql` FROM `sqlite_master` WHERE `type` = 'table' AND `name` = ?", table);
+				ResultSet res = statement.executeQuery()) {
+			if (!res.next()) {
+				throw new SQLException("No value for table create for table " + table);
+			}
+			return res.getString(1);
+		}
+	}
+}
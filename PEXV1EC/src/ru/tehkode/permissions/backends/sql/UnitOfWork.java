@@ -0,0 +1,89 @@
+package ru.tehkode.permissions.backends.sql;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * Transaction grouping the statements a thread executes on a {@link SQLBackend}.
+ *
+ * While a unit of work is open, {@link SQLBackend#getSQL()} returns the unit's connection on the opening thread.
+ * Statements prepared on it come from the data source's statement pool, so they are still closed after use. Units opened inside another unit use a savepoint,
+ * so a failing inner unit only rolls back its own statements. Intended usage:
+ * <pre>
+ * try (UnitOfWork work = backend.beginUnitOfWork(); SQLConnection conn = backend.getSQL()) {
+ *     // statements
+ *     work.commit();
+ * }
+ * </pre>
+ * Closing a unit without committing it rolls it back.
+ */
+public class UnitOfWork implements Closeable {
+	private final SQLBackend backend;
+	private final SQLConnection connection;
+	private final UnitOfWork outer;
+	private final Savepoint savepoint;
+	private boolean committed, closed;
+
+	UnitOfWork(SQLBackend backend, SQLConnection connection, UnitOfWork outer) throws SQLException {
+		this.backend = backend;
+		this.connection = connection;
+		this.outer = outer;
+		if (outer == null) {
+			connection.beginTransaction();
+			this.savepoint = null;
+		} else {
+			this.savepoint = connection.setSavepoint();
+		}
+	}
+
+	SQLConnection getConnection() {
+		return connection;
+	}
+
+	UnitOfWork getOuter() {
+		return outer;
+	}
+
+	/**
+	 * Commit statements of this unit. Statements of a nested unit are committed with the outermost unit.
+	 */
+	public void commit() throws SQLException {
+		if (closed || committed) {
+			throw new IllegalStateException("Unit of work is already " + (closed ? "closed" : "committed"));
+		}
+
+		if (outer == null) {
+			connection.commit();
+		} else {
+			connection.releaseSavepoint(savepoint);
+		}
+		committed = true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			if (!committed) {
+				if (outer == null) {
+					connection.rollback();
+				} else {
+					connection.rollback(savepoint);
+				}
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			backend.endUnitOfWork(this);
+			if (outer == null) {
+				connection.close();
+			}
+		}
+	}
+}
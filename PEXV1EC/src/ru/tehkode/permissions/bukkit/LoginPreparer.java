@@ -0,0 +1,248 @@
+package ru.tehkode.permissions.bukkit;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import ru.tehkode.permissions.PermissionManager;
+import ru.tehkode.permissions.PermissionUser;
+import ru.tehkode.permissions.ResolvedUserView;
+import ru.tehkode.permissions.bukkit.regexperms.PermissiblePEX;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+/**
+ * Resolves data of players about to log in off the main thread, up to the compiled permissions of their permissible.
+ * Login handlers on the main thread then only install the prepared data, waiting a bounded
+ * time for preparation still in progress and computing everything themselves if it is not ready.
+ */
+public class LoginPreparer {
+	private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(1);
+	private final PermissionsEx plugin;
+	private final ConcurrentMap<UUID, PendingLogin> pending = new ConcurrentHashMap<>();
+
+	public LoginPreparer(PermissionsEx plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Prepare login in the calling thread. Meant to be called from {@link org.bukkit.event.player.AsyncPlayerPreLoginEvent}.
+	 *
+	 * @param uid Player's unique id
+	 * @param name Player's name
+	 */
+	public void prepare(UUID uid, String name) {
+		createTask(uid, name).run();
+	}
+
+	/**
+	 * Prepare login in an async task. Used when user setup has to wait for the login event.
+	 *
+	 * @param uid Player's unique id
+	 * @param name Player's name
+	 */
+	public void prepareAsync(UUID uid, String name) {
+		plugin.getServer().getScheduler().runTaskAsynchronously(plugin, createTask(uid, name));
+	}
+
+	private FutureTask<PreparedLogin> createTask(final UUID uid, final String name) {
+		pruneExpired();
+		FutureTask<PreparedLogin> task = new FutureTask<>(new Callable<PreparedLogin>() {
+			@Override
+			public PreparedLogin call() throws Exception {
+				PermissionManager manager = plugin.getPermissionsManager();
+				manager.cacheUser(uid.toString(), name);
+				PermissionUser user = manager.getUser(uid);
+
+				PreparedLogin prepared = new PreparedLogin(plugin, uid, user);
+				prepared.prepareWorld(null);
+				List<World> worlds = plugin.getServer().getWorlds();
+				if (!worlds.isEmpty()) { // Most players join in the main world
+					prepared.prepareWorld(worlds.get(0).getName());
+				}
+				return prepared;
+			}
+		});
+		pending.put(uid, new PendingLogin(task));
+		return task;
+	}
+
+	private void pruneExpired() {
+		long now = System.currentTimeMillis();
+		for (Iterator<PendingLogin> it = pending.values().iterator(); it.hasNext(); ) {
+			if (now - it.next().created > MAX_AGE) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Get prepared login of player, waiting at most the configured timeout if it is still being prepared
+	 *
+	 * @param player Player logging in
+	 * @return Prepared login, or null if there is none or it was not ready in time
+	 */
+	public PreparedLogin get(Player player) {
+		PendingLogin login = pending.get(player.getUniqueId());
+		if (login == null) {
+			return null;
+		}
+
+		try {
+			return login.task.get(plugin.getConfiguration().getLoginPrepareTimeout(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			if (plugin.isDebug()) {
+				plugin.getLogger().info("Login of " + player.getName() + " was not prepared in time, resolving on main thread");
+			}
+		} catch (ExecutionException e) {
+			plugin.getLogger().log(Level.WARNING, "Unable to prepare login of " + player.getName(), e.getCause());
+			pending.remove(player.getUniqueId(), login);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+
+	/**
+	 * Get and forget prepared login of player
+	 *
+	 * @param player Player logging in
+	 * @return Prepared login, or null if there is none or it was not ready in time
+	 */
+	public PreparedLogin take(Player player) {
+		PreparedLogin ret = get(player);
+		discard(player);
+		return ret;
+	}
+
+	public void discard(Player player) {
+		pending.remove(player.getUniqueId());
+	}
+
+	public void clear() {
+		pending.clear();
+	}
+
+	private static class PendingLogin {
+		private final FutureTask<PreparedLogin> task;
+		private final long created = System.currentTimeMillis();
+
+		private PendingLogin(FutureTask<PreparedLogin> task) {
+			this.task = task;
+		}
+	}
+
+	/**
+	 * User data resolved ahead of login for a set of worlds
+	 */
+	public static class PreparedLogin {
+		private final PermissionsEx plugin;
+		private final UUID uid;
+		private final PermissionUser user;
+		private final Map<String, PreparedWorld> worlds = new HashMap<>();
+
+		private PreparedLogin(PermissionsEx plugin, UUID uid, PermissionUser user) {
+			this.plugin = plugin;
+			this.uid = uid;
+			this.user = user;
+		}
+
+		private void prepareWorld(String worldName) {
+			ResolvedUserView view = user.getView(worldName);
+			Map<String, Boolean> permissionChildren = SuperpermsListener.getPermissionChildren(user, worldName);
+			Map<String, Boolean> metadataChildren = SuperpermsListener.getMetadataChildren(user, worldName);
+			worlds.put(worldName, new PreparedWorld(view, permissionChildren, metadataChildren, compile(permissionChildren, metadataChildren)));
+		}
+
+		/**
+		 * Compile the permissions the player's permissible will have with the given children in the player's attachment
+		 *
+		 * @return Compiled permissions, or null if the permissible is not injected or they could not be compiled
+		 */
+		private PermissiblePEX.CompiledPermissions compile(Map<String, Boolean> permissionChildren, Map<String, Boolean> metadataChildren) {
+			if (plugin.getRegexPerms() == null) {
+				return null;
+			}
+
+			Map<String, Map<String, Boolean>> wrappers = new LinkedHashMap<>();
+			wrappers.put(SuperpermsListener.permissionName(uid, ""), permissionChildren);
+			wrappers.put(SuperpermsListener.permissionName(uid, ".options"), metadataChildren);
+			try {
+				return PermissiblePEX.compile(plugin, wrappers, plugin.getServer().getOfflinePlayer(uid).isOp());
+			} catch (RuntimeException e) { // Registered permissions changed while reading them, the login handler compiles instead
+				if (plugin.isDebug()) {
+					plugin.getLogger().log(Level.INFO, "Unable to compile permissions of " + uid + " ahead of login", e);
+				}
+				return null;
+			}
+		}
+
+		public PermissionUser getUser() {
+			return user;
+		}
+
+		/**
+		 * @param user User currently active for the player
+		 * @param worldName World to get children for
+		 * @return Children of the player's superperms permission, or null if not prepared or outdated
+		 */
+		public Map<String, Boolean> getPermissionChildren(PermissionUser user, String worldName) {
+			PreparedWorld world = getCurrent(user, worldName);
+			return world == null ? null : world.permissionChildren;
+		}
+
+		/**
+		 * @param user User currently active for the player
+		 * @param worldName World to get children for
+		 * @return Children of the player's superperms metadata permission, or null if not prepared or outdated
+		 */
+		public Map<String, Boolean> getMetadataChildren(PermissionUser user, String worldName) {
+			PreparedWorld world = getCurrent(user, worldName);
+			return world == null ? null : world.metadataChildren;
+		}
+
+		/**
+		 * @param user User currently active for the player
+		 * @param worldName World to get compiled permissions for
+		 * @return Permissions compiled for the prepared children, or null if not prepared or outdated
+		 */
+		public PermissiblePEX.CompiledPermissions getCompiledPermissions(PermissionUser user, String worldName) {
+			PreparedWorld world = getCurrent(user, worldName);
+			return world == null ? null : world.compiledPermissions;
+		}
+
+		private PreparedWorld getCurrent(PermissionUser user, String worldName) {
+			PreparedWorld world = worlds.get(worldName);
+			if (world == null || user != this.user || user.getView(worldName) != world.view) { // Data changed since preparation
+				return null;
+			}
+			return world;
+		}
+	}
+
+	private static class PreparedWorld {
+		private final ResolvedUserView view;
+		private final Map<String, Boolean> permissionChildren;
+		private final Map<String, Boolean> metadataChildren;
+		private final PermissiblePEX.CompiledPermissions compiledPermissions;
+
+		private PreparedWorld(ResolvedUserView view, Map<String, Boolean> permissionChildren, Map<String, Boolean> metadataChildren, PermissiblePEX.CompiledPermissions compiledPermissions) {
+			this.view = view;
+			this.permissionChildren = Collections.unmodifiableMap(permissionChildren);
+			this.metadataChildren = Collections.unmodifiableMap(metadataChildren);
+			this.compiledPermissions = compiledPermissions;
+		}
+	}
+}
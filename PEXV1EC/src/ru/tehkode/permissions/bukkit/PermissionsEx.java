@@ -37,6 +37,7 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginDescriptionFile;
@@ -49,6 +50,7 @@ import ru.tehkode.permissions.PermissionUser;
 import ru.tehkode.permissions.backends.MultiBackend;
 import ru.tehkode.permissions.backends.PermissionBackend;
 import ru.tehkode.permissions.backends.file.FileBackend;
+import ru.tehkode.permissions.backends.file.ShardedFileBackend;
 import ru.tehkode.permissions.backends.memory.MemoryBackend;
 import ru.tehkode.permissions.backends.sql.SQLBackend;
 import ru.tehkode.permissions.bukkit.commands.*;
@@ -68,6 +70,7 @@ public class PermissionsEx extends JavaPlugin implements NativeInterface {
 	protected CommandsManager commandsManager;
 	private PermissionsExConfig config;
 	protected SuperpermsListener superms;
+	private LoginPreparer loginPreparer;
 	private RegexPermissions regexPerms;
 	private NetEventsPlugin netEvents;
 	private boolean errored = false;
@@ -88,6 +91,7 @@ public class PermissionsEx extends JavaPlugin implements NativeInterface {
 
 		PermissionBackend.registerBackendAlias("sql", SQLBackend.class);
 		PermissionBackend.registerBackendAlias("file", FileBackend.class);
+		PermissionBackend.registerBackendAlias("sharded-file", ShardedFileBackend.class);
 		PermissionBackend.registerBackendAlias("memory", MemoryBackend.class);
 		PermissionBackend.registerBackendAlias("multi", MultiBackend.class);
 
@@ -195,6 +199,8 @@ public class PermissionsEx extends JavaPlugin implements NativeInterface {
 			this.commandsManager.register(new WorldCommands());
 			this.commandsManager.register(new UtilityCommands());
 
+			this.loginPreparer = new LoginPreparer(this);
+
 			// Register Player permissions cleaner
 			PlayerEventsListener cleaner = new PlayerEventsListener();
 			this.getServer().getPluginManager().registerEvents(cleaner, this);
@@ -300,6 +306,9 @@ public class PermissionsEx extends JavaPlugin implements NativeInterface {
 				this.superms.onDisable();
 				this.superms = null;
 			}
+			if (this.loginPreparer != null) {
+				this.loginPreparer.clear();
+			}
 
 		} catch (Throwable t) {
 			ErrorReport.handleError("While disabling", t);
@@ -350,6 +359,10 @@ public class PermissionsEx extends JavaPlugin implements NativeInterface {
 		return regexPerms;
 	}
 
+	public LoginPreparer getLoginPreparer() {
+		return loginPreparer;
+	}
+
 	@Override
 	public String UUIDToName(UUID uid) {
 		OfflinePlayer ply = null;
@@ -394,6 +407,20 @@ public class PermissionsEx extends JavaPlugin implements NativeInterface {
 		}
 	}
 
+	@Override
+	public void callLocalEvent(final PermissionEvent event) {
+		if (getServer().isPrimaryThread()) {
+			getServer().getPluginManager().callEvent(event);
+		} else {
+			getServer().getScheduler().runTask(this, new Runnable() {
+				@Override
+				public void run() {
+					getServer().getPluginManager().callEvent(event);
+				}
+			});
+		}
+	}
+
 	public static boolean isAvailable() {
 		Plugin plugin = getPlugin();
 
@@ -432,7 +459,14 @@ public class PermissionsEx extends JavaPlugin implements NativeInterface {
 		@EventHandler(priority = EventPriority.MONITOR)
 		public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
 			if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED && !requiresLateUserSetup()) {
-				getPermissionsManager().cacheUser(event.getUniqueId().toString(), event.getName());
+				getLoginPreparer().prepare(event.getUniqueId(), event.getName());
+			}
+		}
+
+		@EventHandler(priority = EventPriority.LOWEST)
+		public void onPlayerLoginLate(PlayerLoginEvent event) {
+			if (requiresLateUserSetup()) { // Player identity is only known now, prepare while other plugins handle login
+				getLoginPreparer().prepareAsync(event.getPlayer().getUniqueId(), event.getPlayer().getName());
 			}
 		}
 
@@ -1,5 +1,6 @@
 package ru.tehkode.permissions.bukkit;
 
+import com.mojang.api.profiles.HttpProfileRepository;
 import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.ConfigurationSection;
 import ru.tehkode.permissions.backends.PermissionBackend;
@@ -28,6 +29,13 @@ public class PermissionsExConfig {
 	private final boolean informPlayers;
 	private final List<String> serverTags;
 	private final String basedir;
+	private final int loginPrepareTimeout;
+	private final int writeDelay;
+	private final int writeBatchSize;
+	private final String uuidLookupUrl;
+	private final int uuidLookupThreads;
+	private final int uuidLookupRate;
+	private final int permissibleCacheSize;
 
 	public PermissionsExConfig(Configuration config, PermissionsEx plugin) {
 		this.config = config;
@@ -45,6 +53,13 @@ public class PermissionsExConfig {
 		this.alwaysUpdate = getBoolean("alwaysUpdate", false);
 		this.informPlayers = getBoolean("permissions.informplayers.changes", false);
 		this.basedir = getString("permissions.basedir", "plugins/PermissionsEx");
+		this.loginPrepareTimeout = getInt("permissions.login-prepare-timeout", 50);
+		this.writeDelay = getInt("permissions.write-behind.delay", 200);
+		this.writeBatchSize = getInt("permissions.write-behind.batch-size", 256);
+		this.uuidLookupUrl = getString("permissions.uuid-conversion.lookup-url", HttpProfileRepository.DEFAULT_PROFILES_URL);
+		this.uuidLookupThreads = getInt("permissions.uuid-conversion.threads", 4);
+		this.uuidLookupRate = getInt("permissions.uuid-conversion.requests-per-minute", 60);
+		this.permissibleCacheSize = getInt("permissions.superperms.check-cache-size", 1000);
 	}
 
 	private boolean getBoolean(String key, boolean def) {
@@ -54,6 +69,13 @@ public class PermissionsExConfig {
 		return config.getBoolean(key, def);
 	}
 
+	private int getInt(String key, int def) {
+		if (!config.isSet(key)) {
+			config.set(key, def);
+		}
+		return config.getInt(key, def);
+	}
+
 	private String getString(String key, String def) {
 		String ret = config.getString(key);
 		if (ret == null) {
@@ -124,6 +146,55 @@ public class PermissionsExConfig {
 		return basedir;
 	}
 
+	/**
+	 * @return Milliseconds login handlers wait for data prepared off the main thread before resolving it themselves
+	 */
+	public int getLoginPrepareTimeout() {
+		return loginPrepareTimeout;
+	}
+
+	/**
+	 * @return Milliseconds backend changes may wait to be written together with later changes
+	 */
+	public int getWriteDelay() {
+		return writeDelay;
+	}
+
+	/**
+	 * @return Number of pending backend changes that get written right away
+	 */
+	public int getWriteBatchSize() {
+		return writeBatchSize;
+	}
+
+	/**
+	 * @return Base url of the profile lookup service used for UUID conversion
+	 */
+	public String getUUIDLookupUrl() {
+		return uuidLookupUrl;
+	}
+
+	/**
+	 * @return Number of UUID lookup requests running at once during conversion
+	 */
+	public int getUUIDLookupThreads() {
+		return uuidLookupThreads;
+	}
+
+	/**
+	 * @return Maximum number of UUID lookup requests per minute during conversion
+	 */
+	public int getUUIDLookupRate() {
+		return uuidLookupRate;
+	}
+
+	/**
+	 * @return Maximum number of permission check results cached per player, 0 to disable caching
+	 */
+	public int getPermissibleCacheSize() {
+		return permissibleCacheSize;
+	}
+
 	public ConfigurationSection getBackendConfig(String backend) {
 		ConfigurationSection section = config.getConfigurationSection("permissions.backends." + backend);
 		if (section == null) {
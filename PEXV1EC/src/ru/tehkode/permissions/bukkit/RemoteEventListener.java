@@ -33,6 +33,9 @@ public class RemoteEventListener implements Listener {
 		if (isLocal(event)) {
 			return;
 		}
+		if (manager.getBackend() != null && manager.getBackend().isTrackingRemoteChanges()) { // Backend drops changed entities itself
+			return;
+		}
 		final boolean reloadEntity, reloadAll;
 
 		switch (event.getAction()) {
@@ -13,16 +13,23 @@ import org.bukkit.permissions.PermissionAttachment;
 import org.bukkit.permissions.PermissionDefault;
 import ru.tehkode.permissions.PermissionGroup;
 import ru.tehkode.permissions.PermissionUser;
+import ru.tehkode.permissions.bukkit.regexperms.PermissiblePEX;
 import ru.tehkode.permissions.events.PermissionEntityEvent;
 import ru.tehkode.permissions.events.PermissionSystemEvent;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 /**
  * PEX permissions database integration with superperms
+ *
+ * Only children that changed are written to the player's wrapper permissions, and Bukkit is only asked to recalculate
+ * a player's permissions if any of them did.
  */
 public class SuperpermsListener implements Listener {
 	private final PermissionsEx plugin;
@@ -40,6 +47,17 @@ public class SuperpermsListener implements Listener {
 	}
 
 	protected void updateAttachment(Player player, String worldName) {
+		updateAttachment(player, worldName, null);
+	}
+
+	/**
+	 * Update attachment of player, using data prepared ahead of login where it is still current
+	 *
+	 * @param player Player to update
+	 * @param worldName World to update attachment for
+	 * @param prepared Prepared login of player, or null
+	 */
+	protected void updateAttachment(Player player, String worldName, LoginPreparer.PreparedLogin prepared) {
 		PermissionAttachment attach = attachments.get(player.getUniqueId());
 		Permission playerPerm = getCreateWrapper(player, "");
 		Permission playerOptionPerm = getCreateWrapper(player, ".options");
@@ -55,14 +73,26 @@ public class SuperpermsListener implements Listener {
 			if (user.isDebug()) {
 				plugin.getLogger().info("Updating superperms for player " + player.getName());
 			}
-			updatePlayerPermission(playerPerm, user, worldName);
-			updatePlayerMetadata(playerOptionPerm, user, worldName);
-			player.recalculatePermissions();
+			Map<String, Boolean> permissionChildren = prepared == null ? null : prepared.getPermissionChildren(user, worldName);
+			Map<String, Boolean> metadataChildren = prepared == null ? null : prepared.getMetadataChildren(user, worldName);
+			boolean changed = setChildren(playerPerm, permissionChildren != null ? permissionChildren : getPermissionChildren(user, worldName));
+			changed |= setChildren(playerOptionPerm, metadataChildren != null ? metadataChildren : getMetadataChildren(user, worldName));
+			if (changed) {
+				PermissiblePEX.CompiledPermissions compiled = prepared == null ? null : prepared.getCompiledPermissions(user, worldName);
+				if (compiled != null && plugin.getRegexPerms() != null) { // Installed by the recalculation instead of compiling on the main thread
+					plugin.getRegexPerms().offerPrepared(player, compiled);
+				}
+				player.recalculatePermissions();
+			}
 		}
 	}
 
 	private String permissionName(Player player, String suffix) {
-		return "permissionsex.player." + player.getUniqueId().toString() + suffix;
+		return permissionName(player.getUniqueId(), suffix);
+	}
+
+	static String permissionName(UUID uid, String suffix) {
+		return "permissionsex.player." + uid.toString() + suffix;
 	}
 
 	private void removePEXPerm(Player player, String suffix) {
@@ -86,40 +116,116 @@ public class SuperpermsListener implements Listener {
 
 	}
 
-	private void updatePlayerPermission(Permission permission, PermissionUser user, String worldName) {
-		permission.getChildren().clear();
+	/**
+	 * Make children of permission equal to children, in the same order, as order decides which of conflicting children wins.
+	 * Only removes and adds children that differ, unless the order of the remaining ones changed.
+	 *
+	 * @param permission Permission to update
+	 * @param children New children
+	 * @return Whether children changed
+	 */
+	static boolean setChildren(Permission permission, Map<String, Boolean> children) {
+		Map<String, Boolean> current = permission.getChildren();
+		if (isSameOrder(current, children) && current.size() == children.size() && current.equals(children)) {
+			return false;
+		}
+
+		if (!isSameOrder(current, children)) {
+			current.clear();
+			current.putAll(children);
+			return true;
+		}
+
+		for (String key : new ArrayList<>(current.keySet())) {
+			if (!children.containsKey(key)) {
+				current.remove(key);
+			}
+		}
+		for (Map.Entry<String, Boolean> child : children.entrySet()) {
+			if (!child.getValue().equals(current.get(child.getKey()))) {
+				current.put(child.getKey(), child.getValue()); // Keeps position of existing children, appends new ones
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Whether children kept from current are in the same order in both, and come before any new children
+	 */
+	private static boolean isSameOrder(Map<String, Boolean> current, Map<String, Boolean> children) {
+		Iterator<String> currentKeys = current.keySet().iterator();
+		boolean appending = false;
+		for (String key : children.keySet()) {
+			if (!current.containsKey(key)) {
+				appending = true;
+				continue;
+			}
+			if (appending) {
+				return false;
+			}
+
+			String next;
+			do {
+				next = currentKeys.next();
+				if (!next.equals(key) && children.containsKey(next)) {
+					return false;
+				}
+			} while (!next.equals(key));
+		}
+		return true;
+	}
+
+	private boolean updatePlayerPermission(Permission permission, PermissionUser user, String worldName) {
+		return setChildren(permission, getPermissionChildren(user, worldName));
+	}
+
+	private boolean updatePlayerMetadata(Permission rootPermission, PermissionUser user, String worldName) {
+		return setChildren(rootPermission, getMetadataChildren(user, worldName));
+	}
+
+	/**
+	 * Flatten permissions of user into children of the player's superperms permission.
+	 * Does not touch any Bukkit state, so it can be called off the main thread.
+	 */
+	static Map<String, Boolean> getPermissionChildren(PermissionUser user, String worldName) {
+		Map<String, Boolean> children = new LinkedHashMap<>();
 		for (String perm : user.getPermissions(worldName)) {
 			boolean value = true;
 			if (perm.startsWith("-")) {
 				value = false;
 				perm = perm.substring(1);
 			}
-			if (!permission.getChildren().containsKey(perm)) {
-				permission.getChildren().put(perm, value);
+			if (!children.containsKey(perm)) {
+				children.put(perm, value);
 			}
 		}
+		return children;
 	}
 
-	private void updatePlayerMetadata(Permission rootPermission, PermissionUser user, String worldName) {
-		rootPermission.getChildren().clear();
+	/**
+	 * Flatten groups, options, prefix and suffix of user into children of the player's superperms metadata permission.
+	 * Does not touch any Bukkit state, so it can be called off the main thread.
+	 */
+	static Map<String, Boolean> getMetadataChildren(PermissionUser user, String worldName) {
+		Map<String, Boolean> children = new LinkedHashMap<>();
 		final List<String> groups = user.getParentIdentifiers(worldName);
 		final Map<String, String> options = user.getOptions(worldName);
 		// Metadata
 		// Groups
 		for (String group : groups) {
-			rootPermission.getChildren().put("groups." + group, true);
-			rootPermission.getChildren().put("group." + group, true);
+			children.put("groups." + group, true);
+			children.put("group." + group, true);
 		}
 
 		// Options
 		for (Map.Entry<String, String> option : options.entrySet()) {
-			rootPermission.getChildren().put("options." + option.getKey() + "." + option.getValue(), true);
+			children.put("options." + option.getKey() + "." + option.getValue(), true);
 		}
 
 		// Prefix and Suffix
-		rootPermission.getChildren().put("prefix." + user.getPrefix(worldName), true);
-		rootPermission.getChildren().put("suffix." + user.getSuffix(worldName), true);
-
+		children.put("prefix." + user.getPrefix(worldName), true);
+		children.put("suffix." + user.getSuffix(worldName), true);
+		return children;
 	}
 
 	protected void removeAttachment(Player player) {
@@ -142,7 +248,8 @@ public class SuperpermsListener implements Listener {
 	@EventHandler(priority = EventPriority.LOWEST)
 	public void onPlayerJoin(PlayerJoinEvent event) {
 		try {
-			updateAttachment(event.getPlayer());
+			final Player player = event.getPlayer();
+			updateAttachment(player, player.getWorld().getName(), plugin.getLoginPreparer().take(player));
 		} catch (Throwable t) {
 			ErrorReport.handleError("Superperms event join", t);
 		}
@@ -167,7 +274,7 @@ public class SuperpermsListener implements Listener {
 			final Player player = event.getPlayer();
 			// Because player world is inaccurate in the login event (at least with MV), start with null world and then reset to the real world in join event
 			removeAttachment(player);
-			updateAttachment(player, null);
+			updateAttachment(player, null, plugin.getLoginPreparer().get(player));
 		} catch (Throwable t) {
 			ErrorReport.handleError("Superperms event login", t);
 		}
@@ -177,6 +284,7 @@ public class SuperpermsListener implements Listener {
 	public void playerLoginDeny(PlayerLoginEvent event) {
 		if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
 			try {
+				plugin.getLoginPreparer().discard(event.getPlayer());
 				removeAttachment(event.getPlayer());
 				Player player = plugin.getServer().getPlayer(event.getPlayer().getUniqueId());
 				if (player != null && player.isOnline()) {
@@ -192,6 +300,7 @@ public class SuperpermsListener implements Listener {
 	// Technically not supposed to use MONITOR for this, but we don't want to remove before other plugins are done checking permissions
 	public void onPlayerQuit(PlayerQuitEvent event) {
 		try {
+			plugin.getLoginPreparer().discard(event.getPlayer());
 			removeAttachment(event.getPlayer());
 		} catch (Throwable t) {
 			ErrorReport.handleError("Superperms event quit", t);
@@ -210,8 +319,9 @@ public class SuperpermsListener implements Listener {
 					if (user.isDebug()) {
 						plugin.getLogger().info("Updating superperms permissions for player " + p.getName());
 					}
-					updatePlayerPermission(getCreateWrapper(p, ""), user, p.getWorld().getName());
-					p.recalculatePermissions();
+					if (updatePlayerPermission(getCreateWrapper(p, ""), user, p.getWorld().getName())) {
+						p.recalculatePermissions();
+					}
 					break;
 
 				case OPTIONS_CHANGED:
@@ -219,8 +329,9 @@ public class SuperpermsListener implements Listener {
 					if (user.isDebug()) {
 						plugin.getLogger().info("Updating superperms metadata for player " + p.getName());
 					}
-					updatePlayerMetadata(getCreateWrapper(p, ".options"), user, p.getWorld().getName());
-					p.recalculatePermissions();
+					if (updatePlayerMetadata(getCreateWrapper(p, ".options"), user, p.getWorld().getName())) {
+						p.recalculatePermissions();
+					}
 					break;
 
 				default:
@@ -116,7 +116,7 @@ public abstract class PermissionsCommand implements CommandListener {
 		}
 
 		// Collect registered PEX user names
-		for (String user : PermissionsEx.getPermissionManager().getUserNames()) {
+		for (String user : PermissionsEx.getPermissionManager().iterateUserNames()) {
 			if (user.equalsIgnoreCase(playerName)) {
 				return nameToUUID(user);
 			}
@@ -155,7 +155,7 @@ public abstract class PermissionsCommand implements CommandListener {
 
 		List<String> groups = new LinkedList<>();
 
-		for (String group : PermissionsEx.getPermissionManager().getGroupNames()) {
+		for (String group : PermissionsEx.getPermissionManager().iterateGroupNames()) {
 			if (group.equalsIgnoreCase(groupName)) {
 				return group;
 			}
@@ -22,7 +22,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 
 import org.bukkit.ChatColor;
@@ -44,10 +43,8 @@ public class UserCommands extends PermissionsCommand {
 			permission = "permissions.manage.users",
 			description = "List all registered users")
 	public void usersList(PermissionsEx plugin, CommandSender sender, Map<String, String> args) {
-		Set<PermissionUser> users = plugin.getPermissionsManager().getUsers();
-
 		sender.sendMessage(ChatColor.WHITE + "Currently registered users: ");
-		for (PermissionUser user : users) {
+		for (PermissionUser user : plugin.getPermissionsManager().iterateUsers()) {
 			sender.sendMessage(user.getIdentifier() + ChatColor.GRAY + " (Last known username: " + user.getName() + ") "  + ChatColor.DARK_GREEN + "[" + StringUtils.implode(user.getParentIdentifiers(), ", ") + "]");
 		}
 	}
@@ -18,36 +18,34 @@
  */
 package ru.tehkode.permissions.bukkit.commands;
 
-import com.google.common.collect.Iterables;
+import com.mojang.api.http.BasicHttpClient;
 import com.mojang.api.profiles.HttpProfileRepository;
-import com.mojang.api.profiles.Profile;
-import com.mojang.api.profiles.ProfileRepository;
 import org.bukkit.ChatColor;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
-import ru.tehkode.permissions.PermissionsUserData;
+import ru.tehkode.permissions.NodeDictionary;
+import ru.tehkode.permissions.backends.NameUUIDCache;
 import ru.tehkode.permissions.backends.PermissionBackend;
+import ru.tehkode.permissions.backends.UUIDConversion;
 import ru.tehkode.permissions.PermissionManager;
 import ru.tehkode.permissions.bukkit.ErrorReport;
 import ru.tehkode.permissions.bukkit.PermissionsEx;
+import ru.tehkode.permissions.bukkit.PermissionsExConfig;
 import ru.tehkode.permissions.commands.Command;
 import ru.tehkode.permissions.commands.CommandsManager.CommandBinding;
 import ru.tehkode.permissions.exceptions.PermissionBackendException;
 
 import java.io.File;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 public class UtilityCommands extends PermissionsCommand {
+	private final AtomicBoolean converting = new AtomicBoolean();
 
 	@Command(name = "pex",
 			syntax = "reload",
@@ -117,7 +115,25 @@ public class UtilityCommands extends PermissionsCommand {
 			permission = "permissions.manage.backend",
 			description = "Print currently used backend")
 	public void getBackend(PermissionsEx plugin, CommandSender sender, Map<String, String> args) {
-		sender.sendMessage("Current backend: " + plugin.getPermissionsManager().getBackend());
+		PermissionBackend backend = plugin.getPermissionsManager().getBackend();
+		sender.sendMessage("Current backend: " + backend);
+		sender.sendMessage("Write queue: " + backend.getWriteQueue());
+	}
+
+	@Command(name = "pex",
+			syntax = "memory",
+			permission = "permissions.manage.backend",
+			description = "Print memory used by cached permission nodes")
+	public void printMemoryReport(PermissionsEx plugin, CommandSender sender, Map<String, String> args) {
+		sender.sendMessage(NodeDictionary.getMemoryReport());
+	}
+
+	@Command(name = "pex",
+			syntax = "cache",
+			permission = "permissions.manage.backend",
+			description = "Print hit rate and size of the permission check caches")
+	public void printCacheReport(PermissionsEx plugin, CommandSender sender, Map<String, String> args) {
+		sender.sendMessage(plugin.getRegexPerms().getCacheReport());
 	}
 
 	@Command(name = "pex",
@@ -158,71 +174,62 @@ public class UtilityCommands extends PermissionsCommand {
 	@Command(name = "pex",
 			syntax = "convert uuid [force]",
 	        permission = "permissions.convert",
-	        description = "Bulk convert user data to UUID-based storage")
+	        description = "Bulk convert user data to UUID-based storage, resuming an interrupted conversion")
 	public void convertUUID(final PermissionsEx plugin, final CommandSender sender, Map<String, String> args) {
-		final PermissionBackend backend = plugin.getPermissionsManager().getBackend();
+		final PermissionManager manager = plugin.getPermissionsManager();
 		if (!plugin.getServer().getOnlineMode() && !"force".equals(args.get("force"))) {
 			sender.sendMessage(ChatColor.RED + "This server is running in offline mode and UUIDs may not be stable. Please run '/pex convert uuid force' to perform conversion anyway, or switch to online mode.");
 			return;
 		}
-		final ProfileRepository repo = new HttpProfileRepository("minecraft");
-		final Collection<String> userIdentifiers = new HashSet<>(backend.getUserIdentifiers());
-		for (Iterator<String> it = userIdentifiers.iterator(); it.hasNext(); ) {
-			try {
-				UUID.fromString(it.next());
-				it.remove();
-			} catch (IllegalArgumentException ex) {
-			}
-		}
-
-		if (userIdentifiers.isEmpty()) {
-			sender.sendMessage(ChatColor.RED + "No users to convert!");
+		if (!this.converting.compareAndSet(false, true)) {
+			sender.sendMessage(ChatColor.RED + "UUID conversion is already running!");
 			return;
 		}
 
-		sender.sendMessage("Beginning conversion to UUID in " + (int) Math.ceil(userIdentifiers.size() / 50000.0) + " batches of max 50k (1 batch is executed every 10 minutes)");
-		backend.setPersistent(false);
-		final Iterator<List<String>> splitIdentifiers = Iterables.partition(userIdentifiers, 50 * 1000).iterator(); // 50k users per 10 minutes
-		final AtomicInteger batchNum = new AtomicInteger(1);
+		PermissionsExConfig config = manager.getConfiguration();
+		File basedir = new File(config.getBasedir());
+		final UUIDConversion conversion = new UUIDConversion(manager.getBackend(),
+				new HttpProfileRepository("minecraft", BasicHttpClient.getInstance(), config.getUUIDLookupUrl()),
+				new NameUUIDCache(new File(basedir, "uuid-cache.properties"), plugin.getLogger()),
+				new File(basedir, "uuid-conversion.checkpoint"),
+				config.getUUIDLookupThreads(), config.getUUIDLookupRate(), UUIDConversion.DEFAULT_CHUNK_SIZE);
 
-		plugin.getPermissionsManager().getExecutor().execute(new Runnable() {
+		sender.sendMessage("Beginning conversion to UUID, progress is logged to the console");
+		plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
 			@Override
 			public void run() {
-				List<String> names = splitIdentifiers.next();
+				String message;
 				try {
-					for (Profile profile : repo.findProfilesByNames(names.toArray(new String[names.size()]))) {
-						PermissionsUserData data = backend.getUserData(profile.getName());
-						data.setIdentifier(profile.getId().replaceFirst("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})", "$1-$2-$3-$4-$5"));
-						data.setOption("name", profile.getName(), null);
-					}
-				} catch (Exception e) {
-					ErrorReport.handleError("While converting batch " + batchNum.get() + " to UUID", e);
-					backend.setPersistent(true);
-					return;
+					message = "UUID conversion complete, " + conversion.run() + " users converted";
+				} catch (RuntimeException e) {
+					ErrorReport.handleError("While converting users to UUID", e);
+					message = ChatColor.RED + "UUID conversion failed, run '/pex convert uuid' again to resume it";
+				} finally {
+					converting.set(false);
 				}
-				if (splitIdentifiers.hasNext()) {
-					plugin.getPermissionsManager().getExecutor().schedule(this, 10, TimeUnit.MINUTES);
-					plugin.getLogger().info("Completed conversion batch " + batchNum.getAndIncrement() + " of " + (int) Math.ceil(userIdentifiers.size() / 50000.0));
-				} else {
-					plugin.getLogger().info("UUID conversion complete");
-					if (!(sender instanceof Player) || ((Player) sender).isOnline()) {
-						sender.sendMessage("UUID conversion complete");
-					}
-					backend.setPersistent(true);
+
+				if (!(sender instanceof Player) || ((Player) sender).isOnline()) {
+					sender.sendMessage(message);
 				}
 			}
 		});
 	}
 
 	@Command(name = "pex",
-			syntax = "import <backend>",
+			syntax = "import <backend> [resume]",
 			permission = "permissions.dump",
-			description = "Import data from <backend> as specified in the configuration")
+			description = "Import data from <backend> as specified in the configuration, resume continues an interrupted import")
 	public void dumpData(PermissionsEx plugin, CommandSender sender, Map<String, String> args) {
+		PermissionManager mgr = plugin.getPermissionsManager();
+		File checkpointFile = new File(mgr.getConfiguration().getBasedir(), "import-" + args.get("backend") + ".checkpoint");
 		try {
-			PermissionManager mgr = plugin.getPermissionsManager();
+			if (!"resume".equals(args.get("resume")) && checkpointFile.exists() && !checkpointFile.delete()) {
+				sender.sendMessage(ChatColor.RED + "Unable to delete previous import checkpoint " + checkpointFile);
+				return;
+			}
+
 			PermissionBackend backend = mgr.createBackend(args.get("backend"));
-			mgr.getBackend().loadFrom(backend);
+			mgr.getBackend().loadFrom(backend, checkpointFile);
 
 			sender.sendMessage(ChatColor.WHITE + "[PermissionsEx] Data from \"" + args.get("backend") + "\" loaded into currently active backend");
 		} catch (RuntimeException e) {
@@ -230,6 +237,9 @@ public class UtilityCommands extends PermissionsCommand {
 				sender.sendMessage(ChatColor.RED + "Specified backend not found!");
 			} else {
 				sender.sendMessage(ChatColor.RED + "Error: " + e.getMessage());
+				if (checkpointFile.exists()) {
+					sender.sendMessage(ChatColor.RED + "Run '/pex import " + args.get("backend") + " resume' to continue the import.");
+				}
 				plugin.getLogger().severe("Error: " + e.getMessage());
 				e.printStackTrace();
 			}
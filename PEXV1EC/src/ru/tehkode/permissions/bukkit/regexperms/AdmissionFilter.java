@@ -0,0 +1,72 @@
+package ru.tehkode.permissions.bukkit.regexperms;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate set of recently checked permissions, deciding which check results are worth caching.
+ * A result is only admitted to the cache once its permission was checked before, so permissions checked just once
+ * (generated nodes like shop.item.&lt;id&gt;) do not evict results that are checked over and over.
+ *
+ * Membership is tracked with two hashed bits per permission, cleared after half as many permissions were added as the
+ * cache holds, so only recent checks count. Thread-safe without locking, a lost update only delays admission.
+ */
+final class AdmissionFilter {
+	private static final int BITS_PER_ENTRY = 8;
+	private final AtomicLongArray bits;
+	private final int mask;
+	private final int resetAfter;
+	private final AtomicInteger additions = new AtomicInteger();
+
+	/**
+	 * @param entries Number of results the cache holds
+	 */
+	AdmissionFilter(int entries) {
+		int size = Integer.highestOneBit(Math.max(64, Math.min(entries, 1 << 24) * BITS_PER_ENTRY - 1) << 1);
+		this.bits = new AtomicLongArray(size >>> 6);
+		this.mask = size - 1;
+		this.resetAfter = Math.max(1, entries / 2); // Keeps at most an eighth of the bits set, around 1% false positives
+	}
+
+	/**
+	 * Record a check of the permission
+	 *
+	 * @param permission Checked permission
+	 * @return Whether the permission was already checked recently
+	 */
+	boolean recordCheck(String permission) {
+		int hash = permission.hashCode() * 0x9E3779B9;
+		int first = hash & mask, second = (hash >>> 16 | hash << 16) * 0x85EBCA6B & mask;
+		if (isSet(first) && isSet(second)) {
+			return true;
+		}
+		set(first);
+		set(second);
+		if (additions.incrementAndGet() >= resetAfter) {
+			reset();
+		}
+		return false;
+	}
+
+	private boolean isSet(int bit) {
+		return (bits.get(bit >>> 6) & (1L << bit)) != 0;
+	}
+
+	private void set(int bit) {
+		int index = bit >>> 6;
+		long bitMask = 1L << bit, current;
+		do {
+			current = bits.get(index);
+			if ((current & bitMask) != 0) {
+				return;
+			}
+		} while (!bits.compareAndSet(index, current, current | bitMask));
+	}
+
+	private void reset() {
+		additions.set(0);
+		for (int i = 0; i < bits.length(); i++) {
+			bits.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package ru.tehkode.permissions.bukkit.regexperms;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import ru.tehkode.permissions.PermissionCheckResult;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of permission check results with segmented LRU eviction.
+ * Results enter a probationary segment and move to a protected segment, holding most of the entries, once they are hit there.
+ * Results evicted from the protected segment go back to the probationary one, so only results hit at most once since
+ * being cached are evicted. A burst of new permissions therefore only competes for the probationary segment and cannot
+ * flush results that are checked over and over.
+ *
+ * Keys are the plain lowercased permissions. They cannot be compacted to hashes or fingerprints, as a collision would
+ * answer a check with the result of another permission, and they are not interned, as evicted keys would stay in memory.
+ */
+public final class CheckResultCache {
+	private final Cache<String, Entry> probation;
+	private final Cache<String, Entry> protectedSegment;
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+	private volatile int generation;
+
+	/**
+	 * @param size Maximum number of results cached
+	 */
+	CheckResultCache(int size) {
+		final int protectedSize = size * 4 / 5;
+		this.probation = CacheBuilder.newBuilder()
+				.maximumSize(size - protectedSize)
+				.removalListener(new RemovalListener<String, Entry>() {
+					@Override
+					public void onRemoval(RemovalNotification<String, Entry> notification) {
+						if (notification.wasEvicted()) {
+							evictions.increment();
+						}
+					}
+				})
+				.build();
+		this.protectedSegment = CacheBuilder.newBuilder()
+				.maximumSize(protectedSize)
+				.removalListener(new RemovalListener<String, Entry>() {
+					@Override
+					public void onRemoval(RemovalNotification<String, Entry> notification) {
+						if (notification.wasEvicted() && notification.getValue().generation == generation) {
+							probation.asMap().putIfAbsent(notification.getKey(), notification.getValue());
+						}
+					}
+				})
+				.build();
+	}
+
+	/**
+	 * @param permission Lower-case permission
+	 * @return Cached result, or null if there is none
+	 */
+	public PermissionCheckResult getIfPresent(String permission) {
+		Entry entry = getCurrent(protectedSegment, permission);
+		if (entry == null) {
+			entry = getCurrent(probation, permission);
+			if (entry != null && probation.asMap().remove(permission, entry)) { // Hit again while on probation
+				protectedSegment.put(permission, entry);
+			}
+		}
+
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.result;
+	}
+
+	private Entry getCurrent(Cache<String, Entry> segment, String permission) {
+		Entry entry = segment.getIfPresent(permission);
+		if (entry != null && entry.generation != generation) { // Moved between segments while invalidating
+			segment.asMap().remove(permission, entry);
+			return null;
+		}
+		return entry;
+	}
+
+	public void put(String permission, PermissionCheckResult result) {
+		probation.put(permission, new Entry(result, generation));
+	}
+
+	public void invalidate(String permission) {
+		probation.invalidate(permission);
+		protectedSegment.invalidate(permission);
+	}
+
+	public void invalidateAll() {
+		generation++;
+		probation.invalidateAll();
+		protectedSegment.invalidateAll();
+	}
+
+	/**
+	 * @return Number of results currently cached
+	 */
+	public long size() {
+		return probation.size() + protectedSegment.size();
+	}
+
+	/**
+	 * @return Hit, miss and eviction counts
+	 */
+	public CacheStats stats() {
+		return new CacheStats(hits.sum(), misses.sum(), 0, 0, 0, evictions.sum());
+	}
+
+	private static final class Entry {
+		private final PermissionCheckResult result;
+		private final int generation;
+
+		private Entry(PermissionCheckResult result, int generation) {
+			this.result = result;
+			this.generation = generation;
+		}
+	}
+}
@@ -8,22 +8,30 @@ import ru.tehkode.permissions.bukkit.PermissionsEx;
 import ru.tehkode.utils.FieldReplacer;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * PermissibleMap for the permissions subscriptions data in Bukkit's {@link PluginManager} so we can put in our own data too.
+ *
+ * Online players having each permission are resolved when first asked for. Afterwards {@link #updateSubscriber(Player)}
+ * only updates the membership of a player whose permissions changed, or who joined or left, in every resolved set.
  */
 public class PEXPermissionSubscriptionMap extends HashMap<String, Map<Permissible, Boolean>> {
 	private static FieldReplacer<PluginManager, Map> INJECTOR;
 	private static final AtomicReference<PEXPermissionSubscriptionMap> INSTANCE = new AtomicReference<>();
 	private final PermissionsEx plugin;
 	private final PluginManager manager;
-
+	// Incremented whenever a player is updated, so subscribers resolved meanwhile can be discarded
+	private final AtomicLong updates = new AtomicLong();
+	private final Object updateLock = new Object();
+	private final Set<PEXSubscriptionValueMap> resolved = Collections.newSetFromMap(new ConcurrentHashMap<PEXSubscriptionValueMap, Boolean>());
 
 	private PEXPermissionSubscriptionMap(PermissionsEx plugin, PluginManager manager, Map<String, Map<Permissible, Boolean>> backing) {
 		super(backing);
@@ -61,6 +69,34 @@ public class PEXPermissionSubscriptionMap extends HashMap<String, Map<Permissibl
 		}
 	}
 
+	/**
+	 * Update whether the player subscribes to each permission whose subscribers were resolved.
+	 * Must be called whenever the permissions of the player, or whether it is online, may have changed.
+	 * Updates are serialized, so the last one reflects the player's latest permissions.
+	 *
+	 * @param player Player to update
+	 */
+	public static void updateSubscriber(Player player) {
+		PEXPermissionSubscriptionMap map = INSTANCE.get();
+		if (map != null) {
+			map.updates.incrementAndGet();
+			synchronized (map.updateLock) {
+				final boolean online = player.isOnline();
+				for (PEXSubscriptionValueMap value : map.resolved) {
+					Set<Permissible> subscribers = value.subscribers;
+					if (subscribers == null) {
+						continue;
+					}
+					if (online && player.hasPermission(value.permission)) {
+						subscribers.add(player);
+					} else {
+						subscribers.remove(player);
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * Uninject this PEX map from its plugin manager
 	 */
@@ -104,6 +140,8 @@ public class PEXPermissionSubscriptionMap extends HashMap<String, Map<Permissibl
 	public class PEXSubscriptionValueMap implements Map<Permissible, Boolean> {
 		private final String permission;
 		private final Map<Permissible, Boolean> backing;
+		// Online players having this permission, kept up to date by updateSubscriber once resolved
+		private volatile Set<Permissible> subscribers;
 
 		public PEXSubscriptionValueMap(String permission, Map<Permissible, Boolean> backing) {
 			this.permission = permission;
@@ -163,14 +201,29 @@ public class PEXPermissionSubscriptionMap extends HashMap<String, Map<Permissibl
 
 		@Override
 		public Set<Permissible> keySet() {
-			Collection<? extends Player> players = plugin.getServer().getOnlinePlayers();
-			Set<Permissible> pexMatches = new HashSet<Permissible>(players.size());
-			for (Player player : players) {
-				if (player.hasPermission(permission)) {
-					pexMatches.add(player);
+			return Sets.union(getSubscribers(), backing.keySet());
+		}
+
+		/**
+		 * @return Online players having this permission, resolved when first asked for
+		 */
+		private Set<Permissible> getSubscribers() {
+			Set<Permissible> ret = subscribers;
+			if (ret == null) {
+				final long currentUpdates = updates.get(); // Read first, so updates made while resolving are noticed
+				ret = Collections.newSetFromMap(new ConcurrentHashMap<Permissible, Boolean>());
+				for (Player player : plugin.getServer().getOnlinePlayers()) {
+					if (player.hasPermission(permission)) {
+						ret.add(player);
+					}
+				}
+				subscribers = ret;
+				resolved.add(this);
+				if (updates.get() != currentUpdates) { // Player updated meanwhile, possibly before this was added
+					subscribers = null;
 				}
 			}
-			return Sets.union(pexMatches, backing.keySet());
+			return ret;
 		}
 
 		@Override
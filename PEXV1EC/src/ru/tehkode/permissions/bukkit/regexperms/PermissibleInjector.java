@@ -36,7 +36,7 @@ public abstract class PermissibleInjector {
 			return null;
 		}
 		Permissible oldPerm = (Permissible) permField.get(player);
-		if (copyValues && permissible instanceof PermissibleBase) {
+		if (permissible instanceof PermissibleBase && copiesValues(oldPerm)) {
 			PermissibleBase newBase = (PermissibleBase) permissible;
 			PermissibleBase oldBase = (PermissibleBase) oldPerm;
 			copyValues(oldBase, newBase);
@@ -47,6 +47,14 @@ public abstract class PermissibleInjector {
 		return oldPerm;
 	}
 
+	/**
+	 * @param oldPermissible Permissible replaced by {@link #inject(Player, Permissible)}
+	 * @return Whether values of oldPermissible are copied on injection, which recalculates the injected permissible
+	 */
+	public boolean copiesValues(Permissible oldPermissible) {
+		return copyValues && oldPermissible instanceof PermissibleBase;
+	}
+
 	public Permissible getPermissible(Player player) throws NoSuchFieldException, IllegalAccessException {
 		return (Permissible) getPermissibleField(player).get(player);
 	}
@@ -18,6 +18,7 @@
  */
 package ru.tehkode.permissions.bukkit.regexperms;
 
+import com.google.common.cache.CacheStats;
 import org.apache.commons.lang.Validate;
 import org.bukkit.entity.Player;
 import org.bukkit.permissions.Permissible;
@@ -25,22 +26,26 @@ import org.bukkit.permissions.PermissibleBase;
 import org.bukkit.permissions.Permission;
 import org.bukkit.permissions.PermissionAttachment;
 import org.bukkit.permissions.PermissionAttachmentInfo;
+import org.bukkit.plugin.PluginManager;
 import ru.tehkode.permissions.PermissionCheckResult;
 import ru.tehkode.permissions.PermissionMatcher;
 import ru.tehkode.permissions.PermissionUser;
+import ru.tehkode.permissions.TrieMatcher;
 import ru.tehkode.permissions.bukkit.ErrorReport;
 import ru.tehkode.permissions.bukkit.PermissionsEx;
 import ru.tehkode.utils.FieldReplacer;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -48,7 +53,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * If a permission match is found using existing superperms methods, it takes priority.
  * However, if a match is not found we use a {@link PermissionMatcher} set in the plugin object to check for a permissions match, caching values.
  *
- * Class should be thread-safe
+ * Check results are cached per player, up to a configured number of permissions, evicting by segmented LRU, see {@link CheckResultCache}.
+ * Results are only cached for permissions checked more than once recently, see {@link AdmissionFilter}.
+ *
+ * Class should be thread-safe. Recalculation publishes an immutable, compiled snapshot of the effective permissions,
+ * so checks never wait on the lock held while attachments are recalculated.
  */
 public class PermissiblePEX extends PermissibleBase {
 	private static final FieldReplacer<PermissibleBase, Map> PERMISSIONS_FIELD = new FieldReplacer<>(PermissibleBase.class, "permissions", Map.class);
@@ -71,14 +80,27 @@ public class PermissiblePEX extends PermissibleBase {
 	protected final Player player;
 	protected final PermissionsEx plugin;
 	private Permissible previousPermissible = null;
-	protected final Map<String, PermissionCheckResult> cache = new ConcurrentHashMap<>();
+	protected final CheckResultCache cache;
+	private final AdmissionFilter cacheAdmission;
 	private final Object permissionsLock = new Object();
+	private volatile CompiledPermissions compiledPermissions = CompiledPermissions.EMPTY;
+	private volatile CompiledPermissions preparedPermissions;
 
-	@SuppressWarnings("unchecked")
 	public PermissiblePEX(Player player, PermissionsEx plugin) {
+		this(player, plugin, true);
+	}
+
+	/**
+	 * @param recalculate Whether to calculate permissions right away. Injection skips it, as it recalculates once injected
+	 */
+	@SuppressWarnings("unchecked")
+	PermissiblePEX(Player player, PermissionsEx plugin, boolean recalculate) {
 		super(player);
 		this.player = player;
 		this.plugin = plugin;
+		final int cacheSize = Math.max(0, plugin.getConfiguration().getPermissibleCacheSize());
+		this.cache = new CheckResultCache(cacheSize);
+		this.cacheAdmission = cacheSize > 0 ? new AdmissionFilter(cacheSize) : null;
 		permissions = new LinkedHashMap<String, PermissionAttachmentInfo>() {
 			/**
 			 * Customized put() useable ONLY for this permissible. It's pretty weird otherwise.
@@ -99,7 +121,9 @@ public class PermissiblePEX extends PermissibleBase {
 		};
 		PERMISSIONS_FIELD.set(this, permissions);
 		this.attachments = ATTACHMENTS_FIELD.get(this);
-		recalculatePermissions();
+		if (recalculate) {
+			recalculatePermissions();
+		}
 	}
 
 	public Permissible getPreviousPermissible() {
@@ -172,7 +196,6 @@ public class PermissiblePEX extends PermissibleBase {
 		if (cache != null && permissions != null && attachments != null) {
 			synchronized (permissionsLock) {
 				clearPermissions();
-				cache.clear();
 				for (ListIterator<PermissionAttachment> it = this.attachments.listIterator(this.attachments.size()); it.hasPrevious(); ) {
 					PermissionAttachment attach = it.previous();
 					calculateChildPerms(attach.getPermissions(), false, attach);
@@ -182,10 +205,78 @@ public class PermissiblePEX extends PermissibleBase {
 					this.permissions.put(p.getName(), new PermissionAttachmentInfo(player, p.getName(), null, true));
 					calculateChildPerms(p.getChildren(), false, null);
 				}
+				final CompiledPermissions prepared = preparedPermissions;
+				final PermissionMatcher matcher = getMatcher();
+				preparedPermissions = null;
+				compiledPermissions = prepared != null && prepared.isCompiledFrom(permissions.values(), matcher) ? prepared : new CompiledPermissions(permissions.values(), matcher);
+				cache.invalidateAll();
 			}
+			PEXPermissionSubscriptionMap.updateSubscriber(player);
 		}
 	}
 
+	/**
+	 * Offer permissions compiled ahead of time, see {@link #compile(PermissionsEx, Map, boolean)}.
+	 * The next recalculation installs them instead of compiling if they equal what it calculated.
+	 *
+	 * @param prepared Compiled permissions
+	 */
+	public void offerPrepared(CompiledPermissions prepared) {
+		this.preparedPermissions = prepared;
+	}
+
+	/**
+	 * Compile the permissions of a player whose only attachment sets the given wrapper permissions,
+	 * expanding children the same way recalculation does. Meant to be called off the main thread before the player is online.
+	 *
+	 * @param plugin Plugin instance
+	 * @param wrappers Permissions set by the attachment, mapped to their children, which need not be registered yet
+	 * @param op Whether the player is op, which decides the default permissions
+	 * @return Compiled permissions to offer with {@link #offerPrepared(CompiledPermissions)}
+	 */
+	public static CompiledPermissions compile(PermissionsEx plugin, Map<String, Map<String, Boolean>> wrappers, boolean op) {
+		PluginManager pluginManager = plugin.getServer().getPluginManager();
+		Map<String, Boolean> effective = new LinkedHashMap<>();
+		for (Map.Entry<String, Map<String, Boolean>> wrapper : wrappers.entrySet()) {
+			putIfAbsent(effective, wrapper.getKey().toLowerCase(), true);
+			calculateChildPerms(pluginManager, effective, wrapper.getValue(), false);
+		}
+		for (Permission p : pluginManager.getDefaultPermissions(op)) {
+			putIfAbsent(effective, p.getName(), true);
+			calculateChildPerms(pluginManager, effective, p.getChildren(), false);
+		}
+
+		String[] expressions = new String[effective.size()];
+		boolean[] values = new boolean[effective.size()];
+		int i = 0;
+		for (Map.Entry<String, Boolean> ent : effective.entrySet()) {
+			expressions[i] = ent.getKey();
+			values[i++] = ent.getValue();
+		}
+		return new CompiledPermissions(expressions, values, plugin.getPermissionsManager().getPermissionMatcher());
+	}
+
+	private static void calculateChildPerms(PluginManager pluginManager, Map<String, Boolean> effective, Map<String, Boolean> children, boolean invert) {
+		for (Map.Entry<String, Boolean> ent : children.entrySet()) {
+			boolean value = ent.getValue() ^ invert;
+			putIfAbsent(effective, ent.getKey().toLowerCase(), value);
+			Permission perm = pluginManager.getPermission(ent.getKey());
+			if (perm != null) {
+				calculateChildPerms(pluginManager, effective, perm.getChildren(), !value);
+			}
+		}
+	}
+
+	private static void putIfAbsent(Map<String, Boolean> effective, String permission, boolean value) {
+		if (!effective.containsKey(permission)) { // Like the permissions map, the first value set wins
+			effective.put(permission, value);
+		}
+	}
+
+	private PermissionMatcher getMatcher() {
+		return plugin.getPermissionsManager() == null ? null : plugin.getPermissionsManager().getPermissionMatcher();
+	}
+
 	protected void calculateChildPerms(Map<String, Boolean> children, boolean invert, PermissionAttachment attachment) {
 		try {
 			CALC_CHILD_PERMS_METH.invoke(this, children, invert, attachment);
@@ -196,6 +287,20 @@ public class PermissiblePEX extends PermissibleBase {
 		}
 	}
 
+	/**
+	 * @return Hit, miss and eviction counts of this player's check result cache
+	 */
+	public CacheStats getCacheStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @return Number of check results currently cached
+	 */
+	public long getCacheSize() {
+		return cache.size();
+	}
+
 	@Override
 	public boolean isPermissionSet(String permission) {
 		return super.isPermissionSet(permission) || permissionValue(permission) != PermissionCheckResult.UNDEFINED;
@@ -209,24 +314,11 @@ public class PermissiblePEX extends PermissibleBase {
 		}
 	}
 
-	private PermissionCheckResult checkSingle(String expression, String permission, boolean value) {
-		if (plugin.getPermissionsManager().getPermissionMatcher().isMatches(expression, permission)) {
-			PermissionCheckResult res = PermissionCheckResult.fromBoolean(value);
-			if (isDebug()) {
-				plugin.getLogger().info("User " + player.getName() +
-						" checked for permission '" + permission + "', regex-matched a value of "
-						+ res + " from " + expression + " (CACHE MISS)");
-			}
-			return res;
-		}
-		return PermissionCheckResult.UNDEFINED;
-	}
-
 	protected PermissionCheckResult permissionValue(String permission) {
 		try {
 			Validate.notNull(permission, "Permissions being checked must not be null!");
 			permission = permission.toLowerCase();
-			PermissionCheckResult res = cache.get(permission);
+			PermissionCheckResult res = cache.getIfPresent(permission);
 			if (res != null) {
 				if (isDebug()) {
 					plugin.getLogger().info("User " + player.getName() + " checked for permission '" + permission + "', regex-matched a value of " + res + " from cache.");
@@ -234,12 +326,17 @@ public class PermissiblePEX extends PermissibleBase {
 				return res;
 			}
 
+			final CompiledPermissions compiled = compiledPermissions;
+			final PermissionMatcher matcher = getMatcher();
 			res = PermissionCheckResult.UNDEFINED;
-
-			synchronized (permissionsLock) {
-				for (PermissionAttachmentInfo pai : permissions.values()) {
-					if ((res = checkSingle(pai.getPermission(), permission, pai.getValue())) != PermissionCheckResult.UNDEFINED) {
-						break;
+			if (matcher != null) {
+				int index = compiled.getMatchingIndex(permission, matcher);
+				if (index != -1) {
+					res = PermissionCheckResult.fromBoolean(compiled.values[index]);
+					if (isDebug()) {
+						plugin.getLogger().info("User " + player.getName() +
+								" checked for permission '" + permission + "', regex-matched a value of "
+								+ res + " from " + compiled.expressions[index] + " (CACHE MISS)");
 					}
 				}
 			}
@@ -254,7 +351,12 @@ public class PermissiblePEX extends PermissibleBase {
 					}
 				}
 			}
-			cache.put(permission, res);
+			if (cacheAdmission != null && cacheAdmission.recordCheck(permission)) {
+				cache.put(permission, res);
+				if (compiledPermissions != compiled) { // Recalculated meanwhile, result may be stale
+					cache.invalidate(permission);
+				}
+			}
 			if (res == PermissionCheckResult.UNDEFINED && isDebug()) {
 				plugin.getLogger().info("User " + player.getName() + " checked for permission '" + permission + "', no match found (CACHE MISS)");
 			}
@@ -267,4 +369,71 @@ public class PermissiblePEX extends PermissibleBase {
 			return PermissionCheckResult.UNDEFINED;
 		}
 	}
+
+	/**
+	 * Effective permissions at the time of a recalculation, in the order they are checked
+	 */
+	public static final class CompiledPermissions {
+		static final CompiledPermissions EMPTY = new CompiledPermissions(Collections.<PermissionAttachmentInfo>emptyList(), null);
+
+		private final String[] expressions;
+		private final boolean[] values;
+		private final PermissionMatcher compiledWith;
+		private final TrieMatcher.CompiledExpressions compiled;
+
+		CompiledPermissions(Collection<PermissionAttachmentInfo> permissions, PermissionMatcher matcher) {
+			this(new String[permissions.size()], new boolean[permissions.size()], matcher, permissions);
+		}
+
+		CompiledPermissions(String[] expressions, boolean[] values, PermissionMatcher matcher) {
+			this(expressions, values, matcher, Collections.<PermissionAttachmentInfo>emptyList());
+		}
+
+		private CompiledPermissions(String[] expressions, boolean[] values, PermissionMatcher matcher, Collection<PermissionAttachmentInfo> permissions) {
+			int i = 0;
+			for (PermissionAttachmentInfo pai : permissions) { // Fill the arrays when compiling from a recalculation
+				expressions[i] = pai.getPermission();
+				values[i++] = pai.getValue();
+			}
+			this.expressions = expressions;
+			this.values = values;
+			this.compiledWith = matcher;
+			this.compiled = matcher instanceof TrieMatcher ? ((TrieMatcher) matcher).compile(Arrays.asList(expressions)) : null;
+		}
+
+		/**
+		 * @param permissions Effective permissions, in order
+		 * @param matcher Current permission matcher
+		 * @return Whether these are the given permissions compiled with the given matcher
+		 */
+		boolean isCompiledFrom(Collection<PermissionAttachmentInfo> permissions, PermissionMatcher matcher) {
+			if (matcher != compiledWith || permissions.size() != expressions.length) {
+				return false;
+			}
+			int i = 0;
+			for (PermissionAttachmentInfo pai : permissions) {
+				if (pai.getValue() != values[i] || !pai.getPermission().equals(expressions[i++])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @param permission Lower-case permission to check
+		 * @param matcher Current permission matcher, expressions are matched one by one if it is not the one compiled with
+		 * @return Index of the first matching expression, or -1 if none matches
+		 */
+		int getMatchingIndex(String permission, PermissionMatcher matcher) {
+			if (compiled != null && matcher == compiledWith) {
+				return compiled.getMatchingIndex(permission);
+			}
+			for (int i = 0; i < expressions.length; i++) {
+				if (matcher.isMatches(expressions[i], permission)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
 }
@@ -1,20 +1,25 @@
 package ru.tehkode.permissions.bukkit.regexperms;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.google.common.collect.ImmutableList;
 import org.bukkit.permissions.Permission;
 import org.bukkit.plugin.PluginManager;
 import ru.tehkode.utils.FieldReplacer;
 
+import java.util.AbstractMap;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Permissions map of the plugin manager, indexing which permissions are children of which.
+ *
+ * Parents of each child are kept as an immutable list, replaced on every change, so looking them up never locks or copies.
+ * Changes to the index are made under a lock and only touch the links of the changed parent.
+ *
  * @author zml2008
  */
 public class PermissionList extends HashMap<String, Permission> {
@@ -26,14 +31,21 @@ public class PermissionList extends HashMap<String, Permission> {
 	 * v.k = parent permission
 	 * v.v = value parent gives child
 	 */
-	private final Multimap<String, Map.Entry<String, Boolean>> childParentMapping = Multimaps.synchronizedMultimap(HashMultimap.<String, Map.Entry<String, Boolean>>create());
+	private final Map<String, ImmutableList<Map.Entry<String, Boolean>>> childParentMapping = new ConcurrentHashMap<>();
+	/**
+	 * k = parent permission
+	 * v = children permissions, guarded by mappingLock
+	 */
+	private final Map<String, Set<String>> parentChildMapping = new HashMap<>();
+	private final Object mappingLock = new Object();
 
 	public PermissionList() {
 		super();
 	}
 
 	public PermissionList(Map<? extends String, ? extends Permission> existing) {
-		super(existing);
+		super(existing.size());
+		putAll(existing);
 	}
 
 	private FieldReplacer<Permission, Map> getFieldReplacer(Permission perm) {
@@ -45,10 +57,78 @@ public class PermissionList extends HashMap<String, Permission> {
 		return ret;
 	}
 
-	private void removeAllChildren(String perm) {
-		for (Iterator<Map.Entry<String, Map.Entry<String, Boolean>>> it = childParentMapping.entries().iterator(); it.hasNext();) {
-			if (it.next().getValue().getKey().equals(perm)) {
-				it.remove();
+	/**
+	 * Record that parent gives child a value, replacing the value it gave before
+	 */
+	private void addToMapping(String parent, String child, boolean value) {
+		parent = parent.toLowerCase();
+		child = child.toLowerCase();
+		synchronized (mappingLock) {
+			ImmutableList.Builder<Map.Entry<String, Boolean>> parents = ImmutableList.builder();
+			ImmutableList<Map.Entry<String, Boolean>> existing = childParentMapping.get(child);
+			if (existing != null) {
+				for (Map.Entry<String, Boolean> link : existing) {
+					if (!link.getKey().equals(parent)) {
+						parents.add(link);
+					}
+				}
+			}
+			childParentMapping.put(child, parents.add(new AbstractMap.SimpleImmutableEntry<>(parent, value)).build());
+
+			Set<String> children = parentChildMapping.get(parent);
+			if (children == null) {
+				children = new HashSet<>();
+				parentChildMapping.put(parent, children);
+			}
+			children.add(child);
+		}
+	}
+
+	/**
+	 * Only call under mappingLock
+	 */
+	private void removeParent(String parent, String child) {
+		ImmutableList<Map.Entry<String, Boolean>> existing = childParentMapping.get(child);
+		if (existing == null) {
+			return;
+		}
+		ImmutableList.Builder<Map.Entry<String, Boolean>> parents = ImmutableList.builder();
+		int size = 0;
+		for (Map.Entry<String, Boolean> link : existing) {
+			if (!link.getKey().equals(parent)) {
+				parents.add(link);
+				size++;
+			}
+		}
+		if (size == 0) {
+			childParentMapping.remove(child);
+		} else if (size != existing.size()) {
+			childParentMapping.put(child, parents.build());
+		}
+	}
+
+	private void removeFromMapping(String parent, String child) {
+		parent = parent.toLowerCase();
+		child = child.toLowerCase();
+		synchronized (mappingLock) {
+			Set<String> children = parentChildMapping.get(parent);
+			if (children != null && children.remove(child)) {
+				removeParent(parent, child);
+				if (children.isEmpty()) {
+					parentChildMapping.remove(parent);
+				}
+			}
+		}
+	}
+
+	private void removeAllChildren(String parent) {
+		parent = parent.toLowerCase();
+		synchronized (mappingLock) {
+			Set<String> children = parentChildMapping.remove(parent);
+			if (children != null) {
+				for (String child : children) {
+					removeParent(parent, child);
+				}
 			}
 		}
 	}
@@ -61,25 +141,23 @@ public class PermissionList extends HashMap<String, Permission> {
 		}
 		@Override
 		public Boolean remove(Object perm) {
-			removeFromMapping(String.valueOf(perm));
+			removeFromMapping(this.perm.getName(), String.valueOf(perm));
 			return super.remove(perm);
 		}
 
-		private void removeFromMapping(String child) {
-			for (Iterator<Map.Entry<String, Boolean>> it = childParentMapping.get(child).iterator(); it.hasNext();) {
-				if (it.next().getKey().equals(perm.getName())) {
-					it.remove();
-				}
-			}
-		}
-
 		@Override
 		public Boolean put(String perm, Boolean val) {
-			//removeFromMapping(perm);
-			childParentMapping.put(perm, new SimpleEntry<>(this.perm.getName(), val));
+			addToMapping(this.perm.getName(), perm, val);
 			return super.put(perm, val);
 		}
 
+		@Override
+		public void putAll(Map<? extends String, ? extends Boolean> m) {
+			for (Map.Entry<? extends String, ? extends Boolean> ent : m.entrySet()) {
+				put(ent.getKey(), ent.getValue());
+			}
+		}
+
 		@Override
 		public void clear() {
 			removeAllChildren(perm.getName());
@@ -101,19 +179,31 @@ public class PermissionList extends HashMap<String, Permission> {
 
 	@Override
 	public Permission put(String k, Permission v) {
+		Permission ret = super.put(k, v);
+		if (ret != null && ret != v) {
+			removeAllChildren(ret.getName());
+			getFieldReplacer(ret).set(ret, new LinkedHashMap<>(ret.getChildren()));
+		}
 		for (Map.Entry<String, Boolean> ent : v.getChildren().entrySet()) {
-			childParentMapping.put(ent.getKey(), new SimpleEntry<>(v.getName(), ent.getValue()));
+			addToMapping(v.getName(), ent.getKey(), ent.getValue());
 		}
 		FieldReplacer<Permission, Map> repl = getFieldReplacer(v);
 		repl.set(v, new NotifyingChildrenMap(v));
-		return super.put(k, v);
+		return ret;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends Permission> m) {
+		for (Map.Entry<? extends String, ? extends Permission> ent : m.entrySet()) {
+			put(ent.getKey(), ent.getValue());
+		}
 	}
 
 	@Override
 	public Permission remove(Object k) {
 		Permission ret = super.remove(k);
 		if (ret != null) {
-			removeAllChildren(k.toString());
+			removeAllChildren(ret.getName());
 			getFieldReplacer(ret).set(ret, new LinkedHashMap<>(ret.getChildren()));
 		}
 		return ret;
@@ -121,11 +211,19 @@ public class PermissionList extends HashMap<String, Permission> {
 
 	@Override
 	public void clear() {
-		childParentMapping.clear();
+		synchronized (mappingLock) {
+			childParentMapping.clear();
+			parentChildMapping.clear();
+		}
 		super.clear();
 	}
 
+	/**
+	 * @param permission Child permission
+	 * @return Parents of the permission with the value each gives it. The returned collection is immutable and not copied.
+	 */
 	public Collection<Map.Entry<String, Boolean>> getParents(String permission) {
-		return ImmutableSet.copyOf(childParentMapping.get(permission.toLowerCase()));
+		ImmutableList<Map.Entry<String, Boolean>> ret = childParentMapping.get(permission.toLowerCase());
+		return ret == null ? ImmutableList.<Map.Entry<String, Boolean>>of() : ret;
 	}
 }
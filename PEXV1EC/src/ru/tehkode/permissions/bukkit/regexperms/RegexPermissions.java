@@ -1,9 +1,11 @@
 package ru.tehkode.permissions.bukkit.regexperms;
 
+import com.google.common.cache.CacheStats;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.permissions.Permissible;
@@ -23,6 +25,9 @@ public class RegexPermissions {
 	private PermissionList permsList;
 	// Permissions subscriptions handling
 	private PEXPermissionSubscriptionMap subscriptionHandler;
+	// Check cache statistics of permissibles already uninjected
+	private final Object cacheStatsLock = new Object();
+	private CacheStats retiredCacheStats = new CacheStats(0, 0, 0, 0, 0, 0);
 
 	public RegexPermissions(PermissionsEx plugin) {
 		this.plugin = plugin;
@@ -53,15 +58,71 @@ public class RegexPermissions {
 		return permsList;
 	}
 
+	/**
+	 * @return Human-readable check cache statistics of all permissibles injected since enabling
+	 */
+	public String getCacheReport() {
+		CacheStats stats;
+		synchronized (cacheStatsLock) {
+			stats = retiredCacheStats;
+		}
+		long entries = 0;
+		int players = 0;
+		for (Player player : plugin.getServer().getOnlinePlayers()) {
+			PermissiblePEX permissible = getPermissible(player);
+			if (permissible != null) {
+				stats = stats.plus(permissible.getCacheStats());
+				entries += permissible.getCacheSize();
+				players++;
+			}
+		}
+		return "Permission check cache (up to " + plugin.getConfiguration().getPermissibleCacheSize() + " results per player): "
+				+ entries + " results cached for " + players + " players. "
+				+ stats.hitCount() + " hits, " + stats.missCount() + " misses (hit rate " + String.format("%.1f%%", stats.hitRate() * 100) + "), "
+				+ stats.evictionCount() + " evictions";
+	}
+
+	/**
+	 * @param player Player to get permissible of
+	 * @return PEX permissible injected into the player, or null if there is none
+	 */
+	private PermissiblePEX getPermissible(Player player) {
+		for (PermissibleInjector injector : injectors) {
+			if (injector.isApplicable(player)) {
+				try {
+					Permissible permissible = injector.getPermissible(player);
+					if (permissible instanceof PermissiblePEX) {
+						return (PermissiblePEX) permissible;
+					}
+				} catch (NoSuchFieldException | IllegalAccessException ignore) {
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Offer permissions compiled ahead of time to the player's permissible, to be installed by its next recalculation
+	 *
+	 * @param player Player to offer to
+	 * @param prepared Compiled permissions, see {@link PermissiblePEX#compile}
+	 */
+	public void offerPrepared(Player player, PermissiblePEX.CompiledPermissions prepared) {
+		PermissiblePEX permissible = getPermissible(player);
+		if (permissible != null) {
+			permissible.offerPrepared(prepared);
+		}
+	}
+
 	public void injectPermissible(Player player) {
 		if (player.hasPermission("permissionsex.disabled")) { // this user shouldn't get permissionsex matching
 			return;
 		}
 
 		try {
-			PermissiblePEX permissible = new PermissiblePEX(player, plugin);
+			PermissiblePEX permissible = new PermissiblePEX(player, plugin, false);
 
-			boolean success = false, found = false;
+			boolean success = false, found = false, recalculated = false;
 			for (PermissibleInjector injector : injectors) {
 				if (injector.isApplicable(player)) {
 					found = true;
@@ -69,6 +130,7 @@ public class RegexPermissions {
 					if (oldPerm != null) {
 						permissible.setPreviousPermissible(oldPerm);
 						success = true;
+						recalculated = injector.copiesValues(oldPerm);
 						break;
 					}
 				}
@@ -80,7 +142,9 @@ public class RegexPermissions {
 				plugin.getLogger().warning("Unable to inject PEX's permissible for " + player.getName());
 			}
 
-			permissible.recalculatePermissions();
+			if (!recalculated) {
+				permissible.recalculatePermissions();
+			}
 
 			if (success && hasDebugMode()) {
 				plugin.getLogger().info("Permissions handler for " + player.getName() + " successfully injected");
@@ -104,6 +168,9 @@ public class RegexPermissions {
 					Permissible pexPerm = injector.getPermissible(player);
 					if (pexPerm instanceof PermissiblePEX) {
 						if (injector.inject(player, ((PermissiblePEX) pexPerm).getPreviousPermissible()) != null) {
+							synchronized (cacheStatsLock) {
+								retiredCacheStats = retiredCacheStats.plus(((PermissiblePEX) pexPerm).getCacheStats());
+							}
 							success = true;
 							break;
 						}
@@ -136,10 +203,26 @@ public class RegexPermissions {
 			injectPermissible(event.getPlayer());
 		}
 
+		@EventHandler(priority = EventPriority.LOWEST)
+		public void onPlayerJoin(PlayerJoinEvent event) {
+			// Player is online now, not yet when its permissible was injected at login
+			PEXPermissionSubscriptionMap.updateSubscriber(event.getPlayer());
+		}
+
 		@EventHandler(priority = EventPriority.MONITOR)
 		// Technically not supposed to use MONITOR for this, but we don't want to remove before other plugins are done checking permissions
 		public void onPlayerQuit(PlayerQuitEvent event) {
-			uninjectPermissible(event.getPlayer());
+			final Player player = event.getPlayer();
+			uninjectPermissible(player);
+			// Player is only removed from online players after this event
+			if (plugin.isEnabled()) {
+				plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+					@Override
+					public void run() {
+						PEXPermissionSubscriptionMap.updateSubscriber(player);
+					}
+				});
+			}
 		}
 
 		@EventHandler(priority = EventPriority.LOWEST)
@@ -0,0 +1,90 @@
+package ru.tehkode.permissions.backends.caching;
+
+import org.junit.Test;
+import ru.tehkode.permissions.backends.memory.MemoryData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CachingDataTest {
+	@Test
+	public void setThenRemoveWithinDelayLeavesNothingBehind() {
+		HeldExecutor executor = new HeldExecutor();
+		RemovableData backing = new RemovableData("user");
+		CachingUserData data = new CachingUserData(backing, executor, new Object());
+
+		data.setPermissions(Arrays.asList("test.permission"), null);
+		data.setOption("prefix", "[Test]", null);
+		data.remove();
+		executor.flush();
+
+		assertTrue(backing.removed);
+		assertFalse(backing.recreated);
+		assertTrue(data.getPermissions(null).isEmpty());
+	}
+
+	@Test
+	public void writesAfterRemoveAreKept() {
+		HeldExecutor executor = new HeldExecutor();
+		RemovableData backing = new RemovableData("user");
+		CachingUserData data = new CachingUserData(backing, executor, new Object());
+
+		data.setPermissions(Arrays.asList("old.permission"), null);
+		data.remove();
+		data.setPermissions(Arrays.asList("new.permission"), null);
+		executor.flush();
+
+		assertTrue(backing.recreated);
+		assertEquals(Arrays.asList("new.permission"), backing.getPermissions(null));
+	}
+
+	/**
+	 * Holds queued writes until flushed, like the write-behind queue does during its delay
+	 */
+	private static class HeldExecutor implements Executor {
+		private final List<Runnable> queued = new ArrayList<>();
+
+		@Override
+		public void execute(Runnable command) {
+			queued.add(command);
+		}
+
+		void flush() {
+			for (Runnable task : queued) {
+				task.run();
+			}
+			queued.clear();
+		}
+	}
+
+	private static class RemovableData extends MemoryData {
+		private boolean removed, recreated;
+
+		RemovableData(String name) {
+			super(name);
+		}
+
+		@Override
+		public void setPermissions(List<String> permissions, String worldName) {
+			recreated |= removed;
+			super.setPermissions(permissions, worldName);
+		}
+
+		@Override
+		public void setOption(String option, String value, String worldName) {
+			recreated |= removed;
+			super.setOption(option, value, worldName);
+		}
+
+		@Override
+		public void remove() {
+			removed = true;
+		}
+	}
+}
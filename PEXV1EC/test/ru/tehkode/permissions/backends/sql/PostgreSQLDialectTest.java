@@ -0,0 +1,146 @@
+package ru.tehkode.permissions.backends.sql;
+
+import org.junit.Test;
+import ru.tehkode.utils.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Translation is checked directly. The deploy and change log scripts, option upsert and clock query are checked in two ways:
+ * - Against the PostgreSQL server named by the pex.test.postgresql system property, a JDBC URL including credentials.
+ *   These tests are skipped if it is not set, and they create and drop their own tables.
+ * - Against embedded SQLite, which implements PostgreSQL's partial indexes and upsert syntax. This only shows that the
+ *   statements are well formed and that the upsert leaves permissions alone, not that PostgreSQL accepts them.
+ *   SQLite has no EXTRACT, so the clock query only runs against PostgreSQL.
+ */
+public class PostgreSQLDialectTest {
+	private static final String POSTGRESQL_URL = System.getProperty("pex.test.postgresql");
+	private final PostgreSQLDialect dialect = new PostgreSQLDialect();
+
+	@Test
+	public void identifiersAreDoubleQuoted() {
+		assertEquals("SELECT \"value\" FROM \"permissions\" WHERE \"name\" = ?",
+				dialect.translate("SELECT `value` FROM `permissions` WHERE `name` = ?"));
+	}
+
+	@Test
+	public void backticksInLiteralsAreKept() {
+		assertEquals("INSERT INTO \"permissions\" VALUES ('`quoted`', 'it''s `here`', \"world\")",
+				dialect.translate("INSERT INTO `permissions` VALUES ('`quoted`', 'it''s `here`', `world`)"));
+	}
+
+	@Test
+	public void deployAndOptionUpsertOnSQLite() throws SQLException, IOException {
+		try (Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+			deployAndUpsert(conn, "");
+		}
+	}
+
+	@Test
+	public void deployAndOptionUpsertOnPostgreSQL() throws SQLException, IOException {
+		assumeTrue("Set pex.test.postgresql to run against PostgreSQL", POSTGRESQL_URL != null);
+		final String prefix = "pex_test_" + System.nanoTime() + "_";
+		try (Connection conn = DriverManager.getConnection(POSTGRESQL_URL)) {
+			try {
+				deployAndUpsert(conn, prefix);
+			} finally {
+				try (Statement statement = conn.createStatement()) {
+					statement.execute("DROP TABLE IF EXISTS \"" + prefix + "permissions\", \"" + prefix + "permissions_entity\", \""
+							+ prefix + "permissions_inheritance\", \"" + prefix + "permissions_changes\"");
+				}
+			}
+		}
+	}
+
+	@Test
+	public void clockOnPostgreSQL() throws SQLException, IOException {
+		assumeTrue("Set pex.test.postgresql to run against PostgreSQL", POSTGRESQL_URL != null);
+		try (Connection conn = DriverManager.getConnection(POSTGRESQL_URL);
+				Statement statement = conn.createStatement();
+				ResultSet res = statement.executeQuery(dialect.translate(loadQueries().getProperty("changes.now")))) {
+			assertTrue(res.next());
+			// Milliseconds rather than seconds, allowing for the database clock to be off by a day
+			assertTrue(Math.abs(res.getLong(1) - System.currentTimeMillis()) < TimeUnit.DAYS.toMillis(1));
+		}
+	}
+
+	private void deployAndUpsert(Connection conn, String prefix) throws SQLException, IOException {
+		try (Statement statement = conn.createStatement()) {
+			for (String script : new String[] {"/sql/postgresql/deploy.sql", "/sql/postgresql/changes.sql"}) {
+				for (String query : read(script).trim().split(";")) {
+					if (!query.trim().isEmpty()) {
+						statement.execute(dialect.translate(expand(query, prefix)));
+					}
+				}
+			}
+		}
+
+		Properties queries = loadQueries();
+		String upsert = dialect.translate(expand(queries.getProperty("entity.options.upsert"), prefix));
+		setOption(conn, upsert, "prefix", "[A]");
+		setOption(conn, upsert, "prefix", "[B]");
+		setOption(conn, upsert, "suffix", "[C]");
+
+		try (PreparedStatement permission = conn.prepareStatement(dialect.translate(expand(queries.getProperty("entity.options.add"), prefix)))) {
+			for (int i = 0; i < 2; i++) { // Permissions have no value and are not covered by the unique index
+				permission.setString(1, "group");
+				permission.setInt(2, SQLData.Type.GROUP.ordinal());
+				permission.setString(3, "some.permission");
+				permission.setString(4, "");
+				permission.setString(5, "");
+				permission.execute();
+			}
+		}
+
+		try (Statement statement = conn.createStatement();
+				ResultSet res = statement.executeQuery("SELECT \"permission\", \"value\" FROM \"" + prefix + "permissions\" ORDER BY \"permission\", \"id\"")) {
+			StringBuilder rows = new StringBuilder();
+			while (res.next()) {
+				rows.append(res.getString(1)).append('=').append(res.getString(2)).append(';');
+			}
+			assertEquals("prefix=[B];some.permission=;some.permission=;suffix=[C];", rows.toString());
+		}
+	}
+
+	private static void setOption(Connection conn, String upsert, String option, String value) throws SQLException {
+		try (PreparedStatement statement = conn.prepareStatement(upsert)) {
+			statement.setString(1, "group");
+			statement.setInt(2, SQLData.Type.GROUP.ordinal());
+			statement.setString(3, option);
+			statement.setString(4, "");
+			statement.setString(5, value);
+			statement.execute();
+		}
+	}
+
+	private static String expand(String query, String prefix) {
+		return query.replaceAll("\\{([^}]+)\\}", prefix + "$1");
+	}
+
+	private Properties loadQueries() throws IOException {
+		Properties queries = new Properties();
+		try (InputStream is = getClass().getResourceAsStream("/sql/postgresql/queries.properties")) {
+			queries.load(is);
+		}
+		return queries;
+	}
+
+	private String read(String resource) throws IOException {
+		try (InputStream is = getClass().getResourceAsStream(resource)) {
+			return StringUtils.readStream(is);
+		}
+	}
+}
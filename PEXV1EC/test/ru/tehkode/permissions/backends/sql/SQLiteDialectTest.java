@@ -0,0 +1,180 @@
+package ru.tehkode.permissions.backends.sql;
+
+import org.bukkit.configuration.MemoryConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ru.tehkode.permissions.NativeInterface;
+import ru.tehkode.permissions.PermissionManager;
+import ru.tehkode.permissions.backends.PermissionBackend;
+import ru.tehkode.permissions.bukkit.PermissionsExConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SQL backend running against an embedded SQLite database
+ */
+public class SQLiteDialectTest {
+	private File database;
+	private PermissionManager manager;
+
+	@Before
+	public void setUp() throws Exception {
+		database = File.createTempFile("pex-test", ".db");
+		database.delete();
+		manager = createManager();
+	}
+
+	@After
+	public void tearDown() {
+		manager.end();
+		database.delete();
+	}
+
+	@Test
+	public void freshDeployIsAtLatestSchemaVersion() throws Exception {
+		SQLBackend backend = getBackend();
+		backend.flush(); // Default group is written behind
+		try (SQLConnection conn = backend.getSQL()) {
+			assertTrue(conn.hasTable("{permissions}"));
+			assertTrue(conn.hasTable("{permissions_entity}"));
+			assertTrue(conn.hasTable("{permissions_inheritance}"));
+		}
+		assertTrue(backend.getLatestSchemaVersion() >= 0);
+		assertEquals(backend.getLatestSchemaVersion(), backend.getSchemaVersion());
+		assertEquals(Collections.singletonList("modifyworld.*"), backend.getGroupData("default").getPermissions(null));
+
+		// Upgrade steps must not run on the next start
+		manager.end();
+		manager = createManager();
+		assertEquals(getBackend().getLatestSchemaVersion(), getBackend().getSchemaVersion());
+		assertEquals(Collections.singletonList("modifyworld.*"), getBackend().getGroupData("default").getPermissions(null));
+	}
+
+	@Test
+	public void optionsAreUpserted() throws Exception {
+		SQLBackend backend = getBackend();
+		assertTrue(backend.getDialect().supportsOptionUpsert());
+
+		SQLData data = new SQLData("group", SQLData.Type.GROUP, backend);
+		data.setOption("prefix", "[A]", null);
+		data.setOption("prefix", "[B]", null);
+		data.setOption("prefix", "[C]", "world");
+		assertEquals(2, countOptions(backend, "prefix"));
+		assertEquals("[B]", new SQLData("group", SQLData.Type.GROUP, backend).getOption("prefix", null));
+		assertEquals("[C]", new SQLData("group", SQLData.Type.GROUP, backend).getOption("prefix", "world"));
+
+		data.setOption("prefix", null, null);
+		assertEquals(1, countOptions(backend, "prefix"));
+	}
+
+	@Test
+	public void translatedQueriesRun() throws Exception {
+		SQLBackend backend = getBackend();
+		SQLData data = new SQLData("user", SQLData.Type.USER, backend);
+		data.setPermissions(Collections.singletonList("some.permission"), null);
+		data.setParents(Collections.singletonList("default"), "world");
+		data.save();
+
+		SQLData loaded = new SQLData("user", SQLData.Type.USER, backend);
+		loaded.load();
+		assertEquals(Collections.singletonList("some.permission"), loaded.getPermissions(null));
+		assertEquals(Collections.singletonList("default"), loaded.getParents("world"));
+	}
+
+	@Test
+	public void manyStatementsOnOneConnection() throws Exception {
+		SQLBackend backend = getBackend();
+		new SQLData("user", SQLData.Type.USER, backend).setPermissions(Collections.singletonList("some.permission"), null);
+
+		// Three statements per batch, past the statement pool's limit
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			names.add("user" + i);
+		}
+		try (SQLConnection conn = backend.getSQL()) {
+			Map<String, SQLData.Snapshot> snapshots = SQLData.fetchSnapshots(conn, SQLData.Type.USER, names);
+			assertEquals(20000, snapshots.size());
+		}
+
+		// Same query while a result set of it is still open, inside a unit of work
+		try (UnitOfWork work = backend.beginUnitOfWork(); SQLConnection conn = backend.getSQL();
+				PreparedStatement outer = conn.prepAndBind("entity.permissions.get_all", "user", SQLData.Type.USER.ordinal());
+				ResultSet res = outer.executeQuery()) {
+			assertTrue(res.next());
+			assertEquals(Collections.singletonList("some.permission"), new SQLData("user", SQLData.Type.USER, backend).getPermissionsMap().get(null));
+			assertEquals("some.permission", res.getString("permission"));
+		}
+	}
+
+	@Test
+	public void flushFromQueuedWrite() throws Exception {
+		final SQLBackend backend = getBackend();
+		final CountDownLatch flushed = new CountDownLatch(1);
+		backend.getWriteQueue().execute(new Runnable() {
+			@Override
+			public void run() {
+				backend.getWriteQueue().execute(new Runnable() {
+					@Override
+					public void run() {
+						new SQLData("user", SQLData.Type.USER, backend).setPermissions(Collections.singletonList("some.permission"), null);
+					}
+				});
+				backend.flush();
+				flushed.countDown();
+			}
+		});
+		assertTrue(flushed.await(10, TimeUnit.SECONDS));
+
+		backend.flush();
+		assertEquals(Collections.singletonList("some.permission"), new SQLData("user", SQLData.Type.USER, backend).getPermissions(null));
+	}
+
+	private int countOptions(SQLBackend backend, String option) throws SQLException, IOException {
+		try (SQLConnection conn = backend.getSQL();
+				PreparedStatement statement = conn.prepAndBind("SELECT COUNT(*) FROM `{permissions}` WHERE `permission` = ? AND LENGTH(`value`) > 0", option);
+				ResultSet res = statement.executeQuery()) {
+			res.next();
+			return res.getInt(1);
+		}
+	}
+
+	private SQLBackend getBackend() {
+		return (SQLBackend) manager.getBackend();
+	}
+
+	private PermissionManager createManager() throws Exception {
+		PermissionBackend.registerBackendAlias("sql", SQLBackend.class);
+		MemoryConfiguration config = new MemoryConfiguration();
+		config.set("permissions.backend", "sql");
+		config.set("permissions.basedir", database.getParent());
+		config.set("permissions.backends.sql.type", "sql");
+		config.set("permissions.backends.sql.uri", "sqlite:" + database.getPath());
+		config.set("permissions.backends.sql.change-feed", false);
+		config.set("multiserver.use-netevents", false);
+		return new PermissionManager(new PermissionsExConfig(config, null), Logger.getLogger("PermissionsEx-Test"), (NativeInterface) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{NativeInterface.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				return method.getName().equals("getServerUUID") ? new UUID(0, 0) : null;
+			}
+		}));
+	}
+}
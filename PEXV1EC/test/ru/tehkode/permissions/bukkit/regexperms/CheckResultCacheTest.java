@@ -0,0 +1,43 @@
+package ru.tehkode.permissions.bukkit.regexperms;
+
+import org.junit.Test;
+import ru.tehkode.permissions.PermissionCheckResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CheckResultCacheTest {
+	@Test
+	public void hotResultsSurviveBurst() {
+		CheckResultCache cache = new CheckResultCache(100);
+		for (int i = 0; i < 10; i++) {
+			cache.put("hot." + i, PermissionCheckResult.TRUE);
+			assertEquals(PermissionCheckResult.TRUE, cache.getIfPresent("hot." + i));
+		}
+
+		for (int i = 0; i < 10000; i++) {
+			cache.put("shop.item." + i, PermissionCheckResult.FALSE);
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(PermissionCheckResult.TRUE, cache.getIfPresent("hot." + i));
+		}
+		assertTrue(cache.size() <= 100);
+		assertTrue(cache.stats().evictionCount() > 0);
+	}
+
+	@Test
+	public void invalidateAllDropsBothSegments() {
+		CheckResultCache cache = new CheckResultCache(100);
+		cache.put("protected", PermissionCheckResult.TRUE);
+		cache.getIfPresent("protected");
+		cache.put("probation", PermissionCheckResult.TRUE);
+
+		cache.invalidateAll();
+
+		assertNull(cache.getIfPresent("protected"));
+		assertNull(cache.getIfPresent("probation"));
+		assertEquals(0L, cache.size());
+	}
+}